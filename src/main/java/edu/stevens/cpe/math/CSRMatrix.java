@@ -0,0 +1,271 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.math;
+
+import java.util.Arrays;
+
+import cern.colt.function.IntIntDoubleFunction;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.SparseDoubleMatrix2D;
+
+/**
+ * Immutable compressed sparse row matrix. The non-zeros of row r are at positions 
+ * rowStart(r) to rowEnd(r)-1 of the column index and value arrays, sorted by column.
+ * 
+ * Rows can be walked directly without the hashing of colt's {@link SparseDoubleMatrix2D}, 
+ * which makes this suitable for per tick fan-out in a simulation.
+ * @author wil
+ *
+ */
+public class CSRMatrix {
+
+	private final int rows;
+	private final int columns;
+	private final int [] rowPointers;
+	private final int [] columnIndexes;
+	private final double [] values;
+	
+	/**
+	 * Arrays are used as given
+	 * @param rows
+	 * @param columns
+	 * @param rowPointers length rows+1
+	 * @param columnIndexes
+	 * @param values
+	 */
+	public CSRMatrix(int rows, int columns, int [] rowPointers, int [] columnIndexes, double [] values){
+		if (rowPointers.length != rows + 1){
+			throw new IllegalArgumentException("Expected " + (rows + 1) + " row pointers, got " + rowPointers.length);
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.rowPointers = rowPointers;
+		this.columnIndexes = columnIndexes;
+		this.values = values;
+	}
+	
+	/**
+	 * Build from coordinate triplets. Entries are placed in row order and within a row in the order 
+	 * given, so pass them sorted by column within each row. Repeated coordinates are kept as separate entries.
+	 * @param rows
+	 * @param columns
+	 * @param rowIndexes
+	 * @param columnIndexes
+	 * @param values
+	 * @param count Number of triplets to use
+	 * @return
+	 */
+	public static CSRMatrix fromTriplets(int rows, int columns, int [] rowIndexes, int [] columnIndexes, double [] values, int count){
+		int [] pointers = new int[rows + 1];
+		for (int k=0; k<count; k++){
+			pointers[rowIndexes[k] + 1]++;
+		}
+		for (int r=0; r<rows; r++){
+			pointers[r + 1] += pointers[r];
+		}
+		int [] next = Arrays.copyOf(pointers, rows);
+		int [] cols = new int[count];
+		double [] vals = new double[count];
+		for (int k=0; k<count; k++){
+			int pos = next[rowIndexes[k]]++;
+			cols[pos] = columnIndexes[k];
+			vals[pos] = values[k];
+		}
+		return new CSRMatrix(rows, columns, pointers, cols, vals);
+	}
+	
+	/**
+	 * Copy the non-zeros of a colt matrix
+	 * @param A
+	 * @return
+	 */
+	public static CSRMatrix valueOf(DoubleMatrix2D A){
+		final int [] counts = new int[A.rows() + 1];
+		A.forEachNonZero(new IntIntDoubleFunction() {
+			@Override public double apply(int row, int column, double value) {
+				counts[row + 1]++;
+				return value;
+			}
+		});
+		for (int r=0; r<A.rows(); r++){
+			counts[r + 1] += counts[r];
+		}
+		int nnz = counts[A.rows()];
+		final int [] cols = new int[nnz];
+		final double [] vals = new double[nnz];
+		final int [] next = Arrays.copyOf(counts, A.rows());
+		A.forEachNonZero(new IntIntDoubleFunction() {
+			@Override public double apply(int row, int column, double value) {
+				int pos = next[row]++;
+				cols[pos] = column;
+				vals[pos] = value;
+				return value;
+			}
+		});
+		//Sparse matrices visit entries in hash order so sort the columns of each row
+		for (int r=0; r<A.rows(); r++){
+			sortRow(cols, vals, counts[r], counts[r + 1]);
+		}
+		return new CSRMatrix(A.rows(), A.columns(), counts, cols, vals);
+	}
+	
+	private static void sortRow(int [] cols, double [] vals, int from, int to){
+		for (int k=from+1; k<to; k++){
+			if (cols[k] < cols[k-1]){
+				long [] keys = new long[to - from];
+				for (int i=from; i<to; i++){
+					keys[i - from] = ((long)cols[i] << 32) | (i - from);
+				}
+				Arrays.sort(keys);
+				double [] copy = Arrays.copyOfRange(vals, from, to);
+				for (int i=0; i<keys.length; i++){
+					cols[from + i] = (int)(keys[i] >>> 32);
+					vals[from + i] = copy[(int)keys[i]];
+				}
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * y = A x
+	 * @param x length columns
+	 * @param y length rows, overwritten
+	 * @return y
+	 */
+	public double [] times(double [] x, double [] y){
+		for (int r=0; r<rows; r++){
+			double sum = 0;
+			for (int k=rowPointers[r]; k<rowPointers[r + 1]; k++){
+				sum += values[k] * x[columnIndexes[k]];
+			}
+			y[r] = sum;
+		}
+		return y;
+	}
+	/**
+	 * y = A' x
+	 * @param x length rows
+	 * @param y length columns, overwritten
+	 * @return y
+	 */
+	public double [] transposeTimes(double [] x, double [] y){
+		Arrays.fill(y, 0, columns, 0);
+		for (int r=0; r<rows; r++){
+			double xr = x[r];
+			if (xr == 0){
+				continue;
+			}
+			for (int k=rowPointers[r]; k<rowPointers[r + 1]; k++){
+				y[columnIndexes[k]] += values[k] * xr;
+			}
+		}
+		return y;
+	}
+	/**
+	 * @return A new matrix holding the transpose, columns of each row in ascending order when the rows of this matrix were
+	 */
+	public CSRMatrix transpose(){
+		int nnz = nonZeros();
+		int [] pointers = new int[columns + 1];
+		for (int k=0; k<nnz; k++){
+			pointers[columnIndexes[k] + 1]++;
+		}
+		for (int c=0; c<columns; c++){
+			pointers[c + 1] += pointers[c];
+		}
+		int [] next = Arrays.copyOf(pointers, columns);
+		int [] cols = new int[nnz];
+		double [] vals = new double[nnz];
+		for (int r=0; r<rows; r++){
+			for (int k=rowPointers[r]; k<rowPointers[r + 1]; k++){
+				int pos = next[columnIndexes[k]]++;
+				cols[pos] = r;
+				vals[pos] = values[k];
+			}
+		}
+		return new CSRMatrix(columns, rows, pointers, cols, vals);
+	}
+	/**
+	 * @param row
+	 * @param column
+	 * @return The value, 0 if not stored. Assumes the columns of the row are sorted
+	 */
+	public double get(int row, int column){
+		int index = Arrays.binarySearch(columnIndexes, rowPointers[row], rowPointers[row + 1], column);
+		return (index < 0) ? 0 : values[index];
+	}
+	/**
+	 * @return A colt sparse copy
+	 */
+	public DoubleMatrix2D toSparseMatrix(){
+		DoubleMatrix2D A = new SparseDoubleMatrix2D(rows, columns);
+		for (int r=0; r<rows; r++){
+			for (int k=rowPointers[r]; k<rowPointers[r + 1]; k++){
+				A.setQuick(r, columnIndexes[k], A.getQuick(r, columnIndexes[k]) + values[k]);
+			}
+		}
+		return A;
+	}
+	
+	public int rows() {
+		return rows;
+	}
+	public int columns() {
+		return columns;
+	}
+	/**
+	 * @return Number of stored entries
+	 */
+	public int nonZeros(){
+		return rowPointers[rows];
+	}
+	/**
+	 * @param row
+	 * @return Position of the first entry of the row
+	 */
+	public int rowStart(int row){
+		return rowPointers[row];
+	}
+	/**
+	 * @param row
+	 * @return Position after the last entry of the row
+	 */
+	public int rowEnd(int row){
+		return rowPointers[row + 1];
+	}
+	/**
+	 * Backing array, do not modify
+	 * @return the row pointers
+	 */
+	public int[] getRowPointers() {
+		return rowPointers;
+	}
+	/**
+	 * Backing array, do not modify
+	 * @return the column index of each entry
+	 */
+	public int[] getColumnIndexes() {
+		return columnIndexes;
+	}
+	/**
+	 * Backing array, do not modify
+	 * @return the value of each entry
+	 */
+	public double[] getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.math;
+
+import java.util.Arrays;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+/**
+ * Ridge regression solved in feature space, W = (X'X + aI)^-1 X'Y. 
+ * 
+ * Samples are added one row at a time into the N x N Gram X'X and the N x L matrix X'Y, so the states never have
+ * to be held together and the cost of a solve depends on the number of features N, not on the number of samples. 
+ * The system is solved with a Cholesky factorization instead of an inverse, all L outputs in one factorization.
+ * 
+ * Features whose pivot vanishes, such as a neuron which never fired when alpha is 0, get a weight of 0 
+ * instead of failing the factorization.
+ * @author wil
+ *
+ */
+public class CholeskyRidge {
+	/**
+	 * Pivots smaller than this fraction of their diagonal are treated as 0
+	 */
+	private static final double PIVOT_TOLERANCE = 1e-12;
+	
+	private final int features;
+	private final int outputs;
+	/**
+	 * X'X, row major, only the upper triangle is accumulated
+	 */
+	private final double [] gram;
+	/**
+	 * X'Y, row major N x L
+	 */
+	private final double [] xty;
+	private long samples = 0;
+	
+	/**
+	 * @param features Number of columns of X, N
+	 * @param outputs Number of columns of Y, L
+	 */
+	public CholeskyRidge(int features, int outputs){
+		this.features = features;
+		this.outputs = outputs;
+		this.gram = new double [features * features];
+		this.xty = new double [features * outputs];
+	}
+	
+	/**
+	 * Accumulate one sample
+	 * @param x state, length N
+	 * @param y target, length L
+	 */
+	public void add(double [] x, double [] y){
+		if (x.length != features || y.length != outputs){
+			throw new IllegalArgumentException("Expected a sample of " + features + " features and " + outputs + " outputs");
+		}
+		for (int i=0; i<features; i++){
+			double xi = x[i];
+			//Spiking states are mostly 0
+			if (xi == 0){
+				continue;
+			}
+			int row = i * features;
+			for (int j=i; j<features; j++){
+				gram[row + j] += xi * x[j];
+			}
+			row = i * outputs;
+			for (int k=0; k<outputs; k++){
+				xty[row + k] += xi * y[k];
+			}
+		}
+		samples++;
+	}
+	/**
+	 * Accumulate each row as a sample
+	 * @param X (n_max x N) states
+	 * @param Y (n_max x L) targets
+	 */
+	public void add(DoubleMatrix2D X, DoubleMatrix2D Y){
+		if (X.rows() != Y.rows()){
+			throw new IllegalArgumentException("States have " + X.rows() + " rows but targets have " + Y.rows());
+		}
+		double [] x = new double [features];
+		double [] y = new double [outputs];
+		for (int r=0; r<X.rows(); r++){
+			for (int i=0; i<features; i++){
+				x[i] = X.getQuick(r, i);
+			}
+			for (int k=0; k<outputs; k++){
+				y[k] = Y.getQuick(r, k);
+			}
+			add(x, y);
+		}
+	}
+	
+	/**
+	 * Solve for the weights with the samples added so far. Can be called again with another alpha.
+	 * @param alpha The identity coefficient
+	 * @return (N x L) weights
+	 */
+	public DoubleMatrix2D solve(double alpha){
+		int n = features;
+		//Lower triangular factor, L[i][j] at i*n+j
+		double [] L = new double [n * n];
+		boolean [] dropped = new boolean [n];
+		for (int i=0; i<n; i++){
+			int rowI = i * n;
+			for (int j=0; j<=i; j++){
+				int rowJ = j * n;
+				//Lower element (i,j) of the symmetric gram is the accumulated upper element (j,i)
+				double sum = gram[rowJ + i];
+				for (int k=0; k<j; k++){
+					sum -= L[rowI + k] * L[rowJ + k];
+				}
+				if (i == j){
+					double diagonal = gram[rowI + i] + alpha;
+					if (sum + alpha <= PIVOT_TOLERANCE * diagonal || diagonal <= 0){
+						dropped[i] = true;
+					} else {
+						L[rowI + i] = Math.sqrt(sum + alpha);
+					}
+				} else if (!dropped[j]){
+					L[rowI + j] = sum / L[rowJ + j];
+				}
+			}
+		}
+		
+		//Forward substitution L*Z = X'Y then back substitution L'*W = Z, all outputs together
+		double [] W = xty.clone();
+		for (int i=0; i<n; i++){
+			int rowI = i * n;
+			int out = i * outputs;
+			if (dropped[i]){
+				for (int k=0; k<outputs; k++){
+					W[out + k] = 0;
+				}
+				continue;
+			}
+			for (int j=0; j<i; j++){
+				double l = L[rowI + j];
+				if (l == 0){
+					continue;
+				}
+				int outJ = j * outputs;
+				for (int k=0; k<outputs; k++){
+					W[out + k] -= l * W[outJ + k];
+				}
+			}
+			double d = L[rowI + i];
+			for (int k=0; k<outputs; k++){
+				W[out + k] /= d;
+			}
+		}
+		for (int i=n-1; i>=0; i--){
+			int out = i * outputs;
+			if (dropped[i]){
+				continue;
+			}
+			for (int j=i+1; j<n; j++){
+				double l = L[j * n + i];
+				if (l == 0){
+					continue;
+				}
+				int outJ = j * outputs;
+				for (int k=0; k<outputs; k++){
+					W[out + k] -= l * W[outJ + k];
+				}
+			}
+			double d = L[i * n + i];
+			for (int k=0; k<outputs; k++){
+				W[out + k] /= d;
+			}
+		}
+		
+		DoubleMatrix2D weights = new DenseDoubleMatrix2D(n, outputs);
+		for (int i=0; i<n; i++){
+			for (int k=0; k<outputs; k++){
+				weights.setQuick(i, k, W[i * outputs + k]);
+			}
+		}
+		return weights;
+	}
+	
+	/**
+	 * Ridge regression of Y on X
+	 * @param X (n_max x N) Matrix where each row is state of reservoir for each time step
+	 * @param Y (n_max x L) Matrix where each row is state of output for each time step
+	 * @param alpha The identity coefficient
+	 * @return (N x L) weights
+	 */
+	public static DoubleMatrix2D solve(DoubleMatrix2D X, DoubleMatrix2D Y, double alpha){
+		CholeskyRidge ridge = new CholeskyRidge(X.columns(), Y.columns());
+		ridge.add(X, Y);
+		return ridge.solve(alpha);
+	}
+	
+	/**
+	 * Forget all samples
+	 */
+	public void clear(){
+		Arrays.fill(gram, 0);
+		Arrays.fill(xty, 0);
+		samples = 0;
+	}
+	/**
+	 * @return the number of samples added
+	 */
+	public long getSampleCount() {
+		return samples;
+	}
+	/**
+	 * @return the number of features, N
+	 */
+	public int getFeatures() {
+		return features;
+	}
+	/**
+	 * @return the number of outputs, L
+	 */
+	public int getOutputs() {
+		return outputs;
+	}
+}
@@ -18,7 +18,8 @@ package edu.stevens.cpe.math;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
 
 import com.google.common.base.Function;
@@ -29,10 +30,8 @@ import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import cern.colt.matrix.impl.SparseDoubleMatrix2D;
 import cern.colt.matrix.linalg.Algebra;
 import cern.colt.matrix.linalg.EigenvalueDecomposition;
-import cern.jet.math.Functions;
 
 public class MLMatrixUtils {
 	 private static Random random = new Random(System.nanoTime());
@@ -73,83 +72,163 @@ public class MLMatrixUtils {
 		}
 	};
 
+	/**
+	 * Sparse uniformly distributed random matrix, see {@link #sprandCSR(int, int, double, Random)}
+	 */
 	public static DoubleMatrix2D sprand(int m, int n, double density){
-		int nnzwanted = (int)Math.round(m * n * Math.min(density, 1));
-		DoubleFactory2D factory = DoubleFactory2D.sparse;
-		DoubleMatrix2D i = factory.random(nnzwanted, 1).assign(customRandomizer).assign(Functions.mult(m)).assign(Functions.floor);//.assign(Functions.plus(1));
-		DoubleMatrix2D j = factory.random(nnzwanted, 1).assign(customRandomizer).assign(Functions.mult(n)).assign(Functions.floor);//.assign(Functions.plus(1));
-
-		DoubleMatrix2D rows=null;
-		DoubleMatrix2D cols=null;
-		//Combine i j
-		DoubleMatrix2D ij = unique(factory.appendColumns(i, j));
-		if (ij.cardinality() != 0){
-			//separate into i and j again
-			rows = ij.viewSelection(null, new int[]{0});
-			cols= ij.viewSelection(null, new int[]{1});
+		return sprand(m, n, density, new Random(System.nanoTime()));
+	}
+	/**
+	 * Sparse uniformly distributed random matrix, see {@link #sprandCSR(int, int, double, Random)}
+	 * @param random Same seed gives the same matrix
+	 */
+	public static DoubleMatrix2D sprand(int m, int n, double density, Random random){
+		return sprandCSR(m, n, density, random).toSparseMatrix();
+	}
+	
+	/**
+	 * Sparse matrix with round(m*n*density) non-zeros at distinct random positions, values uniform in [0,1).
+	 * 
+	 * Runs in O(nnz) without a dense intermediate. Up to half full, positions are drawn at random, bucketed by row
+	 * with a counting sort and duplicates dropped within each row. Positions are drawn again for the duplicates until 
+	 * there are nnz distinct ones, which gives the same distribution as rejecting repeats one at a time. Above half 
+	 * full every position is visited once and selected with the probability needed to get exactly nnz 
+	 * (Knuth's selection sampling).
+	 * @param m rows
+	 * @param n columns
+	 * @param density
+	 * @param random Same seed gives the same matrix
+	 * @return
+	 */
+	public static CSRMatrix sprandCSR(int m, int n, double density, Random random){
+		long cells = (long)m * n;
+		long wanted = Math.round(cells * Math.max(0, Math.min(density, 1)));
+		if (wanted > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("Too many non-zeros for one matrix: " + wanted);
 		}
+		int nnz = (int)wanted;
+		int [] rowPointers = new int [m + 1];
+		int [] columnIndexes = new int [nnz];
 		
-		
-		DoubleMatrix2D rands = factory.random(rows.rows(), 1);
-		
-		double [][] R = new double [m][n];
-		for (int x=0; x<rows.rows(); x++ ){
-		//	for (int y=0; y<n; y++){
-				R[(int)rows.get(x, 0)][(int)cols.get(x, 0)] = rands.get(x, 0);
-		//	}
+		if (nnz <= cells / 2){
+			int [] rowOf = new int [nnz];
+			int [] columnOf = new int [nnz];
+			int distinct = 0;
+			while (true){
+				for (int k=distinct; k<nnz; k++){
+					rowOf[k] = random.nextInt(m);
+					columnOf[k] = random.nextInt(n);
+				}
+				//Bucket by row
+				Arrays.fill(rowPointers, 0);
+				for (int k=0; k<nnz; k++){
+					rowPointers[rowOf[k] + 1]++;
+				}
+				for (int r=0; r<m; r++){
+					rowPointers[r + 1] += rowPointers[r];
+				}
+				int [] next = Arrays.copyOf(rowPointers, m);
+				for (int k=0; k<nnz; k++){
+					columnIndexes[next[rowOf[k]]++] = columnOf[k];
+				}
+				//Sort each row and drop repeated columns, compacting the rows as we go
+				distinct = 0;
+				for (int r=0; r<m; r++){
+					int start = rowPointers[r];
+					int end = rowPointers[r + 1];
+					Arrays.sort(columnIndexes, start, end);
+					rowPointers[r] = distinct;
+					for (int k=start; k<end; k++){
+						if (k == start || columnIndexes[k] != columnIndexes[k - 1]){
+							columnIndexes[distinct++] = columnIndexes[k];
+						}
+					}
+				}
+				rowPointers[m] = distinct;
+				if (distinct == nnz){
+					break;
+				}
+				//Keep the distinct positions and draw again for the rest
+				for (int r=0; r<m; r++){
+					for (int k=rowPointers[r]; k<rowPointers[r + 1]; k++){
+						rowOf[k] = r;
+						columnOf[k] = columnIndexes[k];
+					}
+				}
+			}
+		} else {
+			long needed = nnz;
+			int count = 0;
+			long cell = 0;
+			for (int r=0; r<m; r++){
+				for (int c=0; c<n && needed > 0; c++, cell++){
+					if (random.nextDouble() * (cells - cell) < needed){
+						columnIndexes[count++] = c;
+						needed--;
+					}
+				}
+				rowPointers[r + 1] = count;
+			}
 		}
 		
-		DoubleMatrix2D y = new SparseDoubleMatrix2D(R);
-		return y;
+		double [] values = new double [nnz];
+		for (int k=0; k<nnz; k++){
+			values[k] = random.nextDouble();
+		}
+		return new CSRMatrix(m, n, rowPointers, columnIndexes, values);
 	}
 	
 	/**
 	 * Matlab unique(A,'rows')
 	 * 
-	 * Get rid of duplicate rows
+	 * Get rid of duplicate rows, the rows are returned in sorted order
 	 */
-	public static DoubleMatrix2D unique(DoubleMatrix2D A){
-		A = A.viewSorted(0);
-
-		//Keep track of row indices that are duplicates
-		final ArrayList<Integer> dups = new ArrayList<Integer>();
-
-		for (int x=0; x<A.rows(); x++){
-			if (dups.contains(x)){
-				continue;
-			}
-			for (int y=x+1;y<A.rows(); y++ ){
-				if (!dups.contains(y)){
-					if (A.viewRow(x).equals(A.viewRow(y))){
-						dups.add(y);
+	public static DoubleMatrix2D unique(final DoubleMatrix2D A){
+		Integer [] order = new Integer [A.rows()];
+		for (int x=0; x<order.length; x++){
+			order[x] = x;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				for (int c=0; c<A.columns(); c++){
+					int cmp = Double.compare(A.getQuick(a, c), A.getQuick(b, c));
+					if (cmp != 0){
+						return cmp;
 					}
 				}
+				return 0;
 			}
-		}
+		});
 		
-		//Get unique values in row, return in sorted order
-		final ArrayList<Integer> alKeepRows = new ArrayList<Integer>();
-		for (int i = 0; i< A.rows(); i++){
-			if (!dups.contains(i)){
-				alKeepRows.add(i);
+		//Equal rows are next to each other once sorted, keep the first of each
+		int [] keepRows = new int [order.length];
+		int kept = 0;
+		for (int x=0; x<order.length; x++){
+			if (kept == 0 || !A.viewRow(order[x]).equals(A.viewRow(keepRows[kept - 1]))){
+				keepRows[kept++] = order[x];
 			}
 		}
 		
-		//Ugh conver to primative int array
-		int [] keepRows = new int[alKeepRows.size()];
-		for (int x=0; x<alKeepRows.size(); x++){
-			keepRows[x] = alKeepRows.get(x);
-		}
-		
-		return A.viewSelection(keepRows, null);
+		return A.viewSelection(Arrays.copyOf(keepRows, kept), null);
 	}
 
 	
+	/**
+	 * Exact spectral radius from a dense eigendecomposition, see {@link SpectralRadius} for large sparse matrices
+	 * @param A
+	 * @return the largest eigenvalue modulus, complex eigenvalues included
+	 */
 	public static double getSpectralRadius(DoubleMatrix2D A){
 		
 		EigenvalueDecomposition eigen = new EigenvalueDecomposition(A);
-		DoubleMatrix1D eigenValues = eigen.getRealEigenvalues();
-		return eigenValues.assign(Functions.abs).viewSorted().get(eigenValues.size()-1);
+		DoubleMatrix1D re = eigen.getRealEigenvalues();
+		DoubleMatrix1D im = eigen.getImagEigenvalues();
+		double radius = 0;
+		for (int i=0; i<re.size(); i++){
+			radius = Math.max(radius, Math.hypot(re.getQuick(i), im.getQuick(i)));
+		}
+		return radius;
 	}
 	
 	
@@ -170,38 +249,35 @@ public class MLMatrixUtils {
 		return factory.make(new double [][]{preciseSpikes});
 	}
 	/**
-	 * 
+	 * Solved as (n' x n + aI)^-1 x n' x y with {@link CholeskyRidge}, which is the same as n' x (n x n' + aI)^-1 x y 
+	 * but factors an N x N matrix instead of inverting an n_max x n_max one.
 	 * @param n => (n_max x N) Matrix where each row is state of reservoir for each time step
 	 * @param y => (n_max x L) Matrix where each row is state of output for each time step
 	 * @param alpha The idenity coefficient. This can be found using cross-validation
-	 * @return
+	 * @return (N x L) weights
 	 */
 	public static DoubleMatrix2D ridge(DoubleMatrix2D n, DoubleMatrix2D y, double alpha){
-		DoubleFactory2D factory = DoubleFactory2D.dense;
-
-		//force same type, this is giving a cast error. Bug on their part?
-		DoubleMatrix2D _n = factory.make(n.toArray());
-		DoubleMatrix2D _y = factory.make(y.toArray());
-
-		
-		//aI
-		DoubleMatrix2D scaledIdentity = factory.identity(_n.rows()).assign(Functions.mult(alpha));
-		
-		
-		Algebra alg = new Algebra();
-		// ((n x n^T) + aI)^-1
-		// (n_max x N) x (N x n_max)
-		DoubleMatrix2D inverse = alg.inverse(n.zMult(_n.viewDice(), null).assign(scaledIdentity, Functions.plus));
-		//System.out.println("-1=" + inverse);
-
-		//X = ((n x n^T) + aI)^-1 x n
-		// (n_max x n_max) x 
-		DoubleMatrix2D X = inverse.zMult(_n, null);
-		//System.out.println("X=" + X);
-		//((n x n^T) + aI)^-1 x n x y
-		DoubleMatrix2D weights = X.viewDice().zMult(_y, null);
-		//X.viewDice()
-		return weights;	
+		return CholeskyRidge.solve(n, y, alpha);
+	}
+	/**
+	 * Decompose the states once to evaluate the weights and cross validation errors of many alphas, see {@link RidgePath}
+	 * @param n => (n_max x N) Matrix where each row is state of reservoir for each time step
+	 * @param y => (n_max x L) Matrix where each row is state of output for each time step
+	 * @return
+	 */
+	public static RidgePath ridgePath(DoubleMatrix2D n, DoubleMatrix2D y){
+		return new RidgePath(n, y);
+	}
+	/**
+	 * Ridge regression with alpha chosen by leave-one-out error
+	 * @param n => (n_max x N) Matrix where each row is state of reservoir for each time step
+	 * @param y => (n_max x L) Matrix where each row is state of output for each time step
+	 * @param alphas Candidate identity coefficients
+	 * @return (N x L) weights
+	 */
+	public static DoubleMatrix2D ridge(DoubleMatrix2D n, DoubleMatrix2D y, double [] alphas){
+		RidgePath path = new RidgePath(n, y);
+		return path.weights(path.bestAlpha(alphas));
 	}
 	
 	/**
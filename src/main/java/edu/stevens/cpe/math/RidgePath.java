@@ -0,0 +1,288 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.math;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+
+/**
+ * Ridge regression for many values of alpha from one decomposition of the states. 
+ * 
+ * X'X = V diag(d) V' is decomposed once, after which the weights for any alpha are V diag(1/(d+alpha)) V'X'Y 
+ * and the leave-one-out and generalized cross validation errors have closed forms, so choosing alpha costs 
+ * O(n_max N) per value instead of a new solve, or a new simulation when alpha is searched along with the 
+ * reservoir parameters.
+ * @author wil
+ *
+ */
+public class RidgePath {
+	/**
+	 * Directions whose d + alpha is below this fraction of the largest eigenvalue get no weight
+	 */
+	private static final double EIGENVALUE_TOLERANCE = 1e-12;
+	/**
+	 * Samples whose leverage is this close to 1 are fit exactly, leaving them out tells nothing
+	 */
+	private static final double LEVERAGE_TOLERANCE = 1e-12;
+	
+	private final int samples;
+	private final int features;
+	private final int outputs;
+	/**
+	 * Eigenvalues d of X'X
+	 */
+	private final double [] eigenvalues;
+	/**
+	 * Eigenvectors of X'X, N x N row major, column k belongs to eigenvalue k
+	 */
+	private final double [] V;
+	/**
+	 * Samples in the eigenbasis, Z = XV, n_max x N row major
+	 */
+	private final double [] Z;
+	/**
+	 * Z'Y, N x L row major
+	 */
+	private final double [] ZtY;
+	private final double [] Y;
+	private final double largest;
+	
+	/**
+	 * @param X (n_max x N) Matrix where each row is state of reservoir for each time step
+	 * @param Y (n_max x L) Matrix where each row is state of output for each time step
+	 */
+	public RidgePath(DoubleMatrix2D X, DoubleMatrix2D Y){
+		if (X.rows() != Y.rows()){
+			throw new IllegalArgumentException("States have " + X.rows() + " rows but targets have " + Y.rows());
+		}
+		this.samples = X.rows();
+		this.features = X.columns();
+		this.outputs = Y.columns();
+		int n = features;
+		
+		double [] x = toArray(X);
+		this.Y = toArray(Y);
+		
+		//Exactly symmetric X'X so the symmetric eigensolver is used
+		DenseDoubleMatrix2D gram = new DenseDoubleMatrix2D(n, n);
+		for (int i=0; i<n; i++){
+			for (int j=i; j<n; j++){
+				double sum = 0;
+				for (int t=0; t<samples; t++){
+					sum += x[t * n + i] * x[t * n + j];
+				}
+				gram.setQuick(i, j, sum);
+				gram.setQuick(j, i, sum);
+			}
+		}
+		EigenvalueDecomposition eigen = new EigenvalueDecomposition(gram);
+		DoubleMatrix1D d = eigen.getRealEigenvalues();
+		DoubleMatrix2D vectors = eigen.getV();
+		this.eigenvalues = new double [n];
+		this.V = new double [n * n];
+		double max = 0;
+		for (int k=0; k<n; k++){
+			//Rounding can leave the eigenvalues of a singular gram slightly negative
+			eigenvalues[k] = Math.max(0, d.getQuick(k));
+			max = Math.max(max, eigenvalues[k]);
+			for (int i=0; i<n; i++){
+				V[i * n + k] = vectors.getQuick(i, k);
+			}
+		}
+		this.largest = max;
+		
+		this.Z = new double [samples * n];
+		for (int t=0; t<samples; t++){
+			for (int i=0; i<n; i++){
+				double xi = x[t * n + i];
+				if (xi == 0){
+					continue;
+				}
+				for (int k=0; k<n; k++){
+					Z[t * n + k] += xi * V[i * n + k];
+				}
+			}
+		}
+		this.ZtY = new double [n * outputs];
+		for (int t=0; t<samples; t++){
+			for (int k=0; k<n; k++){
+				double z = Z[t * n + k];
+				for (int l=0; l<outputs; l++){
+					ZtY[k * outputs + l] += z * this.Y[t * outputs + l];
+				}
+			}
+		}
+	}
+	
+	private static double [] toArray(DoubleMatrix2D A){
+		double [] a = new double [A.rows() * A.columns()];
+		for (int i=0; i<A.rows(); i++){
+			for (int j=0; j<A.columns(); j++){
+				a[i * A.columns() + j] = A.getQuick(i, j);
+			}
+		}
+		return a;
+	}
+	
+	/**
+	 * @return 1/(d_k + alpha) for each direction, 0 where it vanishes
+	 */
+	private double [] shrinkage(double alpha){
+		double [] s = new double [features];
+		for (int k=0; k<features; k++){
+			double denominator = eigenvalues[k] + alpha;
+			s[k] = (denominator <= EIGENVALUE_TOLERANCE * largest || denominator <= 0) ? 0 : 1 / denominator;
+		}
+		return s;
+	}
+	
+	/**
+	 * @param alpha The identity coefficient
+	 * @return (N x L) weights, the same as {@link MLMatrixUtils#ridge(DoubleMatrix2D, DoubleMatrix2D, double)}
+	 */
+	public DoubleMatrix2D weights(double alpha){
+		double [] s = shrinkage(alpha);
+		int n = features;
+		DoubleMatrix2D W = new DenseDoubleMatrix2D(n, outputs);
+		for (int i=0; i<n; i++){
+			for (int l=0; l<outputs; l++){
+				double sum = 0;
+				for (int k=0; k<n; k++){
+					sum += V[i * n + k] * s[k] * ZtY[k * outputs + l];
+				}
+				W.setQuick(i, l, sum);
+			}
+		}
+		return W;
+	}
+	
+	/**
+	 * Leave-one-out error from the residuals of the full fit, e_t / (1 - h_tt)
+	 * @param alpha The identity coefficient
+	 * @return mean squared error over samples and outputs, infinite if a sample has leverage 1 
+	 * since its left out error is then unbounded
+	 */
+	public double looError(double alpha){
+		double [] s = shrinkage(alpha);
+		double [] coefficients = coefficients(s);
+		int n = features;
+		double error = 0;
+		for (int t=0; t<samples; t++){
+			int row = t * n;
+			double h = 0;
+			for (int k=0; k<n; k++){
+				double z = Z[row + k];
+				h += z * z * s[k];
+			}
+			if (1 - h <= LEVERAGE_TOLERANCE){
+				return Double.POSITIVE_INFINITY;
+			}
+			double scale = 1 / (1 - h);
+			for (int l=0; l<outputs; l++){
+				double residual = (Y[t * outputs + l] - predict(row, coefficients, l)) * scale;
+				error += residual * residual;
+			}
+		}
+		return error / (samples * outputs);
+	}
+	/**
+	 * Generalized cross validation, the leave-one-out error with every h_tt replaced by their mean
+	 * @param alpha The identity coefficient
+	 * @return mean squared error over samples and outputs
+	 */
+	public double gcvError(double alpha){
+		double [] s = shrinkage(alpha);
+		double [] coefficients = coefficients(s);
+		double trace = 0;
+		for (int k=0; k<features; k++){
+			trace += eigenvalues[k] * s[k];
+		}
+		double error = 0;
+		for (int t=0; t<samples; t++){
+			for (int l=0; l<outputs; l++){
+				double residual = Y[t * outputs + l] - predict(t * features, coefficients, l);
+				error += residual * residual;
+			}
+		}
+		double denominator = 1 - trace / samples;
+		return (denominator <= 0) ? Double.POSITIVE_INFINITY : error / (samples * outputs) / (denominator * denominator);
+	}
+	
+	/**
+	 * Weights in the eigenbasis, s_k (Z'Y)_kl
+	 */
+	private double [] coefficients(double [] s){
+		double [] c = new double [features * outputs];
+		for (int k=0; k<features; k++){
+			for (int l=0; l<outputs; l++){
+				c[k * outputs + l] = s[k] * ZtY[k * outputs + l];
+			}
+		}
+		return c;
+	}
+	private double predict(int row, double [] coefficients, int l){
+		double y = 0;
+		for (int k=0; k<features; k++){
+			y += Z[row + k] * coefficients[k * outputs + l];
+		}
+		return y;
+	}
+	
+	/**
+	 * @param alphas Candidates
+	 * @return the candidate with the smallest leave-one-out error, the first one if every error is infinite
+	 */
+	public double bestAlpha(double [] alphas){
+		double best = alphas[0];
+		double bestError = Double.POSITIVE_INFINITY;
+		for (int i=0; i<alphas.length; i++){
+			double error = looError(alphas[i]);
+			if (error < bestError){
+				bestError = error;
+				best = alphas[i];
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @param min
+	 * @param max
+	 * @param count
+	 * @return count values evenly spaced on a log scale from min to max
+	 */
+	public static double [] logspace(double min, double max, int count){
+		double [] values = new double [count];
+		double a = Math.log(min);
+		double b = Math.log(max);
+		for (int i=0; i<count; i++){
+			values[i] = Math.exp(a + (count == 1 ? 0 : (b - a) * i / (count - 1)));
+		}
+		return values;
+	}
+	
+	public int getSamples() {
+		return samples;
+	}
+	public int getFeatures() {
+		return features;
+	}
+	public int getOutputs() {
+		return outputs;
+	}
+}
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.math;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+
+/**
+ * Spectral radius of a large sparse square matrix without a dense eigendecomposition.
+ * 
+ * {@link #estimate(CSRMatrix, double)} runs thick restarted Arnoldi (Krylov-Schur) over sparse mat-vecs. 
+ * Each cycle fills a Krylov subspace, keeps the basis of the Ritz vectors with the largest moduli and extends it 
+ * again, until the dominant Ritz pair has a residual below the tolerance. Reservoir matrices are not symmetric so 
+ * the dominant eigenvalues are often a complex pair, which plain power iteration does not converge on.
+ * {@link #gershgorinBound(CSRMatrix)} is a cheap upper bound in one pass over the non-zeros.
+ * @author wil
+ *
+ */
+public class SpectralRadius {
+	
+	/**
+	 * Ritz residual, relative to the Ritz value, at which Arnoldi stops
+	 */
+	public static double DEFAULT_TOLERANCE = 1e-4;
+	/**
+	 * Largest Krylov subspace built, memory is this many vectors of length N. Smaller subspaces restart more often
+	 * and can settle on an eigenvalue just inside the edge of the spectrum.
+	 */
+	public static int MAX_KRYLOV_DIMENSION = 100;
+	/**
+	 * Restarts before giving up and returning an unconverged estimate
+	 */
+	public static int MAX_RESTARTS = 300;
+	
+	/**
+	 * Dominant Ritz value modulus and how far it may be from an eigenvalue
+	 * @author wil
+	 *
+	 */
+	public static class Estimate {
+		private final double radius;
+		private final double residual;
+		private final boolean converged;
+		private final int matrixVectorProducts;
+		
+		public Estimate(double radius, double residual, boolean converged, int matrixVectorProducts){
+			this.radius = radius;
+			this.residual = residual;
+			this.converged = converged;
+			this.matrixVectorProducts = matrixVectorProducts;
+		}
+		public double getRadius() {
+			return radius;
+		}
+		/**
+		 * @return ||A x - theta x|| of the dominant Ritz pair, x of unit length
+		 */
+		public double getResidual() {
+			return residual;
+		}
+		/**
+		 * @return true if the residual met the tolerance
+		 */
+		public boolean isConverged() {
+			return converged;
+		}
+		/**
+		 * @return radius plus residual, to scale against when the estimate has not converged
+		 */
+		public double getUpperEstimate() {
+			return radius + residual;
+		}
+		public int getMatrixVectorProducts() {
+			return matrixVectorProducts;
+		}
+		@Override
+		public String toString() {
+			return radius + " (residual " + residual + ", " + (converged ? "" : "not ") + "converged after " 
+					+ matrixVectorProducts + " mat-vecs)";
+		}
+	}
+	
+	private SpectralRadius(){}
+	
+	public static Estimate estimate(CSRMatrix A){
+		return estimate(A, DEFAULT_TOLERANCE);
+	}
+	public static Estimate estimate(CSRMatrix A, double tolerance){
+		return estimate(A, tolerance, MAX_KRYLOV_DIMENSION, MAX_RESTARTS);
+	}
+	/**
+	 * 
+	 * @param A Square matrix
+	 * @param tolerance Stop when the dominant Ritz residual is at most this fraction of the Ritz value
+	 * @param maxDimension Krylov subspace size, half of it is kept on each restart
+	 * @param maxRestarts Give up after this many restarts
+	 * @return the largest Ritz value modulus, exact if the subspace becomes invariant
+	 */
+	public static Estimate estimate(CSRMatrix A, double tolerance, int maxDimension, int maxRestarts){
+		int n = A.rows();
+		if (n != A.columns()){
+			throw new IllegalArgumentException("Matrix must be square, is " + n + "x" + A.columns());
+		}
+		if (A.nonZeros() == 0){
+			return new Estimate(0, 0, true, 0);
+		}
+		int m = Math.min(n, Math.max(maxDimension, 3));
+		double [][] V = new double [m + 1][];
+		double [][] H = new double [m + 1][m];
+		
+		//Fixed seed so the same matrix is always scaled the same way
+		Random random = new Random(1);
+		double [] v = new double [n];
+		for (int i=0; i<n; i++){
+			v[i] = random.nextDouble() - 0.5;
+		}
+		scale(v, 1 / norm(v));
+		V[0] = v;
+		
+		int products = 0;
+		int kept = 0;
+		for (int restart=0; ; restart++){
+			//Extend the Krylov decomposition A V_j = V_j H_j + f e_j' from the kept columns to m
+			int size = m;
+			for (int j=kept; j<m; j++){
+				double [] w = A.times(V[j], new double [n]);
+				products++;
+				double before = norm(w);
+				//Modified Gram-Schmidt, repeated once to keep the basis orthogonal
+				for (int pass=0; pass<2; pass++){
+					for (int i=0; i<=j; i++){
+						double h = dot(V[i], w);
+						H[i][j] += h;
+						axpy(-h, V[i], w);
+					}
+				}
+				double h = norm(w);
+				if (h <= 1e-12 * before){
+					//The subspace is invariant so its Ritz values are eigenvalues
+					H[j + 1][j] = 0;
+					size = j + 1;
+					break;
+				}
+				H[j + 1][j] = h;
+				scale(w, 1 / h);
+				V[j + 1] = w;
+			}
+			//Whole space spanned, nothing is left in f
+			double beta = (size == n) ? 0 : H[size][size - 1];
+			
+			EigenvalueDecomposition eigen = new EigenvalueDecomposition(block(H, size));
+			double [] re = eigen.getRealEigenvalues().toArray();
+			double [] im = eigen.getImagEigenvalues().toArray();
+			double [][] Y = eigen.getV().toArray();
+			Integer [] order = byModulus(re, im);
+			
+			int dominant = order[0];
+			double radius = Math.hypot(re[dominant], im[dominant]);
+			double residual = beta * ritzResidualFactor(Y, re, im, dominant, size);
+			boolean converged = residual <= tolerance * radius || beta == 0;
+			if (converged || restart >= maxRestarts){
+				return new Estimate(radius, residual, converged, products);
+			}
+			
+			//Keep an orthonormal basis Q of the Ritz vectors with the largest moduli, complex pairs together
+			double [][] Q = new double [m / 2 + 1][];
+			int columns = 0;
+			for (int r=0; r<size && columns < m / 2; r++){
+				int i = order[r];
+				if (im[i] < 0){
+					//Added with its partner at i - 1
+					continue;
+				}
+				columns = appendOrthonormal(Q, columns, column(Y, i, size));
+				if (im[i] > 0){
+					columns = appendOrthonormal(Q, columns, column(Y, i + 1, size));
+				}
+			}
+			
+			//A (V Q) = (V Q) (Q' H Q) + f (Q' e_m)', the kept columns are invariant under H so nothing else is lost
+			double [][] basis = new double [columns][];
+			for (int c=0; c<columns; c++){
+				double [] x = new double [n];
+				for (int l=0; l<size; l++){
+					axpy(Q[c][l], V[l], x);
+				}
+				basis[c] = x;
+			}
+			double [][] T = new double [columns][columns];
+			for (int c=0; c<columns; c++){
+				double [] Hq = new double [size];
+				for (int i=0; i<size; i++){
+					for (int l=0; l<size; l++){
+						Hq[i] += H[i][l] * Q[c][l];
+					}
+				}
+				for (int r=0; r<columns; r++){
+					T[r][c] = dot(Q[r], Hq);
+				}
+			}
+			double [] f = V[size];
+			for (int i=0; i<=m; i++){
+				Arrays.fill(H[i], 0);
+				V[i] = null;
+			}
+			for (int c=0; c<columns; c++){
+				V[c] = basis[c];
+				System.arraycopy(T[c], 0, H[c], 0, columns);
+				H[columns][c] = beta * Q[c][size - 1];
+			}
+			V[columns] = f;
+			kept = columns;
+		}
+	}
+	
+	/**
+	 * Largest Gershgorin disc reach over rows and over columns, the smaller of the two
+	 * @param A Square matrix
+	 * @return an upper bound of the spectral radius
+	 */
+	public static double gershgorinBound(CSRMatrix A){
+		int [] columnIndexes = A.getColumnIndexes();
+		double [] values = A.getValues();
+		double [] columnSums = new double [A.columns()];
+		double rowBound = 0;
+		for (int r=0; r<A.rows(); r++){
+			double sum = 0;
+			for (int k=A.rowStart(r); k<A.rowEnd(r); k++){
+				double a = Math.abs(values[k]);
+				sum += a;
+				columnSums[columnIndexes[k]] += a;
+			}
+			rowBound = Math.max(rowBound, sum);
+		}
+		double columnBound = 0;
+		for (int c=0; c<columnSums.length; c++){
+			columnBound = Math.max(columnBound, columnSums[c]);
+		}
+		return Math.min(rowBound, columnBound);
+	}
+	
+	/**
+	 * @return the leading k x k block of H
+	 */
+	private static DenseDoubleMatrix2D block(double [][] H, int k){
+		DenseDoubleMatrix2D Hk = new DenseDoubleMatrix2D(k, k);
+		for (int i=0; i<k; i++){
+			for (int j=0; j<k; j++){
+				Hk.setQuick(i, j, H[i][j]);
+			}
+		}
+		return Hk;
+	}
+	/**
+	 * @return eigenvalue indexes, largest modulus first
+	 */
+	private static Integer [] byModulus(final double [] re, final double [] im){
+		Integer [] order = new Integer [re.length];
+		for (int i=0; i<order.length; i++){
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(Math.hypot(re[b], im[b]), Math.hypot(re[a], im[a]));
+			}
+		});
+		return order;
+	}
+	/**
+	 * The eigenvector y of eigenvalue i is column i of Y, or columns i and i+1 as real and imaginary parts
+	 * of a complex pair (i-1 and i when i holds the conjugate).
+	 * @return |e_k' y| / ||y||, the Ritz residual once multiplied by ||f||
+	 */
+	private static double ritzResidualFactor(double [][] Y, double [] re, double [] im, int i, int k){
+		int real = i;
+		int imaginary = -1;
+		if (im[i] > 0){
+			imaginary = i + 1;
+		} else if (im[i] < 0){
+			real = i - 1;
+			imaginary = i;
+		}
+		double last = Math.abs(Y[k - 1][real]);
+		double length = 0;
+		for (int l=0; l<k; l++){
+			length += Y[l][real] * Y[l][real];
+		}
+		if (imaginary >= 0){
+			last = Math.hypot(last, Y[k - 1][imaginary]);
+			for (int l=0; l<k; l++){
+				length += Y[l][imaginary] * Y[l][imaginary];
+			}
+		}
+		return last / Math.sqrt(length);
+	}
+	/**
+	 * @return the first k entries of column j of Y
+	 */
+	private static double [] column(double [][] Y, int j, int k){
+		double [] x = new double [k];
+		for (int l=0; l<k; l++){
+			x[l] = Y[l][j];
+		}
+		return x;
+	}
+	/**
+	 * Orthogonalise x against Q[0..count) and store it at Q[count] unless it is already in their span
+	 * @return the new count
+	 */
+	private static int appendOrthonormal(double [][] Q, int count, double [] x){
+		double before = norm(x);
+		for (int pass=0; pass<2; pass++){
+			for (int i=0; i<count; i++){
+				axpy(-dot(Q[i], x), Q[i], x);
+			}
+		}
+		double length = norm(x);
+		if (length <= 1e-10 * before){
+			return count;
+		}
+		scale(x, 1 / length);
+		Q[count] = x;
+		return count + 1;
+	}
+	
+	private static double dot(double [] x, double [] y){
+		double sum = 0;
+		for (int i=0; i<x.length; i++){
+			sum += x[i] * y[i];
+		}
+		return sum;
+	}
+	private static void axpy(double a, double [] x, double [] y){
+		for (int i=0; i<x.length; i++){
+			y[i] += a * x[i];
+		}
+	}
+	private static double norm(double [] x){
+		return Math.sqrt(dot(x, x));
+	}
+	private static void scale(double [] x, double a){
+		for (int i=0; i<x.length; i++){
+			x[i] *= a;
+		}
+	}
+}
@@ -0,0 +1,480 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+
+import org.encog.ml.data.MLData;
+
+import edu.stevens.cpe.math.CSRMatrix;
+import edu.stevens.cpe.reservior.layers.Input;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.Synapses;
+
+/**
+ * Advances a reservoir one discrete time step at a time instead of publishing a spike event per connection.
+ * Each tick the spikes fired in the previous tick are fanned out through a compressed sparse row matrix of 
+ * the synapse weights, then the input and bias drive is applied. 
+ * 
+ * Contributions reach each neuron in the same order as the event driven path: recurrent spikes in the order the sources 
+ * fired, then the inputs in order, then the bias. So for neurons which support {@link Neuron#integrate(double, long, long)} 
+ * the spike rasters and state histories are identical to publishing through the EventBus or a {@link SpikeRouter}.
+ * 
+ * The weights are read from the neuron synapses, which are loaded from the {@link edu.stevens.cpe.reservior.topology.NetworkTopology}, when the 
+ * engine is created. Call {@link #rebuild()} after changing them. Only reservoir neurons, inputs and the bias are simulated, neurons
+ * outside the reservoir subscribed to it receive nothing.
+ * 
+ * With more than one thread, see {@link #setThreads(int)}, each tick is delivered by a {@link ParallelTickExecutor} 
+ * with the same results.
+ * 
+ * In coalescing mode, see {@link #setCoalescing(boolean)}, the weighted inputs a neuron receives in a tick are summed 
+ * and the neuron is integrated once per tick with the sum, in the order neurons first received input. This is not the 
+ * same model: a neuron fires at most once per tick, inputs arriving after the one which would have crossed the threshold 
+ * are no longer lost to the reset or refractory period, and inhibitory inputs later in the tick can cancel a spike. 
+ * Rasters are still identical between thread counts.
+ * 
+ * Work per tick scales with activity, not with the size of the reservoir: only the rows of the neurons which fired in the 
+ * previous tick and of the inputs are walked, and only their targets are visited. Integrate and fire neurons do not leak so 
+ * a neuron without input needs no update. The targets visited in a tick are the active set, its size is kept in the 
+ * {@link TickMetrics}. The inputs are connected to every neuron though, so each input delivers to all of them every tick 
+ * even when it is silent. With {@link #setSkipSilentInputs(boolean)} inputs with zero amplitude deliver nothing, which leaves 
+ * spikes unchanged but state histories hold -1 at ticks where a neuron only got silent input.
+ * @author wil
+ *
+ */
+public class ClockDrivenEngine {
+
+	private final Reservoir<?> reservoir;
+	private final Input inputLayer;
+	/**
+	 * Owner of the clock, same as the reservoir
+	 */
+	private final SimulationContext context;
+	private Neuron [] neurons;
+	/**
+	 * Rows are sources: reservoir neurons 0..N-1, then the inputs, then the bias. Columns are the reservoir neurons
+	 */
+	private CSRMatrix fanOut;
+	private int inputRowOffset;
+	private int biasRow;
+	
+	/**
+	 * Neurons that fired in the previous tick in firing order, and the ones firing in the current tick
+	 */
+	private int [] firedPrevious = new int[16];
+	private int firedPreviousCount = 0;
+	private int [] fired = new int[16];
+	private int firedCount = 0;
+	
+	/**
+	 * Total spikes fired by the reservoir since created
+	 */
+	private long spikeCount = 0;
+	/**
+	 * Delivers ticks on several threads, null to deliver on the calling thread
+	 */
+	private ParallelTickExecutor executor;
+	/**
+	 * Sum the inputs of each neuron and integrate once per tick
+	 */
+	private boolean coalescing = false;
+	/**
+	 * Input summed for each neuron in the current tick when coalescing, and the neurons with input in the order they first got it
+	 */
+	private double [] inputs;
+	private boolean [] touched;
+	private int [] touchedOrder;
+	private int touchedCount = 0;
+	/**
+	 * Rows with zero amplitude deliver nothing
+	 */
+	private boolean skipSilentInputs = false;
+	/**
+	 * Rows to deliver in the current tick in order, and the amplitude of each
+	 */
+	private int [] tickRows = new int[16];
+	private double [] tickAmplitudes = new double[16];
+	private int tickRowCount = 0;
+	/**
+	 * Rows delivered, targets visited and size of the active set per tick
+	 */
+	private final TickMetrics metrics = new TickMetrics();
+
+	/**
+	 * @param reservoir
+	 * @param inputLayer
+	 * @throws ReserviorException if a reservoir neuron is connected to a source that is not simulated
+	 */
+	public ClockDrivenEngine(Reservoir<?> reservoir, Input inputLayer) throws ReserviorException{
+		this.reservoir = reservoir;
+		this.inputLayer = inputLayer;
+		this.context = reservoir.getContext();
+		rebuild();
+	}
+	
+	/**
+	 * Reload the weights from the neuron synapses
+	 * @throws ReserviorException if a reservoir neuron is connected to a source that is not simulated
+	 */
+	public void rebuild() throws ReserviorException{
+		this.neurons = reservoir.getNeurons();
+		int N = neurons.length;
+		int [] inputIds = inputLayer.getPublisherIds();
+		this.inputRowOffset = N;
+		this.biasRow = N + inputIds.length;
+		
+		//Map source IDs to rows
+		int maxId = inputLayer.getBiasId();
+		for (int i=0; i<N; i++){
+			maxId = Math.max(maxId, neurons[i].getID());
+		}
+		for (int j=0; j<inputIds.length; j++){
+			maxId = Math.max(maxId, inputIds[j]);
+		}
+		int [] rowOfSource = new int[maxId + 1];
+		Arrays.fill(rowOfSource, -1);
+		for (int i=0; i<N; i++){
+			rowOfSource[neurons[i].getID()] = i;
+		}
+		for (int j=0; j<inputIds.length; j++){
+			rowOfSource[inputIds[j]] = inputRowOffset + j;
+		}
+		rowOfSource[inputLayer.getBiasId()] = biasRow;
+		
+		int nnz = 0;
+		for (int i=0; i<N; i++){
+			nnz += neurons[i].getSynapses().size();
+		}
+		int [] rows = new int[nnz];
+		int [] cols = new int[nnz];
+		double [] vals = new double[nnz];
+		int k = 0;
+		//Targets in ascending order so each row of the matrix is sorted
+		for (int i=0; i<N; i++){
+			Synapses synapses = neurons[i].getSynapses();
+			for (int s=0; s<synapses.size(); s++){
+				int source = synapses.getSourceAt(s);
+				int row = (source <= maxId) ? rowOfSource[source] : -1;
+				if (row < 0){
+					throw new ReserviorException("Neuron " + neurons[i].getName() + " is connected to " + context.getSourceName(source) + " which is not simulated in discrete time");
+				}
+				rows[k] = row;
+				cols[k] = i;
+				vals[k] = synapses.getWeightAt(s);
+				k++;
+			}
+		}
+		this.fanOut = CSRMatrix.fromTriplets(biasRow + 1, N, rows, cols, vals, k);
+		this.inputs = new double[N];
+		this.touched = new boolean[N];
+		this.touchedOrder = new int[N];
+		if (executor != null){
+			executor.setMatrix(fanOut, neurons);
+		}
+	}
+	
+	/**
+	 * @param threads Number of threads delivering each tick, 1 to deliver on the calling thread
+	 */
+	public void setThreads(int threads){
+		if (executor != null){
+			executor.shutdown();
+			executor = null;
+		}
+		if (threads > 1){
+			executor = new ParallelTickExecutor(threads);
+			executor.setCoalescing(coalescing);
+			executor.setMatrix(fanOut, neurons);
+		}
+	}
+	/**
+	 * @param coalescing true to integrate each neuron once per tick with the sum of its inputs, see the class comment for how 
+	 * this differs from integrating every input
+	 */
+	public void setCoalescing(boolean coalescing){
+		this.coalescing = coalescing;
+		if (executor != null){
+			executor.setCoalescing(coalescing);
+		}
+	}
+	/**
+	 * @return true if each neuron is integrated once per tick with the sum of its inputs
+	 */
+	public boolean isCoalescing(){
+		return coalescing;
+	}
+	/**
+	 * @param skipSilentInputs true for inputs with zero amplitude to deliver nothing, so neurons they reach are not 
+	 * part of the active set. Spikes are the same but state histories are not recorded for that input.
+	 */
+	public void setSkipSilentInputs(boolean skipSilentInputs){
+		this.skipSilentInputs = skipSilentInputs;
+	}
+	/**
+	 * @return true if inputs with zero amplitude deliver nothing
+	 */
+	public boolean isSkipSilentInputs(){
+		return skipSilentInputs;
+	}
+	/**
+	 * Take the threads, coalescing and silent input settings of another engine
+	 * @param other
+	 */
+	public void configureLike(ClockDrivenEngine other){
+		setCoalescing(other.isCoalescing());
+		setSkipSilentInputs(other.isSkipSilentInputs());
+		setThreads(other.getThreads());
+	}
+	/**
+	 * @return rows delivered, targets visited and the size of the active set per tick
+	 */
+	public TickMetrics getTickMetrics(){
+		return metrics;
+	}
+	/**
+	 * @return the number of threads delivering each tick
+	 */
+	public int getThreads(){
+		return (executor == null) ? 1 : executor.getThreads();
+	}
+	/**
+	 * Stop the threads delivering ticks, later ticks are delivered on the calling thread
+	 */
+	public void shutdown(){
+		setThreads(1);
+	}
+	
+	/**
+	 * Same as {@link Input#setStaticInput(MLData)}, each of the 63 low bits of every input value is one tick. Must start at time 0
+	 * @param input
+	 * @throws ReserviorException
+	 */
+	public void input(MLData input) throws ReserviorException{
+		int inputs = fanOut.rows() - inputRowOffset - 1;
+		if (input.getData().length != inputs){
+			throw new ReserviorException("There are " + inputs + " input nodes and the training set has " + input.getData().length + " input values.");
+		}
+		checkClock();
+		long [] bits = new long[inputs];
+		for (int j=0; j<inputs; j++){
+			bits[j] = Double.doubleToRawLongBits(input.getData()[j]);
+		}
+		double [] amplitudes = new double[inputs];
+		for (int t=0; t<63; t++){
+			for (int j=0; j<inputs; j++){
+				amplitudes[j] = ((bits[j] & 0x0000001) != 0) ? SpikeEvent.DEFAULT_SPIKE_HEIGHT : 0;
+				bits[j] = bits[j] >> 1;
+			}
+			tick(t, amplitudes, inputLayer.isUseBias());
+		}
+		context.setClock(63);
+		flush();
+	}
+	/**
+	 * Same as {@link Input#setDynamicInput(double[][])}, sample i of every input is given at time i. Must start at time 0
+	 * @param input
+	 * @throws ReserviorException
+	 */
+	public void input(double [][] input) throws ReserviorException{
+		int inputs = fanOut.rows() - inputRowOffset - 1;
+		if (input.length != inputs){
+			throw new ReserviorException("There are " + inputs + " input nodes and the training set has " + input.length + " input values.");
+		}
+		checkClock();
+		int sampleSize = input[0].length;
+		double [] amplitudes = new double[inputs];
+		for (int t=0; t<sampleSize; t++){
+			for (int j=0; j<inputs; j++){
+				amplitudes[j] = input[j][t]*SpikeEvent.DEFAULT_SPIKE_HEIGHT;
+			}
+			tick(t, amplitudes, false);
+		}
+		context.setClock(sampleSize);
+		flush();
+	}
+	
+	/**
+	 * Keep delivering recurrent spikes without input until the reservoir is silent, the clock is 
+	 * left at the last time spikes were delivered
+	 */
+	public void flush(){
+		long t = context.getClock();
+		while (firedPreviousCount > 0){
+			tick(t, null, false);
+			t++;
+		}
+	}
+	
+	/**
+	 * Forget spikes waiting to be delivered, the neurons are reset through the reservoir
+	 */
+	public void clear(){
+		firedPreviousCount = 0;
+		firedCount = 0;
+	}
+	
+	/**
+	 * Deliver everything for time t
+	 * @param t
+	 * @param amplitudes Amplitude of each input, null for no input
+	 * @param bias
+	 */
+	private void tick(long t, double [] amplitudes, boolean bias){
+		context.setClock(t);
+		firedCount = 0;
+		tickRowCount = 0;
+		for (int s=0; s<firedPreviousCount; s++){
+			queue(firedPrevious[s], SpikeEvent.DEFAULT_SPIKE_HEIGHT);
+		}
+		if (amplitudes != null){
+			for (int j=0; j<amplitudes.length; j++){
+				queue(inputRowOffset + j, amplitudes[j]);
+			}
+		}
+		if (bias){
+			queue(biasRow, SpikeEvent.DEFAULT_SPIKE_HEIGHT);
+		}
+		for (int p=0; p<tickRowCount; p++){
+			int row = tickRows[p];
+			metrics.record(t, fanOut.rowEnd(row) - fanOut.rowStart(row), tickRowCount - p - 1);
+		}
+		if (executor != null){
+			tickParallel(t);
+		} else {
+			tickSerial(t);
+		}
+		spikeCount += firedCount;
+		
+		int [] swap = firedPrevious;
+		firedPrevious = fired;
+		firedPreviousCount = firedCount;
+		fired = swap;
+		firedCount = 0;
+	}
+	/**
+	 * Add a row to deliver in the current tick: recurrent spikes in the order the sources fired, then the inputs in order, then the bias
+	 * @param row
+	 * @param amplitude
+	 */
+	private void queue(int row, double amplitude){
+		if (amplitude == 0 && skipSilentInputs){
+			return;
+		}
+		if (tickRowCount == tickRows.length){
+			tickRows = Arrays.copyOf(tickRows, tickRowCount << 1);
+			tickAmplitudes = Arrays.copyOf(tickAmplitudes, tickRowCount << 1);
+		}
+		tickRows[tickRowCount] = row;
+		tickAmplitudes[tickRowCount] = amplitude;
+		tickRowCount++;
+	}
+	private void tickSerial(long t){
+		for (int p=0; p<tickRowCount; p++){
+			deliver(tickRows[p], tickAmplitudes[p], t);
+		}
+		metrics.recordActive(t, touchedCount);
+		if (coalescing){
+			integrateCoalesced(t);
+		} else {
+			for (int s=0; s<touchedCount; s++){
+				touched[touchedOrder[s]] = false;
+			}
+			touchedCount = 0;
+		}
+	}
+	/**
+	 * Same rows in the same order as {@link #tickSerial(long)}, the listener is told about 
+	 * the spikes once the tick is merged
+	 */
+	private void tickParallel(long t){
+		for (int p=0; p<tickRowCount; p++){
+			executor.add(tickRows[p], tickAmplitudes[p]);
+		}
+		fired = executor.tick(t, fired);
+		firedCount = executor.getFiredCount();
+		metrics.recordActive(t, executor.getActiveCount());
+		SpikeListener listener = context.getSpikeListener();
+		if (listener != null){
+			for (int s=0; s<firedCount; s++){
+				listener.spikeFired(neurons[fired[s]].getID(), t + 1);
+			}
+		}
+	}
+	
+	private void deliver(int row, double amplitude, long t){
+		final int [] cols = fanOut.getColumnIndexes();
+		final double [] vals = fanOut.getValues();
+		final int end = fanOut.rowEnd(row);
+		for (int k=fanOut.rowStart(row); k<end; k++){
+			int target = cols[k];
+			if (!touched[target]){
+				touched[target] = true;
+				touchedOrder[touchedCount++] = target;
+			}
+			if (coalescing){
+				inputs[target] += amplitude*vals[k];
+			} else if (neurons[target].integrate(amplitude*vals[k], SpikeEvent.DEFAULT_PULSE_WIDTH, t)){
+				fired(target, t);
+			}
+		}
+	}
+	/**
+	 * Integrate every neuron which got input in the tick once with the sum
+	 * @param t
+	 */
+	private void integrateCoalesced(long t){
+		for (int s=0; s<touchedCount; s++){
+			int target = touchedOrder[s];
+			double current = inputs[target];
+			inputs[target] = 0;
+			touched[target] = false;
+			if (neurons[target].integrate(current, SpikeEvent.DEFAULT_PULSE_WIDTH, t)){
+				fired(target, t);
+			}
+		}
+		touchedCount = 0;
+	}
+	private void fired(int target, long t){
+		SpikeListener listener = context.getSpikeListener();
+		if (listener != null){
+			listener.spikeFired(neurons[target].getID(), t + 1);
+		}
+		if (firedCount == fired.length){
+			fired = Arrays.copyOf(fired, firedCount << 1);
+		}
+		fired[firedCount++] = target;
+	}
+	
+	private void checkClock() throws ReserviorException{
+		if (context.getClock() != 0){
+			throw new ReserviorException("Input starts at time 0 but the clock is at " + context.getClock() + ", reset the reservoir first");
+		}
+		clear();
+	}
+	
+	/**
+	 * @return the fan-out matrix, sources by reservoir neurons
+	 */
+	public CSRMatrix getFanOut() {
+		return fanOut;
+	}
+	/**
+	 * @return the total number of spikes fired by the reservoir
+	 */
+	public long getSpikeCount() {
+		return spikeCount;
+	}
+}
@@ -18,10 +18,9 @@ package edu.stevens.cpe.reservior;
 import java.util.HashMap;
 import java.util.Iterator;
 
-import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
-import edu.stevens.cpe.math.MLMatrixUtils;
 import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.StateProbe;
 
 public abstract class NeuronNetwork implements Subscriber {
 	
@@ -37,30 +36,32 @@ public abstract class NeuronNetwork implements Subscriber {
 		
 		//FIXME we can not cast to a specific nueron type if we are using generics
 		//May need to have classes implementing different types of reservoirs
-		DoubleFactory2D factory = DoubleFactory2D.dense;
 		Neuron n1 = getNeurons()[0];
-		DoubleMatrix2D allSpikes = MLMatrixUtils.convertArrayTo2DMatrix( n1.getFiringTimes());
+		StateCollector allSpikes = new StateCollector((int)n1.getContext().getClock(), getNeurons().length);
 		//Here the neurons are in order
-		for (int i=1; i < getNeurons().length; i++){
-			Neuron n = getNeurons()[i];
-			allSpikes = factory.appendRows(allSpikes, MLMatrixUtils.convertArrayTo2DMatrix(n.getFiringTimes()));
-		}
-		return allSpikes;
+		allSpikes.addFiringTimes(getNeurons());
+		return allSpikes.getMatrix();
 	}
 
 	public DoubleMatrix2D getInternalChargeHistory(){
 		
 		//FIXME we can not cast to a specific nueron type if we are using generics
 		//May need to have classes implementing different types of reservoirs
-		DoubleFactory2D factory = DoubleFactory2D.dense;
 		Neuron n1 = getNeurons()[0];
-		DoubleMatrix2D allSpikes = MLMatrixUtils.convertArrayTo2DMatrix( n1.getStateHistory());
+		StateCollector allSpikes = new StateCollector(n1.getStateHistory().length, getNeurons().length);
 		//Here the neurons are in order
-		for (int i=1; i<getNeurons().length; i++){
-			Neuron n = getNeurons()[i];
-			allSpikes = factory.appendRows(allSpikes, MLMatrixUtils.convertArrayTo2DMatrix(n.getStateHistory()));
+		allSpikes.addStateHistory(getNeurons());
+		return allSpikes.getMatrix();
+	}
+	/**
+	 * Give every neuron a new probe
+	 * @param mode What to record of the membrane potential
+	 * @param parameter Ticks between samples or ticks kept, see {@link StateProbe}
+	 */
+	public void setStateProbes(StateProbe.Mode mode, int parameter){
+		for (int i=0; i<getNeurons().length; i++){
+			getNeurons()[i].setStateProbe(new StateProbe(mode, parameter));
 		}
-		return allSpikes;
 	}
 	public void manipulateWeightsByType(String type, double scale, double shift) {
 		for (int j=0; j<getNeurons().length; j++){
@@ -69,7 +70,7 @@ public abstract class NeuronNetwork implements Subscriber {
 			Iterator<String> it = weights.keySet().iterator();
 			while (it.hasNext()){
 				String key = it.next();
-				getNeurons()[j].getWeights().put(key, (weights.get(key)* scale) + shift);
+				getNeurons()[j].setWeight(key, (weights.get(key)* scale) + shift);
 			}
 		}
 	}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import edu.stevens.cpe.math.CSRMatrix;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+
+/**
+ * Delivers one tick of the {@link ClockDrivenEngine} on several threads. The reservoir neurons are split into 
+ * contiguous ranges holding about the same number of synapses and each worker owns one range, so no two threads 
+ * touch the same neuron. A tick has two phases separated by a barrier:
+ * <ol>
+ * <li>Every worker walks the rows delivered in the tick, in order, and integrates the entries whose target is in 
+ * its range. Rows are sorted by column so a worker finds its entries with a binary search.</li>
+ * <li>The calling thread merges the neurons that fired, ordered by the row which made them fire and then by target, 
+ * which is the order the single threaded engine appends them in.</li>
+ * </ol>
+ * Each neuron sees its inputs in the same order as in the single threaded engine and fires at t+1 either way, 
+ * so rasters and state histories are bit-identical. When coalescing a worker sums the inputs of its neurons over all 
+ * the rows and then integrates each once, in the order they first got input, which again matches the single threaded engine. Integrating stays one contribution at a time rather than summing 
+ * the currents first, since a neuron may fire and reset or start its refractory period part way through a tick.
+ * 
+ * The calling thread works on the first range, the other workers are daemon threads parked on the barrier 
+ * between ticks. Call {@link #shutdown()} to stop them.
+ * @author wil
+ *
+ */
+public class ParallelTickExecutor {
+
+	private final int threads;
+	private final CyclicBarrier start;
+	private final CyclicBarrier end;
+	private final Worker [] workers;
+	private volatile boolean running = true;
+	
+	private CSRMatrix fanOut;
+	private Neuron [] neurons;
+	/**
+	 * Sum the inputs of each neuron and integrate once per tick, see {@link ClockDrivenEngine#setCoalescing(boolean)}
+	 */
+	private volatile boolean coalescing = false;
+	/**
+	 * Input summed for each neuron when coalescing and whether the neuron got input in the tick, each worker only touches its own range
+	 */
+	private double [] inputs;
+	private boolean [] touched;
+	
+	/**
+	 * Rows delivered in the current tick and the amplitude of each
+	 */
+	private int [] rows = new int[16];
+	private double [] amplitudes = new double[16];
+	private int rowCount = 0;
+	private long time;
+	/**
+	 * Next spike of each worker to merge, and the number of neurons fired in the last tick
+	 */
+	private final int [] next;
+	private int firedCount = 0;
+	
+	/**
+	 * One range of target neurons and the spikes they fired in the current tick
+	 */
+	private class Worker implements Runnable {
+		int from;
+		int to;
+		/**
+		 * Position in the row list of the delivery which made each neuron fire
+		 */
+		int [] firedRows = new int[16];
+		int [] firedTargets = new int[16];
+		int firedCount = 0;
+		/**
+		 * Neurons of the range with input in the tick when coalescing, in the order they first got it, and that row
+		 */
+		int [] touchedOrder = new int[16];
+		int [] touchedRows = new int[16];
+		int touchedCount = 0;
+		Throwable error;
+		
+		@Override public void run() {
+			try {
+				while (true){
+					start.await();
+					if (!running){
+						return;
+					}
+					work();
+					end.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (BrokenBarrierException e) {
+				//Shut down while waiting
+			}
+		}
+		
+		void work(){
+			firedCount = 0;
+			error = null;
+			try {
+				if (coalescing){
+					coalesce();
+					return;
+				}
+				touchedCount = 0;
+				final int [] cols = fanOut.getColumnIndexes();
+				final double [] vals = fanOut.getValues();
+				for (int p=0; p<rowCount; p++){
+					int row = rows[p];
+					int end = fanOut.rowEnd(row);
+					int k = lowerBound(cols, fanOut.rowStart(row), end, from);
+					double amplitude = amplitudes[p];
+					for (; k<end && cols[k] < to; k++){
+						int target = cols[k];
+						if (!touched[target]){
+							touch(target, p);
+						}
+						if (neurons[target].integrate(amplitude*vals[k], SpikeEvent.DEFAULT_PULSE_WIDTH, time)){
+							fired(p, target);
+						}
+					}
+				}
+				for (int s=0; s<touchedCount; s++){
+					touched[touchedOrder[s]] = false;
+				}
+			} catch (Throwable e) {
+				error = e;
+			}
+		}
+		
+		void coalesce(){
+			final int [] cols = fanOut.getColumnIndexes();
+			final double [] vals = fanOut.getValues();
+			touchedCount = 0;
+			for (int p=0; p<rowCount; p++){
+				int row = rows[p];
+				int end = fanOut.rowEnd(row);
+				int k = lowerBound(cols, fanOut.rowStart(row), end, from);
+				double amplitude = amplitudes[p];
+				for (; k<end && cols[k] < to; k++){
+					int target = cols[k];
+					if (!touched[target]){
+						touch(target, p);
+					}
+					inputs[target] += amplitude*vals[k];
+				}
+			}
+			for (int s=0; s<touchedCount; s++){
+				int target = touchedOrder[s];
+				double current = inputs[target];
+				inputs[target] = 0;
+				touched[target] = false;
+				if (neurons[target].integrate(current, SpikeEvent.DEFAULT_PULSE_WIDTH, time)){
+					fired(touchedRows[s], target);
+				}
+			}
+		}
+		
+		void touch(int target, int p){
+			touched[target] = true;
+			if (touchedCount == touchedOrder.length){
+				touchedOrder = Arrays.copyOf(touchedOrder, touchedCount << 1);
+				touchedRows = Arrays.copyOf(touchedRows, touchedCount << 1);
+			}
+			touchedOrder[touchedCount] = target;
+			touchedRows[touchedCount] = p;
+			touchedCount++;
+		}
+		
+		void fired(int p, int target){
+			if (firedCount == firedTargets.length){
+				firedRows = Arrays.copyOf(firedRows, firedCount << 1);
+				firedTargets = Arrays.copyOf(firedTargets, firedCount << 1);
+			}
+			firedRows[firedCount] = p;
+			firedTargets[firedCount] = target;
+			firedCount++;
+		}
+	}
+	
+	/**
+	 * @param threads Number of threads delivering each tick, including the calling one
+	 */
+	public ParallelTickExecutor(int threads){
+		if (threads < 1){
+			throw new IllegalArgumentException("Need at least one thread, got " + threads);
+		}
+		this.threads = threads;
+		this.start = new CyclicBarrier(threads);
+		this.end = new CyclicBarrier(threads);
+		this.workers = new Worker[threads];
+		this.next = new int[threads];
+		for (int w=0; w<threads; w++){
+			workers[w] = new Worker();
+		}
+		for (int w=1; w<threads; w++){
+			Thread thread = new Thread(workers[w], "tick-worker-" + w);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Split the targets of the fan-out between the workers by number of synapses
+	 * @param fanOut Sources by reservoir neurons, each row sorted by column
+	 * @param neurons The reservoir neurons, indexed by column
+	 */
+	public void setMatrix(CSRMatrix fanOut, Neuron [] neurons){
+		this.fanOut = fanOut;
+		this.neurons = neurons;
+		int N = fanOut.columns();
+		this.inputs = new double[N];
+		this.touched = new boolean[N];
+		long [] inDegree = new long[N + 1];
+		int [] cols = fanOut.getColumnIndexes();
+		for (int k=0; k<fanOut.nonZeros(); k++){
+			inDegree[cols[k] + 1]++;
+		}
+		for (int i=0; i<N; i++){
+			//Count every neuron once so ranges of silent neurons are split too
+			inDegree[i + 1] += inDegree[i] + 1;
+		}
+		int from = 0;
+		for (int w=0; w<threads; w++){
+			long share = inDegree[N] * (w + 1) / threads;
+			int to = from;
+			while (to < N && inDegree[to + 1] <= share){
+				to++;
+			}
+			if (w == threads - 1){
+				to = N;
+			}
+			workers[w].from = from;
+			workers[w].to = to;
+			from = to;
+		}
+	}
+	
+	/**
+	 * Queue a row to be delivered in the next tick, rows are delivered in the order they are added
+	 * @param row
+	 * @param amplitude
+	 */
+	public void add(int row, double amplitude){
+		if (rowCount == rows.length){
+			rows = Arrays.copyOf(rows, rowCount << 1);
+			amplitudes = Arrays.copyOf(amplitudes, rowCount << 1);
+		}
+		rows[rowCount] = row;
+		amplitudes[rowCount] = amplitude;
+		rowCount++;
+	}
+	
+	/**
+	 * Deliver the rows added since the last tick
+	 * @param t
+	 * @param fired Receives the neurons which fired in the order the single threaded engine finds them, grown if needed
+	 * @return the fired array, and the number of fired neurons in {@link #getFiredCount()}
+	 */
+	public int [] tick(long t, int [] fired){
+		this.time = t;
+		try {
+			start.await();
+			workers[0].work();
+			end.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while delivering tick " + t, e);
+		} catch (BrokenBarrierException e) {
+			throw new IllegalStateException("Workers stopped while delivering tick " + t, e);
+		}
+		rowCount = 0;
+		for (int w=0; w<threads; w++){
+			if (workers[w].error != null){
+				throw new IllegalStateException("Failed to deliver tick " + t, workers[w].error);
+			}
+		}
+		return merge(fired);
+	}
+	
+	/**
+	 * Each worker found its spikes in row order, ranges are in target order, so take the lowest row and the 
+	 * first worker on ties
+	 */
+	private int [] merge(int [] fired){
+		int total = 0;
+		for (int w=0; w<threads; w++){
+			total += workers[w].firedCount;
+		}
+		if (fired.length < total){
+			fired = new int[Math.max(total, fired.length << 1)];
+		}
+		Arrays.fill(next, 0);
+		int count = 0;
+		while (count < total){
+			int best = -1;
+			int bestRow = Integer.MAX_VALUE;
+			for (int w=0; w<threads; w++){
+				Worker worker = workers[w];
+				if (next[w] < worker.firedCount && worker.firedRows[next[w]] < bestRow){
+					best = w;
+					bestRow = worker.firedRows[next[w]];
+				}
+			}
+			//Everything the worker fired for this row is contiguous and in target order
+			Worker worker = workers[best];
+			while (next[best] < worker.firedCount && worker.firedRows[next[best]] == bestRow){
+				fired[count++] = worker.firedTargets[next[best]++];
+			}
+		}
+		this.firedCount = count;
+		return fired;
+	}
+	
+	/**
+	 * @param coalescing true to integrate each neuron once per tick with the sum of its inputs
+	 */
+	public void setCoalescing(boolean coalescing){
+		this.coalescing = coalescing;
+	}
+	/**
+	 * @return true if each neuron is integrated once per tick with the sum of its inputs
+	 */
+	public boolean isCoalescing(){
+		return coalescing;
+	}
+	/**
+	 * @return the number of neurons which got input in the last tick
+	 */
+	public int getActiveCount() {
+		int count = 0;
+		for (int w=0; w<threads; w++){
+			count += workers[w].touchedCount;
+		}
+		return count;
+	}
+	/**
+	 * @return the number of neurons which fired in the last tick
+	 */
+	public int getFiredCount() {
+		return firedCount;
+	}
+	/**
+	 * @return the number of threads delivering each tick, including the calling one
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	/**
+	 * @param w
+	 * @return the first and one past the last neuron delivered to by worker w
+	 */
+	public int [] getRange(int w){
+		return new int []{workers[w].from, workers[w].to};
+	}
+	
+	/**
+	 * Stop the worker threads, the executor can not be used afterwards
+	 */
+	public void shutdown(){
+		if (!running){
+			return;
+		}
+		running = false;
+		start.reset();
+		end.reset();
+	}
+	
+	/**
+	 * @return the first index in [from, to) whose column is not below column
+	 */
+	private static int lowerBound(int [] cols, int from, int to, int column){
+		int lo = from;
+		int hi = to;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (cols[mid] < column){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
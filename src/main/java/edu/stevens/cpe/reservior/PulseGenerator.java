@@ -16,7 +16,6 @@
 package edu.stevens.cpe.reservior;
 
 import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
-import org.bushe.swing.event.EventBus;
 
 
 public class PulseGenerator {
@@ -36,7 +35,7 @@ public class PulseGenerator {
 			double current = (binString.charAt(i) == '1') ? SpikeEvent.DEFAULT_SPIKE_HEIGHT : 0;
 			SpikeEvent ev = new SpikeEvent(current, SpikeEvent.DEFAULT_PULSE_WIDTH);
 			ev.setTime(i);
-			EventBus.publish(srcId,  ev);
+			SimulationContext.current().getEventService().publish(srcId,  ev);
 		}
 	}
 }
@@ -34,7 +34,10 @@ import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
 import org.bushe.swing.event.ThreadSafeEventService;
 import org.encog.engine.network.activation.ActivationFunction;
 
+import edu.stevens.cpe.math.CSRMatrix;
 import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.NeuronPopulation;
+import edu.stevens.cpe.reservior.neuron.PopulationNeuron;
 import edu.stevens.cpe.reservior.topology.NetworkTopology;
 
 /**
@@ -53,6 +56,10 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 	 * To be used to know what the next Id should be for dynamically adding neurons to the reservoir
 	 */
 	private int lastId =0;
+	/**
+	 * ID of the first neuron, the others follow in order
+	 */
+	private int firstID;
 	/**
 	 * Flat network
 	 */
@@ -62,20 +69,51 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 	 * Uniform distribution for weights connected to inputs
 	 */
 	private Random random = new Random(System.nanoTime());
+	
+	/**
+	 * When set spikes are delivered through the router instead of the EventBus
+	 */
+	private SpikeRouter router;
+	/**
+	 * Shared state of the neurons when they are {@link PopulationNeuron}s
+	 */
+	private NeuronPopulation population;
+	/**
+	 * Context of the thread which created the reservoir
+	 */
+	private final SimulationContext context = SimulationContext.current();
 
 	 
 	public Reservoir(int neuronCount, NetworkTopology topology, Class<T> clazz) throws ReserviorException{
+		this(neuronCount, topology, clazz, null);
+	}
+	/**
+	 * 
+	 * @param neuronCount
+	 * @param topology
+	 * @param clazz
+	 * @param router Deliver spikes through this router instead of the EventBus, may be null
+	 * @throws ReserviorException
+	 */
+	public Reservoir(int neuronCount, NetworkTopology topology, Class<T> clazz, SpikeRouter router) throws ReserviorException{
 		startTime = System.nanoTime();
 		this.neuronCount = neuronCount; 
 		this.topology = topology;	
 		this.neuronClass = clazz;
+		this.router = router;
 		
 		try {
 			
 			createNeurons();
 			//TODO move me to network
-			System.setProperty("org.bushe.swing.event.eventBusClass", "org.bushe.swing.event.DiscreteTimeThreadSafeEventService");
-			EventServiceLocator.setEventService("DiscreteTimeThreadSafeEventService", new DiscreteTimeThreadSafeEventService());
+			//Other contexts have their own service, only the default one uses the global EventBus
+			if (context.isDefault()){
+				System.setProperty("org.bushe.swing.event.eventBusClass", "org.bushe.swing.event.DiscreteTimeThreadSafeEventService");
+				if (EventServiceLocator.getEventService("DiscreteTimeThreadSafeEventService") == null){
+					EventServiceLocator.setEventService("DiscreteTimeThreadSafeEventService", new DiscreteTimeThreadSafeEventService());
+				}
+			}
+			//Must happen for every reservoir, not only the first one that registered the service
 			initConnections();
 
 		} catch (IllegalArgumentException e) {
@@ -103,6 +141,45 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 		return neurons;
 	}
 
+	/**
+	 * @return the router, null when spikes go through the EventBus
+	 */
+	public SpikeRouter getRouter() {
+		return router;
+	}
+	/**
+	 * @return the context owning the clock and IDs of the reservoir
+	 */
+	public SimulationContext getContext() {
+		return context;
+	}
+	/**
+	 * @return the population holding the neuron state when the neurons are {@link PopulationNeuron}s, otherwise null
+	 */
+	public NeuronPopulation getPopulation() {
+		return population;
+	}
+
+	/**
+	 * @return the ID of the first neuron, neuron i has the ID firstID + i
+	 */
+	public int getFirstID() {
+		return firstID;
+	}
+
+	/**
+	 * @return the topology the recurrent connections were created from
+	 */
+	public NetworkTopology getTopology() {
+		return topology;
+	}
+	/**
+	 * @return the class of the neurons
+	 */
+	public Class<T> getNeuronClass() {
+		return neuronClass;
+	}
+
 	/**
 	 * @return the neuronCount
 	 */
@@ -132,9 +209,19 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 	 */
 	private void createNeurons() throws IllegalArgumentException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException{
 		neurons=	(T[])Array.newInstance(neuronClass,neuronCount);
+		//0 in a new context, otherwise after the IDs of the networks already in it
+		firstID = context.generateIDs(neuronCount);
+		if (neuronClass == PopulationNeuron.class){
+			population = new NeuronPopulation(neuronCount, context);
+		}
 
 		for (int i=0; i<neuronCount; i++){
-			neurons[i] =	neuronClass.getConstructor(Integer.class).newInstance(i);			
+			if (population != null){
+				neurons[i] = neuronClass.cast(new PopulationNeuron(population, i, firstID + i));
+			} else {
+				neurons[i] =	neuronClass.getConstructor(Integer.class).newInstance(firstID + i);
+			}
+			neurons[i].setRouter(router);
 		}
 	}
 	
@@ -143,7 +230,20 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 	 * @throws ReserviorException 
 	 */
 	private void initConnections() throws ReserviorException{
-		
+		CSRMatrix matrix = topology.getConnectionMatrix();
+		if (matrix != null){
+			//Walk the rows directly, no maps are built per neuron
+			int [] columnIndexes = matrix.getColumnIndexes();
+			double [] values = matrix.getValues();
+			for (int i=0; i<neurons.length; i++){
+				for (int k=matrix.rowStart(i); k<matrix.rowEnd(i); k++){
+					if (values[k] != 0){
+						neurons[i].subscribe(neurons[columnIndexes[k]], values[k]);
+					}
+				}
+			}
+			return;
+		}
 		for (int i=0; i<neurons.length; i++){
 			HashMap<Integer,Double> indexMapping = topology.getConnections(i);
 			//Using the indexes obtain the actual neurons
@@ -177,7 +277,7 @@ public class Reservoir <T extends Neuron> extends NeuronNetwork  {
 			neurons[i].reset();
 		}
 		//reset clock
-		ReservoirNetwork.resetClock();
+		context.resetClock();
 	}
 
 	/**
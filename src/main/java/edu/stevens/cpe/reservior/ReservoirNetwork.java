@@ -16,7 +16,10 @@
 package edu.stevens.cpe.reservior;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,6 +27,7 @@ import java.util.concurrent.Future;
 
 import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
 import org.bushe.swing.event.EventBus;
+import org.bushe.swing.event.EventService;
 import org.bushe.swing.event.EventServiceExistsException;
 import org.bushe.swing.event.EventServiceLocator;
 import org.encog.ml.data.MLData;
@@ -57,20 +61,21 @@ import edu.stevens.cpe.reservior.topology.NetworkTopology;
 public class ReservoirNetwork <T extends Neuron> {
 	
 	
-	private volatile static long CLK = 0;
-	private static Object clkLock = new Object();
-	
-	/**
-	 * Lock for updating next ID
-	 */
-	private static Object idLock = new Object();
 	/**
-	 * To be used for neurons being dynamically added so they have a unique ID
+	 * Clock, IDs and event service of this network
 	 */
-	public static volatile int NEXT_ID = 0;
+	private final SimulationContext context;
 	
 	private Reservoir<T> reservoir;
 	private Input inputLayer;
+	/**
+	 * When set spikes are delivered through the router instead of the EventBus
+	 */
+	private SpikeRouter router;
+	/**
+	 * When set the reservoir is advanced one tick at a time instead of by events
+	 */
+	private ClockDrivenEngine clockDrivenEngine;
 	
 	
 	/**
@@ -83,11 +88,46 @@ public class ReservoirNetwork <T extends Neuron> {
 	 * @throws ReserviorException
 	 */
 	public ReservoirNetwork(int inputs, int N, boolean useBias, NetworkTopology topology, Class<T> clazz) throws ReserviorException{
-		this.reservoir = new Reservoir<T>(N, topology, clazz);
-		this.inputLayer = new Input(reservoir, inputs, useBias);
-		
-		//After initialization the next avaible ID will be the length of the number of neurons
-		setNEXT_ID(N);
+		this(inputs, N, useBias, topology, clazz, null);
+	}
+	/**
+	 * 
+	 * @param inputs
+	 * @param N number of neurons in the reservoir
+	 * @param useBias Whether to use a bias or not
+	 * @param topology 
+	 * @param clazz The class of the neurons
+	 * @param router Deliver spikes through this router instead of the EventBus, may be null
+	 * @throws ReserviorException
+	 */
+	public ReservoirNetwork(int inputs, int N, boolean useBias, NetworkTopology topology, Class<T> clazz, SpikeRouter router) throws ReserviorException{
+		this(inputs, N, useBias, topology, clazz, router, SimulationContext.current());
+	}
+	/**
+	 * 
+	 * @param inputs
+	 * @param N number of neurons in the reservoir
+	 * @param useBias Whether to use a bias or not
+	 * @param topology 
+	 * @param clazz The class of the neurons
+	 * @param router Deliver spikes through this router instead of the EventBus, may be null
+	 * @param context Owns the clock, IDs and event service of the network. Networks in different contexts can run concurrently
+	 * @throws ReserviorException
+	 */
+	public ReservoirNetwork(int inputs, int N, boolean useBias, NetworkTopology topology, Class<T> clazz, SpikeRouter router, SimulationContext context) throws ReserviorException{
+		this.context = context;
+		this.router = router;
+		if (router != null){
+			router.setContext(context);
+		}
+		SimulationContext previous = context.enter();
+		try {
+			//The neurons take the next N IDs of the context, so other networks in the context keep their names
+			this.reservoir = new Reservoir<T>(N, topology, clazz, router);
+			this.inputLayer = new Input(reservoir, inputs, useBias);
+		} finally {
+			SimulationContext.exit(previous);
+		}
 /*
 		System.setProperty("org.bushe.swing.event.eventBusClass", "org.bushe.swing.event.DiscreteTimeThreadSafeEventService");
 		try {
@@ -102,13 +142,21 @@ public class ReservoirNetwork <T extends Neuron> {
 	 * @throws ReserviorException
 	 */
 	public void input(MLData input) throws ReserviorException  {
-	    //Input driven, Spike trains will act as clock
-		
-		inputLayer.setStaticInput(input);
-		
-		//Handle any left over spikes in the buffer
-		DiscreteTimeThreadSafeEventService ev = (DiscreteTimeThreadSafeEventService)EventBus.getGlobalEventService();
-		ev.flush();
+		SimulationContext previous = context.enter();
+		try {
+			if (clockDrivenEngine != null){
+				clockDrivenEngine.input(input);
+				return;
+			}
+		    //Input driven, Spike trains will act as clock
+			
+			inputLayer.setStaticInput(input);
+			
+			//Handle any left over spikes in the buffer
+			flush();
+		} finally {
+			SimulationContext.exit(previous);
+		}
 	}
 	/**
 	 * For dynamic data
@@ -116,20 +164,152 @@ public class ReservoirNetwork <T extends Neuron> {
 	 * @throws ReserviorException 
 	 */
 	public void input(double [][] input) throws ReserviorException{
-		inputLayer.setDynamicInput(input);
-		
-		//Handle any left over spikes in the buffer
-		DiscreteTimeThreadSafeEventService ev = (DiscreteTimeThreadSafeEventService)EventBus.getGlobalEventService();
-		ev.flush();
+		SimulationContext previous = context.enter();
+		try {
+			if (clockDrivenEngine != null){
+				clockDrivenEngine.input(input);
+				return;
+			}
+			inputLayer.setDynamicInput(input);
+			
+			//Handle any left over spikes in the buffer
+			flush();
+		} finally {
+			SimulationContext.exit(previous);
+		}
+	}
+	/**
+	 * Deliver any spikes still buffered for future times
+	 */
+	public void flush(){
+		if (clockDrivenEngine != null){
+			clockDrivenEngine.flush();
+		} else if (router != null){
+			router.flush();
+		} else {
+			DiscreteTimeThreadSafeEventService ev = (DiscreteTimeThreadSafeEventService)context.getEventService();
+			ev.flush();
+		}
 	}
 	/**
-	 * @return the nEXT_ID
+	 * @return A new ID from the context of the calling thread
 	 */
 	public static int generateID() {
-	
-		int id = NEXT_ID;
-		setNEXT_ID(id+1);
-		return id;
+		return SimulationContext.current().generateID();
+	}
+
+	/**
+	 * Register the integer ID used for a named spike source in the context of the calling thread
+	 * @see SimulationContext#registerSource(String, int)
+	 * @param name
+	 * @param id
+	 */
+	public static void registerSource(String name, int id){
+		SimulationContext.current().registerSource(name, id);
+	}
+	/**
+	 * @see SimulationContext#getSourceID(String)
+	 * @param name
+	 * @return
+	 */
+	public static int getSourceID(String name){
+		return SimulationContext.current().getSourceID(name);
+	}
+	/**
+	 * @see SimulationContext#findSourceID(String)
+	 * @param name
+	 * @return
+	 */
+	public static int findSourceID(String name){
+		return SimulationContext.current().findSourceID(name);
+	}
+	/**
+	 * @see SimulationContext#getSourceName(int)
+	 * @param id
+	 * @return
+	 */
+	public static String getSourceName(int id){
+		return SimulationContext.current().getSourceName(id);
+	}
+	/**
+	 * Forget all sources registered in the context of the calling thread
+	 */
+	public static void clearSources(){
+		SimulationContext.current().clearSources();
+	}
+
+	/**
+	 * @return the router, null when spikes go through the EventBus
+	 */
+	public SpikeRouter getRouter() {
+		return router;
+	}
+	/**
+	 * Switch between simulating the reservoir one tick at a time and publishing spike events. The clock 
+	 * driven weights are taken from the neurons when switched on, switch on again after changing them.
+	 * @param clockDriven
+	 * @throws ReserviorException if the reservoir has connections which can not be simulated tick by tick
+	 */
+	public void setClockDriven(boolean clockDriven) throws ReserviorException {
+		ClockDrivenEngine previous = clockDrivenEngine;
+		this.clockDrivenEngine = clockDriven ? new ClockDrivenEngine(reservoir, inputLayer) : null;
+		if (previous != null){
+			if (clockDrivenEngine != null){
+				clockDrivenEngine.configureLike(previous);
+			}
+			previous.shutdown();
+		}
+	}
+	/**
+	 * @return true if input is simulated one tick at a time
+	 */
+	public boolean isClockDriven() {
+		return clockDrivenEngine != null;
+	}
+	/**
+	 * @return the clock driven engine, null when simulating by events
+	 */
+	public ClockDrivenEngine getClockDrivenEngine() {
+		return clockDrivenEngine;
+	}
+
+	/**
+	 * Create an independent network in a new context with the same neurons and weights, including the random
+	 * input weights. The copy can be simulated on another thread at the same time as this network. Output layers
+	 * are not copied. 
+	 * @return the copy
+	 * @throws ReserviorException
+	 */
+	public ReservoirNetwork<T> copy() throws ReserviorException {
+		SimulationContext copyContext = new SimulationContext();
+		copyContext.setNextID(reservoir.getFirstID());
+		copyContext.setMemoryCapacity(context.getMemoryCapacity());
+		copyContext.setThreshold(context.getThreshold());
+		copyContext.setRefractoryPeriod(context.getRefractoryPeriod());
+		copyContext.setTimeConstant(context.getTimeConstant());
+		copyContext.setProbeMode(context.getProbeMode());
+		copyContext.setProbeParameter(context.getProbeParameter());
+		
+		ReservoirNetwork<T> copy = new ReservoirNetwork<T>(inputLayer.getNumberInputs(), reservoir.getNeuronCount(), inputLayer.isUseBias(), 
+				reservoir.getTopology(), reservoir.getNeuronClass(), (router != null) ? new SpikeRouter() : null, copyContext);
+		//Names are the same in both contexts since the neurons start from the same ID. Sources the copy 
+		//does not have yet, such as output feedback, are left to whoever copies them.
+		Neuron [] neurons = reservoir.getNeurons();
+		for (int i=0; i<neurons.length; i++){
+			Neuron target = copy.getReservior().getNeurons()[i];
+			Iterator<Map.Entry<String, Double>> it = neurons[i].getWeights().entrySet().iterator();
+			while (it.hasNext()){
+				Map.Entry<String, Double> weight = it.next();
+				if (copyContext.findSourceID(weight.getKey()) >= 0){
+					target.setWeight(weight.getKey(), weight.getValue());
+				}
+			}
+		}
+		if (isClockDriven()){
+			copy.setClockDriven(true);
+			copy.getClockDrivenEngine().configureLike(clockDrivenEngine);
+		}
+		return copy;
 	}
 
 	/**
@@ -170,9 +350,7 @@ public class ReservoirNetwork <T extends Neuron> {
 	 * @param nEXT_ID the nEXT_ID to set
 	 */
 	public static void setNEXT_ID(int nextID) {
-		synchronized (idLock) {
-			NEXT_ID = nextID;
-		}
+		SimulationContext.current().setNextID(nextID);
 	}
 	/**
 	 * Get the internal state of the reservoir 
@@ -218,23 +396,26 @@ public class ReservoirNetwork <T extends Neuron> {
 	public void setInputLayer(Input inputLayer) {
 		this.inputLayer = inputLayer;
 	}
+	/*
+	 * The static clock methods act on the context of the calling thread
+	 */
 	public static void setClock(long time){
-		synchronized (clkLock) {
-			CLK= time;
-		}
+		SimulationContext.current().setClock(time);
 	}
 	public static void incClock(){
-		synchronized (clkLock) {
-			CLK++;
-		}
+		SimulationContext.current().incClock();
 	}
 	public static long getClock(){
-		return CLK;
+		return SimulationContext.current().getClock();
 	}
 	public static void resetClock(){
-		synchronized (clkLock) {
-			CLK = 0;
-		}
+		SimulationContext.current().resetClock();
+	}
+	/**
+	 * @return the context owning the clock, IDs and event service of this network
+	 */
+	public SimulationContext getContext() {
+		return context;
 	}
 	
 	public void save(File dest){
@@ -247,20 +428,28 @@ public class ReservoirNetwork <T extends Neuron> {
 	 * Do clean up, release subscribers becasue we are strongly subscribed
 	 */
 	public void shutdown(){
+		if (clockDrivenEngine != null){
+			clockDrivenEngine.shutdown();
+		}
+		if (router != null){
+			router.clear();
+			return;
+		}
+		EventService eventService = context.getEventService();
 		//Unsubscribe from neurons in 
 		for (int i=0; i< reservoir.getNeurons().length; i++){
 			String topic = reservoir.getNeurons()[i].getName();
-			List subscribers = EventBus.getSubscribers(topic);
+			List subscribers = eventService.getSubscribers(topic);
 			for (int j=0; j<subscribers.size(); j++){
-				EventBus.unsubscribe(topic, subscribers.get(j));
+				eventService.unsubscribe(topic, subscribers.get(j));
 			}
 		}
 		
 		//Unsubscribe from the input
 		for (int i=0; i<inputLayer.getPublishers().length; i++){
-			List subscribers = EventBus.getSubscribers(inputLayer.getPublishers()[i]);
+			List subscribers = eventService.getSubscribers(inputLayer.getPublishers()[i]);
 			for (int j=0; j<subscribers.size(); j++){
-				EventBus.unsubscribe(inputLayer.getPublishers()[i], subscribers.get(j));
+				eventService.unsubscribe(inputLayer.getPublishers()[i], subscribers.get(j));
 			}
 		}
 		
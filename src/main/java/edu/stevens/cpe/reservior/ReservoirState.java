@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.SpikeTrain;
+
+/**
+ * Activity of the reservoir neurons after one input was presented: the spikes of every neuron, 
+ * the membrane potentials it ended with and the time it took. A readout without feedback is a function 
+ * of this alone, so it can be evaluated again without simulating the reservoir.
+ * @author wil
+ *
+ */
+public class ReservoirState {
+
+	private final long clock;
+	private final SpikeTrain [] spikeTrains;
+	private final double [] membranePotentials;
+	/**
+	 * Every spike in the order it reached the neurons listening to the reservoir
+	 */
+	private final long [] arrivalTimes;
+	private final int [] sources;
+	
+	/**
+	 * Copy the state of the neurons. The order spikes were fired in is not known, spikes reaching the 
+	 * listeners at the same time are ordered by neuron index. Each spike arrives one tick after the time in the spike train.
+	 * @param neurons
+	 * @param clock Time the input ended at
+	 */
+	public ReservoirState(Neuron [] neurons, long clock){
+		this(neurons, clock, null, null, 0);
+	}
+	/**
+	 * Copy the state of the neurons along with the spikes in the order they were fired
+	 * @param neurons
+	 * @param clock Time the input ended at
+	 * @param arrivalTimes Time each spike reaches the listeners of its source
+	 * @param sources Index in neurons of the source of each spike
+	 * @param count Number of spikes, null arrays fall back to {@link #ReservoirState(Neuron[], long)}
+	 */
+	public ReservoirState(Neuron [] neurons, long clock, long [] arrivalTimes, int [] sources, int count){
+		this.clock = clock;
+		this.spikeTrains = new SpikeTrain[neurons.length];
+		this.membranePotentials = new double[neurons.length];
+		int total = 0;
+		for (int i=0; i<neurons.length; i++){
+			spikeTrains[i] = neurons[i].getSpikeTrain().copy();
+			membranePotentials[i] = neurons[i].getCurrentMembranePotential();
+			total += spikeTrains[i].count();
+		}
+		if (arrivalTimes != null){
+			this.arrivalTimes = Arrays.copyOf(arrivalTimes, count);
+			this.sources = Arrays.copyOf(sources, count);
+			return;
+		}
+		//time << 32 | index sorts by time then index
+		long [] keys = new long[total];
+		int k = 0;
+		for (int i=0; i<neurons.length; i++){
+			for (long t = spikeTrains[i].nextSpike(0); t >= 0; t = spikeTrains[i].nextSpike(t + 1)){
+				keys[k++] = ((t + 1) << 32) | i;
+			}
+		}
+		Arrays.sort(keys);
+		this.arrivalTimes = new long[total];
+		this.sources = new int[total];
+		for (k=0; k<total; k++){
+			this.arrivalTimes[k] = keys[k] >>> 32;
+			this.sources[k] = (int)keys[k];
+		}
+	}
+	
+	/**
+	 * @return the time the input ended at
+	 */
+	public long getClock() {
+		return clock;
+	}
+	/**
+	 * @return number of neurons
+	 */
+	public int size(){
+		return spikeTrains.length;
+	}
+	/**
+	 * @param neuron index in the reservoir
+	 * @return the spikes of the neuron
+	 */
+	public SpikeTrain getSpikeTrain(int neuron){
+		return spikeTrains[neuron];
+	}
+	/**
+	 * @return the number of spikes of each neuron up to the clock
+	 */
+	public double [] getSpikeCounts(){
+		double [] counts = new double[spikeTrains.length];
+		for (int i=0; i<counts.length; i++){
+			counts[i] = spikeTrains[i].count(0, clock);
+		}
+		return counts;
+	}
+	/**
+	 * @return the membrane potential of each neuron when the input ended, do not modify
+	 */
+	public double [] getMembranePotentials() {
+		return membranePotentials;
+	}
+	/**
+	 * @return the total number of spikes
+	 */
+	public int getSpikeCount(){
+		return sources.length;
+	}
+	/**
+	 * Spikes are in the order they reach the neurons listening to the reservoir
+	 * @param k
+	 * @return the time the k-th spike reaches the listeners of its source
+	 */
+	public long getArrivalTime(int k){
+		return arrivalTimes[k];
+	}
+	/**
+	 * @param k
+	 * @return index of the neuron which fired the k-th spike
+	 */
+	public int getSpikeSource(int k){
+		return sources[k];
+	}
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
+import org.bushe.swing.event.EventBus;
+import org.bushe.swing.event.EventService;
+
+import edu.stevens.cpe.reservior.neuron.DiscreteLIFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.StateProbe;
+
+/**
+ * Everything a network needs that used to be shared across the JVM: the discrete time clock, the ID allocator, 
+ * the registry of spike source IDs, the event service spikes are published through and the neuron parameters.
+ * Networks in different contexts share nothing so they can be simulated at the same time on separate threads.
+ * 
+ * Networks, neurons and layers take the context that is current on the constructing thread and keep it. 
+ * A thread uses the default context unless another one is entered, so code which does not know about 
+ * contexts behaves as before: the default context publishes through the global {@link EventBus} and reads
+ * its neuron parameters from the static fields of {@link IFSpikingNeuron} and {@link DiscreteLIFSpikingNeuron}. 
+ * How the membrane potential of new neurons is recorded is always kept per context.
+ * 
+ * A context is not meant to be shared by threads running at the same time.
+ * @author wil
+ *
+ */
+public class SimulationContext {
+
+	private static final SimulationContext DEFAULT = new SimulationContext(true);
+	
+	private static final ThreadLocal<SimulationContext> CURRENT = new ThreadLocal<SimulationContext>(){
+		@Override protected SimulationContext initialValue() {
+			return DEFAULT;
+		}
+	};
+	
+	/**
+	 * True for the default context which uses the global EventBus and static neuron parameters
+	 */
+	private final boolean global;
+	
+	private volatile long clock = 0;
+	private final Object clkLock = new Object();
+	
+	/**
+	 * Lock for the ID allocator and source registry
+	 */
+	private final Object idLock = new Object();
+	private int nextID = 0;
+	/**
+	 * Integer ID of every named spike source, neurons and inputs, used to index synapses without topic strings
+	 */
+	private final HashMap<String,Integer> sourceIDs = new HashMap<String,Integer>();
+	/**
+	 * Name of each registered source indexed by its ID
+	 */
+	private final ArrayList<String> sourceNames = new ArrayList<String>();
+	
+	private EventService eventService;
+	/**
+	 * Told about every spike fired in this context, may be null
+	 */
+	private SpikeListener spikeListener;
+	
+	private double memoryCapacity;
+	private double threshold;
+	private long refractoryPeriod;
+	private double timeConstant;
+	/**
+	 * Mode of the {@link StateProbe} new neurons are created with
+	 */
+	private StateProbe.Mode probeMode = StateProbe.Mode.FULL;
+	/**
+	 * Ticks between samples, or ticks in the window, of the probes new neurons are created with
+	 */
+	private int probeParameter = 1000;
+	
+	/**
+	 * A new independent context with its own event service. Neuron parameters start from the current values of the 
+	 * static fields in {@link IFSpikingNeuron}
+	 */
+	public SimulationContext(){
+		this(false);
+	}
+	private SimulationContext(boolean global){
+		this.global = global;
+		this.memoryCapacity = IFSpikingNeuron.MEMORY_CAPACITY_COEF;
+		this.threshold = IFSpikingNeuron.THRESHOLD;
+		this.refractoryPeriod = IFSpikingNeuron.REFACTORY_PEROID;
+		this.timeConstant = DiscreteLIFSpikingNeuron.TIME_CONSTANT;
+	}
+	
+	/**
+	 * @return The context used by threads which have not entered another one
+	 */
+	public static SimulationContext getDefault(){
+		return DEFAULT;
+	}
+	/**
+	 * @return The context of the calling thread
+	 */
+	public static SimulationContext current(){
+		return CURRENT.get();
+	}
+	/**
+	 * Make this the context of the calling thread, so objects constructed by the thread belong to it.
+	 * Pass the returned context to {@link #exit(SimulationContext)} when done.
+	 * @return The context the thread had before
+	 */
+	public SimulationContext enter(){
+		SimulationContext previous = CURRENT.get();
+		CURRENT.set(this);
+		return previous;
+	}
+	/**
+	 * Go back to the context the thread had before {@link #enter()}
+	 * @param previous
+	 */
+	public static void exit(SimulationContext previous){
+		CURRENT.set(previous);
+	}
+	/**
+	 * @return true for the default context
+	 */
+	public boolean isDefault(){
+		return global;
+	}
+	
+	/**
+	 * The default context uses the global EventBus, which must be a {@link DiscreteTimeThreadSafeEventService}. Other
+	 * contexts create their own service the first time it is needed.
+	 * @return The service spikes are published through when there is no router
+	 */
+	public EventService getEventService(){
+		if (global){
+			return EventBus.getGlobalEventService();
+		}
+		synchronized (idLock) {
+			if (eventService == null){
+				eventService = new DiscreteTimeThreadSafeEventService(this);
+			}
+			return eventService;
+		}
+	}
+	
+	public long getClock(){
+		return clock;
+	}
+	public void setClock(long time){
+		synchronized (clkLock) {
+			clock = time;
+		}
+	}
+	public void incClock(){
+		synchronized (clkLock) {
+			clock++;
+		}
+	}
+	public void resetClock(){
+		synchronized (clkLock) {
+			clock = 0;
+		}
+	}
+	
+	/**
+	 * @return A new ID for a neuron
+	 */
+	public int generateID() {
+		synchronized (idLock) {
+			return nextID++;
+		}
+	}
+	/**
+	 * Hand out a block of consecutive IDs
+	 * @param count
+	 * @return The first ID of the block
+	 */
+	public int generateIDs(int count) {
+		synchronized (idLock) {
+			int first = nextID;
+			nextID += count;
+			return first;
+		}
+	}
+	/**
+	 * @param nextID The next ID to give out
+	 */
+	public void setNextID(int nextID) {
+		synchronized (idLock) {
+			this.nextID = nextID;
+		}
+	}
+	/**
+	 * Register the integer ID used for a named spike source. A later registration of the same name replaces the earlier one.
+	 * @param name
+	 * @param id
+	 */
+	public void registerSource(String name, int id){
+		synchronized (idLock) {
+			String previous = setSourceName(id, name);
+			if (previous != null && !previous.equals(name)){
+				sourceIDs.remove(previous);
+			}
+			sourceIDs.put(name, id);
+		}
+	}
+	/**
+	 * The integer ID of a named spike source, sources not seen before are given a new ID
+	 * @param name
+	 * @return
+	 */
+	public int getSourceID(String name){
+		synchronized (idLock) {
+			Integer id = sourceIDs.get(name);
+			if (id == null){
+				id = nextID++;
+				sourceIDs.put(name, id);
+				setSourceName(id, name);
+			}
+			return id;
+		}
+	}
+	/**
+	 * Unlike {@link #getSourceID(String)} no ID is given to unknown names
+	 * @param name
+	 * @return The ID of a registered source, -1 if the name is not registered
+	 */
+	public int findSourceID(String name){
+		synchronized (idLock) {
+			Integer id = sourceIDs.get(name);
+			return (id == null) ? -1 : id;
+		}
+	}
+	/**
+	 * @param id
+	 * @return The name of the source with the ID, null if there is none
+	 */
+	public String getSourceName(int id){
+		synchronized (idLock) {
+			return (id >= 0 && id < sourceNames.size()) ? sourceNames.get(id) : null;
+		}
+	}
+	/**
+	 * Forget all registered sources. Neurons still holding IDs of this context will no longer resolve their source 
+	 * names, so only call this when no network of the context is used anymore.
+	 */
+	public void clearSources(){
+		synchronized (idLock) {
+			sourceIDs.clear();
+			sourceNames.clear();
+		}
+	}
+	/**
+	 * Must hold idLock
+	 * @return the name previously given to the ID
+	 */
+	private String setSourceName(int id, String name){
+		while (sourceNames.size() <= id){
+			sourceNames.add(null);
+		}
+		return sourceNames.set(id, name);
+	}
+	
+	/**
+	 * @return the listener told about every spike, null if none
+	 */
+	public SpikeListener getSpikeListener() {
+		return spikeListener;
+	}
+	/**
+	 * @param spikeListener Told about every spike fired from now on, null to stop
+	 */
+	public void setSpikeListener(SpikeListener spikeListener) {
+		this.spikeListener = spikeListener;
+	}
+	
+	/**
+	 * @return How many times a neuron must be stimulated before it fires, see {@link IFSpikingNeuron#MEMORY_CAPACITY_COEF}
+	 */
+	public double getMemoryCapacity() {
+		return global ? IFSpikingNeuron.MEMORY_CAPACITY_COEF : memoryCapacity;
+	}
+	public void setMemoryCapacity(double memoryCapacity) {
+		if (global){
+			IFSpikingNeuron.MEMORY_CAPACITY_COEF = memoryCapacity;
+		}
+		this.memoryCapacity = memoryCapacity;
+	}
+	/**
+	 * @return The membrane potential a neuron fires above, see {@link IFSpikingNeuron#THRESHOLD}
+	 */
+	public double getThreshold() {
+		return global ? IFSpikingNeuron.THRESHOLD : threshold;
+	}
+	public void setThreshold(double threshold) {
+		if (global){
+			IFSpikingNeuron.THRESHOLD = threshold;
+		}
+		this.threshold = threshold;
+	}
+	/**
+	 * @return Number of ticks a neuron ignores input after firing, see {@link IFSpikingNeuron#REFACTORY_PEROID}
+	 */
+	public long getRefractoryPeriod() {
+		return global ? IFSpikingNeuron.REFACTORY_PEROID : refractoryPeriod;
+	}
+	public void setRefractoryPeriod(long refractoryPeriod) {
+		if (global){
+			IFSpikingNeuron.REFACTORY_PEROID = refractoryPeriod;
+		}
+		this.refractoryPeriod = refractoryPeriod;
+	}
+	/**
+	 * @return Membrane time constant in ticks of leaky neurons, see {@link DiscreteLIFSpikingNeuron#TIME_CONSTANT}
+	 */
+	public double getTimeConstant() {
+		return global ? DiscreteLIFSpikingNeuron.TIME_CONSTANT : timeConstant;
+	}
+	public void setTimeConstant(double timeConstant) {
+		if (global){
+			DiscreteLIFSpikingNeuron.TIME_CONSTANT = timeConstant;
+		}
+		this.timeConstant = timeConstant;
+	}
+	/**
+	 * @return What the probes of new neurons record of the membrane potential
+	 */
+	public StateProbe.Mode getProbeMode() {
+		return probeMode;
+	}
+	public void setProbeMode(StateProbe.Mode probeMode) {
+		this.probeMode = probeMode;
+	}
+	/**
+	 * @return Ticks between samples for SAMPLED, or ticks kept for WINDOW, of the probes of new neurons
+	 */
+	public int getProbeParameter() {
+		return probeParameter;
+	}
+	public void setProbeParameter(int probeParameter) {
+		this.probeParameter = probeParameter;
+	}
+}
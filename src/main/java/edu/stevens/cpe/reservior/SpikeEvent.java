@@ -26,6 +26,11 @@ public class SpikeEvent {
 	 */
 	public static final long DEFAULT_PULSE_WIDTH = 1 ;//* (long)Math.pow(10, 6); //1
 
+	/**
+	 * Source ID of an event whose publisher is only known by its topic
+	 */
+	public static final int UNKNOWN_SOURCE = -1;
+
 	/**
 	 * The strength of the pulse
 	 */
@@ -39,7 +44,11 @@ public class SpikeEvent {
 	 */
 	private long time = 0;
 	
-	private int sourceID;
+	private int sourceID = UNKNOWN_SOURCE;
+	/**
+	 * Set when the event came from a {@link SpikeEventPool} and may be reused once delivered
+	 */
+	boolean pooled = false;
 	
 	public SpikeEvent(){
 		this(DEFAULT_SPIKE_HEIGHT,DEFAULT_PULSE_WIDTH);
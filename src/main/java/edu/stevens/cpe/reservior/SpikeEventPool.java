@@ -0,0 +1,85 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+
+/**
+ * Free list of {@link SpikeEvent}s so delivering spikes does not allocate once the pool holds as many 
+ * events as are in flight at one time. Only events obtained from a pool are taken back, events created 
+ * with a constructor may still be held by whoever published them.
+ * 
+ * Not thread safe, a pool belongs to a single {@link SpikeRouter}.
+ * @author wil
+ *
+ */
+public class SpikeEventPool {
+
+	private SpikeEvent [] free = new SpikeEvent[64];
+	private int size = 0;
+	/**
+	 * Number of events the pool had to create
+	 */
+	private long created = 0;
+
+	/**
+	 * @param amplitude
+	 * @param pulseWidth
+	 * @param time
+	 * @return an event with no source which must not be kept after it has been delivered
+	 */
+	public SpikeEvent obtain(double amplitude, long pulseWidth, long time){
+		SpikeEvent event;
+		if (size > 0){
+			event = free[--size];
+			free[size] = null;
+			event.setSourceID(SpikeEvent.UNKNOWN_SOURCE);
+			event.setAmplitude(amplitude);
+			event.setPulseWidth(pulseWidth);
+		} else {
+			event = new SpikeEvent(amplitude, pulseWidth);
+			event.pooled = true;
+			created++;
+		}
+		event.setTime(time);
+		return event;
+	}
+	/**
+	 * Take back an event which has been delivered, events not obtained from a pool are ignored
+	 * @param event
+	 */
+	public void recycle(SpikeEvent event){
+		if (!event.pooled){
+			return;
+		}
+		if (size == free.length){
+			free = Arrays.copyOf(free, size << 1);
+		}
+		free[size++] = event;
+	}
+	/**
+	 * @return the number of events ready to be reused
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * @return the number of events the pool has created since it was made
+	 */
+	public long getCreated() {
+		return created;
+	}
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+/**
+ * Told about every spike a neuron of a context fires, in the order they are fired. 
+ * Set with {@link SimulationContext#setSpikeListener(SpikeListener)}.
+ * @author wil
+ *
+ */
+public interface SpikeListener {
+
+	/**
+	 * @param sourceID ID of the neuron which fired
+	 * @param time Time the spike reaches the neurons listening to the source
+	 */
+	public void spikeFired(int sourceID, long time);
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+
+import org.bushe.swing.event.BufferedEventQueue;
+import org.bushe.swing.event.EventTimeBuffer;
+import org.bushe.swing.event.TimingWheelEventTimeBuffer;
+
+import edu.stevens.cpe.reservior.neuron.Neuron;
+
+/**
+ * In process alternative to the EventBus for delivering spikes. Sources are identified by the integer ID
+ * carried in {@link SpikeEvent#getSourceID()} which indexes directly into per source fan-out arrays of
+ * (target ID, weight), so there is no topic lookup, status tracking or event caching per spike.
+ * 
+ * Timing follows {@link org.bushe.swing.event.DiscreteTimeThreadSafeEventService}: spikes for a time other than the
+ * current clock are buffered and delivered once the clock reaches that time, spikes for the current time
+ * are queued after anything already buffered for it and delivered in a loop, never from inside another delivery.
+ * 
+ * Events obtained from {@link #obtain(double, long, long)} are returned to a pool once they have been delivered, so 
+ * neurons firing through the router do not allocate.
+ * 
+ * Not thread safe, a router belongs to a single network.
+ * @author wil
+ *
+ */
+public class SpikeRouter {
+
+	private static final int [] NO_TARGETS = new int[0];
+	private static final double [] NO_WEIGHTS = new double[0];
+
+	/**
+	 * Subscribed neurons indexed by their ID
+	 */
+	private Neuron [] neurons = new Neuron[16];
+	/**
+	 * Fan-out of each source, indexed by source ID. Only the first fanOutCount entries are used.
+	 */
+	private int [][] fanOutTargets = new int[16][];
+	private double [][] fanOutWeights = new double[16][];
+	private int [] fanOutCount = new int[16];
+
+	private final EventTimeBuffer eventBuffer;
+	/**
+	 * Spikes drained from the buffer waiting to be delivered
+	 */
+	private final BufferedEventQueue pending = new BufferedEventQueue();
+	/**
+	 * Delivered events waiting to be reused
+	 */
+	private final SpikeEventPool pool = new SpikeEventPool();
+	/**
+	 * Set while the delivery loop is running further up the stack
+	 */
+	private boolean delivering = false;
+	/**
+	 * Work done by the delivery loop per tick
+	 */
+	private final TickMetrics metrics = new TickMetrics();
+	/**
+	 * Owner of the clock spikes are timed against
+	 */
+	private SimulationContext context = SimulationContext.current();
+
+	public SpikeRouter(){
+		this(new TimingWheelEventTimeBuffer());
+	}
+	/**
+	 * @param eventBuffer Where spikes for future times are held until the clock reaches them
+	 */
+	public SpikeRouter(EventTimeBuffer eventBuffer){
+		this.eventBuffer = eventBuffer;
+	}
+
+	/**
+	 * Deliver spikes from source to target. Targets of a source are kept in ascending ID order, the order the 
+	 * clock driven engine delivers in, so connections added later do not change the delivery order.
+	 * @param sourceID
+	 * @param target
+	 * @param weight
+	 */
+	public void connect(int sourceID, Neuron target, double weight){
+		int targetID = target.getID();
+		ensureNeuronCapacity(targetID);
+		neurons[targetID] = target;
+		
+		ensureSourceCapacity(sourceID);
+		int [] targets = fanOutTargets[sourceID];
+		int count = fanOutCount[sourceID];
+		//Subscribing again only updates the weight, same as a second put into the weight map
+		int position = count;
+		for (int k=0; k<count; k++){
+			if (targets[k] == targetID){
+				fanOutWeights[sourceID][k] = weight;
+				return;
+			}
+			if (targets[k] > targetID && position == count){
+				position = k;
+			}
+		}
+		if (count == targets.length){
+			int cap = Math.max(4, count << 1);
+			fanOutTargets[sourceID] = Arrays.copyOf(targets, cap);
+			fanOutWeights[sourceID] = Arrays.copyOf(fanOutWeights[sourceID], cap);
+		}
+		targets = fanOutTargets[sourceID];
+		double [] weights = fanOutWeights[sourceID];
+		System.arraycopy(targets, position, targets, position + 1, count - position);
+		System.arraycopy(weights, position, weights, position + 1, count - position);
+		targets[position] = targetID;
+		weights[position] = weight;
+		fanOutCount[sourceID] = count + 1;
+	}
+
+	/**
+	 * Update the weight of an existing connection
+	 * @param sourceID
+	 * @param targetID
+	 * @param weight
+	 * @return false if the connection does not exist
+	 */
+	public boolean setWeight(int sourceID, int targetID, double weight){
+		if (sourceID < 0 || sourceID >= fanOutCount.length){
+			return false;
+		}
+		int [] targets = fanOutTargets[sourceID];
+		for (int k=0; k<fanOutCount[sourceID]; k++){
+			if (targets[k] == targetID){
+				fanOutWeights[sourceID][k] = weight;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stop delivering spikes from source to target, the remaining targets keep their delivery order
+	 * @param sourceID
+	 * @param targetID
+	 * @return false if the connection does not exist
+	 */
+	public boolean disconnect(int sourceID, int targetID){
+		if (sourceID < 0 || sourceID >= fanOutCount.length){
+			return false;
+		}
+		int [] targets = fanOutTargets[sourceID];
+		int count = fanOutCount[sourceID];
+		for (int k=0; k<count; k++){
+			if (targets[k] == targetID){
+				System.arraycopy(targets, k + 1, targets, k, count - k - 1);
+				System.arraycopy(fanOutWeights[sourceID], k + 1, fanOutWeights[sourceID], k, count - k - 1);
+				fanOutCount[sourceID] = count - 1;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param sourceID
+	 * @return The number of neurons receiving spikes from this source
+	 */
+	public int getFanOut(int sourceID){
+		return (sourceID < 0 || sourceID >= fanOutCount.length) ? 0 : fanOutCount[sourceID];
+	}
+
+	/**
+	 * An event for this router which is reused once delivered, it must not be kept after publishing
+	 * @param amplitude
+	 * @param pulseWidth
+	 * @param time
+	 * @return
+	 */
+	public SpikeEvent obtain(double amplitude, long pulseWidth, long time){
+		return pool.obtain(amplitude, pulseWidth, time);
+	}
+	/**
+	 * @return the pool of delivered events
+	 */
+	public SpikeEventPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Publish a spike from the source identified by {@link SpikeEvent#getSourceID()}
+	 * @param event
+	 */
+	public void publish(SpikeEvent event){
+		long clock = context.getClock();
+		if (event.getTime() != clock){
+			eventBuffer.add(event.getTime(), null, event);
+			return;
+		}
+		//Anything buffered for the current time goes out first
+		if (!eventBuffer.isEmpty()){
+			eventBuffer.drainTo(clock, pending);
+		}
+		pending.add(null, event);
+		if (!delivering){
+			deliverPending();
+		}
+	}
+
+	/**
+	 * Deliver everything left in the buffer, moving the clock forward to each buffered time
+	 */
+	public void flush(){
+		while (!eventBuffer.isEmpty()){
+			long next = eventBuffer.nextTime();
+			context.setClock(next);
+			eventBuffer.drainTo(next, pending);
+			if (!delivering){
+				deliverPending();
+			}
+		}
+	}
+
+	/**
+	 * @return the context whose clock spikes are timed against
+	 */
+	public SimulationContext getContext() {
+		return context;
+	}
+	/**
+	 * Set by the network the router is given to
+	 * @param context the context whose clock spikes are timed against
+	 */
+	public void setContext(SimulationContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * @return the work done by the delivery loop per tick
+	 */
+	public TickMetrics getTickMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Drop all buffered spikes and connections
+	 */
+	public void clear(){
+		eventBuffer.clear();
+		pending.clear();
+		Arrays.fill(neurons, null);
+		Arrays.fill(fanOutCount, 0);
+	}
+
+	/**
+	 * Deliver the spikes queued for the current time in the order they were queued. Spikes published while 
+	 * delivering are appended to the queue, so the stack does not grow with the length of a cascade.
+	 */
+	private void deliverPending(){
+		delivering = true;
+		try {
+			while (!pending.isEmpty()){
+				SpikeEvent event = (SpikeEvent)pending.getEvent(0);
+				pending.removeFirst();
+				deliver(event);
+				pool.recycle(event);
+			}
+		} finally {
+			delivering = false;
+		}
+	}
+
+	private void deliver(SpikeEvent event){
+		int sourceID = event.getSourceID();
+		int count = getFanOut(sourceID);
+		metrics.record(context.getClock(), count, pending.size());
+		if (count == 0){
+			return;
+		}
+		int [] targets = fanOutTargets[sourceID];
+		double [] weights = fanOutWeights[sourceID];
+		for (int k=0; k<count; k++){
+			neurons[targets[k]].receive(event, weights[k]);
+		}
+	}
+
+	private void ensureNeuronCapacity(int id){
+		if (id >= neurons.length){
+			neurons = Arrays.copyOf(neurons, Math.max(id + 1, neurons.length << 1));
+		}
+	}
+	private void ensureSourceCapacity(int id){
+		if (id >= fanOutCount.length){
+			int cap = Math.max(id + 1, fanOutCount.length << 1);
+			fanOutTargets = Arrays.copyOf(fanOutTargets, cap);
+			fanOutWeights = Arrays.copyOf(fanOutWeights, cap);
+			fanOutCount = Arrays.copyOf(fanOutCount, cap);
+		}
+		if (fanOutTargets[id] == null){
+			fanOutTargets[id] = NO_TARGETS;
+			fanOutWeights[id] = NO_WEIGHTS;
+		}
+	}
+}
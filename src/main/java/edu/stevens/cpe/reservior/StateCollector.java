@@ -0,0 +1,169 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+import java.util.Arrays;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+import edu.stevens.cpe.reservior.neuron.Neuron;
+
+/**
+ * Collects states one row at a time, a row per sample, tick or neuron, into a flat row-major buffer 
+ * which grows geometrically. Adding n rows is O(n) where appending to a colt matrix copies the whole 
+ * matrix each time.
+ * 
+ * {@link #getMatrix()} wraps the buffer in a {@link DenseDoubleMatrix2D} without copying, so it can be 
+ * handed straight to readout training.
+ * @author wil
+ *
+ */
+public class StateCollector {
+	
+	private final int columns;
+	private int rows = 0;
+	private double [] buffer;
+	
+	/**
+	 * @param columns Length of every row
+	 */
+	public StateCollector(int columns){
+		this(columns, 16);
+	}
+	/**
+	 * @param columns Length of every row
+	 * @param expectedRows Rows to allocate room for up front
+	 */
+	public StateCollector(int columns, int expectedRows){
+		this.columns = columns;
+		this.buffer = new double [Math.max(1, expectedRows) * columns];
+	}
+	
+	/**
+	 * Append a row of zeros
+	 * @return the index of the new row, fill it in with {@link #set(int, int, double)}
+	 */
+	public int addRow(){
+		ensureCapacity(rows + 1);
+		int offset = rows * columns;
+		Arrays.fill(buffer, offset, offset + columns, 0);
+		return rows++;
+	}
+	/**
+	 * Append a copy of the row
+	 * @param row
+	 */
+	public void addRow(double [] row){
+		if (row.length != columns){
+			throw new IllegalArgumentException("Expected a row of " + columns + " columns, got " + row.length);
+		}
+		ensureCapacity(rows + 1);
+		System.arraycopy(row, 0, buffer, rows * columns, columns);
+		rows++;
+	}
+	/**
+	 * Append the firing times of each neuron as a row, 1 in the columns of the times the neuron spiked. 
+	 * Spikes at times past the last column are left out.
+	 * @param neurons
+	 */
+	public void addFiringTimes(Neuron [] neurons){
+		ensureCapacity(rows + neurons.length);
+		for (int i=0; i<neurons.length; i++){
+			int row = addRow();
+			neurons[i].getSpikeTrain().copyTo(buffer, row * columns, columns);
+		}
+	}
+	/**
+	 * Append the charge history of each neuron as a row
+	 * @param neurons
+	 */
+	public void addStateHistory(Neuron [] neurons){
+		ensureCapacity(rows + neurons.length);
+		for (int i=0; i<neurons.length; i++){
+			addRow(neurons[i].getStateHistory());
+		}
+	}
+	
+	public double get(int row, int column){
+		return buffer[row * columns + column];
+	}
+	public void set(int row, int column, double value){
+		buffer[row * columns + column] = value;
+	}
+	
+	/**
+	 * The rows collected so far. The matrix shares the buffer, it stops seeing the buffer once more rows are added 
+	 * and the buffer has to grow.
+	 * @return (rows x columns) matrix
+	 */
+	public DoubleMatrix2D getMatrix(){
+		return new BufferMatrix(rows, columns, buffer);
+	}
+	
+	/**
+	 * Forget all rows, keeping the buffer
+	 */
+	public void clear(){
+		rows = 0;
+	}
+	/**
+	 * Shrink the buffer to the rows collected
+	 */
+	public void trimToSize(){
+		if (buffer.length > rows * columns){
+			buffer = Arrays.copyOf(buffer, rows * columns);
+		}
+	}
+	
+	private void ensureCapacity(int neededRows){
+		long needed = (long)neededRows * columns;
+		if (needed <= buffer.length){
+			return;
+		}
+		long capacity = Math.max(needed, (long)buffer.length * 2);
+		if (capacity > Integer.MAX_VALUE - 8){
+			if (needed > Integer.MAX_VALUE - 8){
+				throw new IllegalStateException("Can not hold " + neededRows + " rows of " + columns + " columns");
+			}
+			capacity = Integer.MAX_VALUE - 8;
+		}
+		buffer = Arrays.copyOf(buffer, (int)capacity);
+	}
+	
+	/**
+	 * @return the number of rows collected
+	 */
+	public int rows() {
+		return rows;
+	}
+	/**
+	 * @return the length of every row
+	 */
+	public int columns() {
+		return columns;
+	}
+	
+	/**
+	 * Dense matrix over the first rows of the buffer
+	 */
+	private static class BufferMatrix extends DenseDoubleMatrix2D {
+		private static final long serialVersionUID = 1L;
+		BufferMatrix(int rows, int columns, double [] buffer){
+			super(rows, columns, buffer, 0, 0, columns, 1);
+		}
+	}
+}
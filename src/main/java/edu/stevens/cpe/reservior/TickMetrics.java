@@ -0,0 +1,200 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior;
+
+/**
+ * Work done per discrete time step by a spike delivery loop: events taken off the worklist, subscribers 
+ * notified and how long the worklist grew. A tick ends when an event for a different time is recorded. 
+ * Loops which know the set of neurons visited in a tick also record its size.
+ * @author wil
+ *
+ */
+public class TickMetrics {
+
+	private long ticks = 0;
+	private long events = 0;
+	private long deliveries = 0;
+	
+	/**
+	 * The tick being recorded, -1 before the first event
+	 */
+	private long tickTime = -1;
+	private int tickEvents = 0;
+	private long tickDeliveries = 0;
+	
+	private int maxTickEvents = 0;
+	private long maxTickDeliveries = 0;
+	private long busiestTick = -1;
+	private int maxPending = 0;
+	
+	/**
+	 * Neurons visited in the latest tick, the most in one tick and the sum over all ticks
+	 */
+	private int tickActive = 0;
+	private int maxTickActive = 0;
+	private long active = 0;
+	
+	/**
+	 * One event was delivered
+	 * @param time The tick it was delivered in
+	 * @param subscribers Number of subscribers it was delivered to
+	 * @param pending Events still waiting in the worklist for the same tick
+	 */
+	public void record(long time, int subscribers, int pending){
+		if (time != tickTime){
+			ticks++;
+			tickTime = time;
+			tickEvents = 0;
+			tickDeliveries = 0;
+		}
+		tickEvents++;
+		tickDeliveries += subscribers;
+		events++;
+		deliveries += subscribers;
+		if (tickEvents > maxTickEvents){
+			maxTickEvents = tickEvents;
+		}
+		if (tickDeliveries > maxTickDeliveries){
+			maxTickDeliveries = tickDeliveries;
+			busiestTick = time;
+		}
+		if (pending > maxPending){
+			maxPending = pending;
+		}
+	}
+	/**
+	 * The neurons visited in a tick, recorded once the tick is delivered
+	 * @param time
+	 * @param count Number of distinct neurons which got input in the tick
+	 */
+	public void recordActive(long time, int count){
+		if (time != tickTime){
+			//Nothing was delivered in the tick
+			ticks++;
+			tickTime = time;
+			tickEvents = 0;
+			tickDeliveries = 0;
+		}
+		tickActive = count;
+		active += count;
+		if (count > maxTickActive){
+			maxTickActive = count;
+		}
+	}
+	/**
+	 * Forget everything recorded
+	 */
+	public void clear(){
+		ticks = 0;
+		events = 0;
+		deliveries = 0;
+		tickTime = -1;
+		tickEvents = 0;
+		tickDeliveries = 0;
+		maxTickEvents = 0;
+		maxTickDeliveries = 0;
+		busiestTick = -1;
+		maxPending = 0;
+		tickActive = 0;
+		maxTickActive = 0;
+		active = 0;
+	}
+	
+	/**
+	 * @return the number of ticks in which something was delivered
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+	/**
+	 * @return the number of events delivered
+	 */
+	public long getEvents() {
+		return events;
+	}
+	/**
+	 * @return the number of times a subscriber was notified
+	 */
+	public long getDeliveries() {
+		return deliveries;
+	}
+	/**
+	 * @return the time of the latest tick, -1 if nothing was delivered
+	 */
+	public long getTickTime() {
+		return tickTime;
+	}
+	/**
+	 * @return the events delivered in the latest tick
+	 */
+	public int getTickEvents() {
+		return tickEvents;
+	}
+	/**
+	 * @return the subscribers notified in the latest tick
+	 */
+	public long getTickDeliveries() {
+		return tickDeliveries;
+	}
+	/**
+	 * @return the most events delivered in one tick
+	 */
+	public int getMaxTickEvents() {
+		return maxTickEvents;
+	}
+	/**
+	 * @return the most subscribers notified in one tick
+	 */
+	public long getMaxTickDeliveries() {
+		return maxTickDeliveries;
+	}
+	/**
+	 * @return the time of the tick with the most subscribers notified, -1 if nothing was delivered
+	 */
+	public long getBusiestTick() {
+		return busiestTick;
+	}
+	/**
+	 * @return the longest the worklist grew behind the event being delivered
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+	
+	/**
+	 * @return the number of neurons visited in the latest tick
+	 */
+	public int getTickActive() {
+		return tickActive;
+	}
+	/**
+	 * @return the most neurons visited in one tick
+	 */
+	public int getMaxTickActive() {
+		return maxTickActive;
+	}
+	/**
+	 * @return the mean number of neurons visited per tick
+	 */
+	public double getMeanActive() {
+		return (ticks == 0) ? 0 : active / (double)ticks;
+	}
+	
+	@Override public String toString(){
+		return "ticks=" + ticks + " events=" + events + " deliveries=" + deliveries + " maxTickEvents=" + maxTickEvents 
+				+ " maxTickDeliveries=" + maxTickDeliveries + " busiestTick=" + busiestTick + " maxPending=" + maxPending + " maxTickActive=" + maxTickActive;
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import edu.stevens.cpe.reservior.ReserviorException;
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
+import edu.stevens.cpe.reservior.SpikeListener;
+import edu.stevens.cpe.reservior.SpikeRouter;
+import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.NeuronPopulation;
+import edu.stevens.cpe.reservior.neuron.PopulationNeuron;
+import edu.stevens.cpe.reservior.topology.RandomSparseTopology;
+
+/**
+ * Measures the bytes allocated by the simulating thread per delivered spike once the reservoir has warmed up, 
+ * for event driven simulation through a {@link SpikeRouter}, through the context event service and for the clock 
+ * driven engine. Allocation is read from {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, 
+ * so it needs a HotSpot JVM.
+ * 
+ * Exits with status 1 when a router or clock driven run allocates more than {@link #MAX_BYTES_PER_SPIKE}, so it 
+ * can guard against allocation creeping back into the receive, integrate and fire path. The event service run is 
+ * only reported, the EventBus copies the subscriber lists on every publish and a new {@link edu.stevens.cpe.reservior.SpikeEvent} 
+ * is sent for every spike.
+ * @author wil
+ *
+ */
+public class AllocationBenchmark {
+
+	/**
+	 * Budget per delivered spike. The fixed cost of each input, such as copying the input array, is spread over 
+	 * tens of thousands of deliveries and stays far below it.
+	 */
+	public static double MAX_BYTES_PER_SPIKE = 1;
+	
+	private static final int N = 500;
+	private static final double DENSITY = 0.05;
+	private static final int SAMPLES = 500;
+	private static final int WARMUP = 5;
+	private static final int ROUNDS = 10;
+	
+	/**
+	 * Counts the spikes delivered by adding the fan-out of every spike fired
+	 */
+	private static class DeliveryCounter implements SpikeListener {
+		final int [] fanOut;
+		/**
+		 * ID of the first neuron of the network
+		 */
+		final int firstID;
+		long delivered = 0;
+		DeliveryCounter(int [] fanOut, int firstID){
+			this.fanOut = fanOut;
+			this.firstID = firstID;
+		}
+		@Override public void spikeFired(int sourceID, long time) {
+			delivered += fanOut[sourceID - firstID];
+		}
+	}
+	
+	private static double [][] input(){
+		double [][] input = new double[2][SAMPLES];
+		for (int i=0; i<SAMPLES; i++){
+			input[0][i] = Math.sin(i / 5.0) + 1;
+			input[1][i] = (i % 7 == 0) ? 1 : 0;
+		}
+		return input;
+	}
+	
+	private static int [] fanOut(RandomSparseTopology topology, int sources){
+		int [] fanOut = new int[sources];
+		int [] columns = topology.getConnectionMatrix().getColumnIndexes();
+		double [] values = topology.getConnectionMatrix().getValues();
+		for (int k=0; k<columns.length; k++){
+			if (values[k] != 0){
+				fanOut[columns[k]]++;
+			}
+		}
+		return fanOut;
+	}
+	
+	/**
+	 * @return bytes allocated per delivered spike over the measured rounds
+	 */
+	private static double measure(String name, ReservoirNetwork<?> network, double [][] input, int [] fanOut) throws ReserviorException{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		DeliveryCounter counter = new DeliveryCounter(fanOut, network.getReservior().getFirstID());
+		SimulationContext context = network.getContext();
+		for (int r=0; r<WARMUP; r++){
+			network.getReservior().reset();
+			network.input(input);
+		}
+		context.setSpikeListener(counter);
+		long bytes = 0;
+		long time = 0;
+		for (int r=0; r<ROUNDS; r++){
+			network.getReservior().reset();
+			long before = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			network.input(input);
+			time += System.nanoTime() - start;
+			bytes += threads.getThreadAllocatedBytes(thread) - before;
+		}
+		context.setSpikeListener(null);
+		network.getReservior().reset();
+		
+		double perSpike = (counter.delivered == 0) ? bytes : bytes / (double)counter.delivered;
+		System.out.printf("%s\t%d\t\t%d\t\t%.2f\t\t%.4f%n", name, counter.delivered / ROUNDS, bytes / ROUNDS, time / 1e6 / ROUNDS, perSpike);
+		return perSpike;
+	}
+	
+	/**
+	 * @param args
+	 * @throws ReserviorException 
+	 */
+	public static void main(String[] args) throws ReserviorException {
+		double [][] input = input();
+		RandomSparseTopology topology = new RandomSparseTopology(N, DENSITY);
+		
+		ReservoirNetwork.resetClock();
+		ReservoirNetwork<IFSpikingNeuron> event = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class, new SpikeRouter());
+		ReservoirNetwork<IFSpikingNeuron> bus = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class);
+		ReservoirNetwork<IFSpikingNeuron> clock = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class);
+		ReservoirNetwork<PopulationNeuron> population = new ReservoirNetwork<PopulationNeuron>(2, N, false, topology, PopulationNeuron.class);
+		clock.setClockDriven(true);
+		population.setClockDriven(true);
+		//Fire often enough that recurrent spikes dominate the input
+		double original = IFSpikingNeuron.MEMORY_CAPACITY_COEF;
+		IFSpikingNeuron.MEMORY_CAPACITY_COEF = 3;
+		NeuronPopulation p = population.getReservior().getPopulation();
+		p.setMemoryCapacity(3);
+		
+		int [] fanOut = fanOut(topology, N);
+		System.out.println("engine\t\tdelivered\tbytes\t\ttime(ms)\tbytes/spike");
+		double worst = 0;
+		worst = Math.max(worst, measure("event\t", event, input, fanOut));
+		worst = Math.max(worst, measure("clock\t", clock, input, fanOut));
+		worst = Math.max(worst, measure("population", population, input, fanOut));
+		//Not held to the budget, see the class comment
+		measure("eventbus", bus, input, fanOut);
+		IFSpikingNeuron.MEMORY_CAPACITY_COEF = original;
+		
+		if (worst > MAX_BYTES_PER_SPIKE){
+			System.out.println("Allocation of " + worst + " bytes per spike is over the budget of " + MAX_BYTES_PER_SPIKE);
+			System.exit(1);
+		}
+	}
+}
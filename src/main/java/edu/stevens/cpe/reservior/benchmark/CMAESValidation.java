@@ -0,0 +1,189 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optimization.GoalType;
+import org.apache.commons.math3.optimization.direct.CMAESOptimizer;
+import org.apache.commons.math3.random.MersenneTwister;
+
+import edu.stevens.cpe.reservior.readout.CMAES;
+import edu.stevens.cpe.reservior.readout.CMAESStrategy;
+
+/**
+ * Checks the {@link CMAESStrategy} behind {@link CMAES} against {@link CMAESOptimizer} on the sphere and Rosenbrock 
+ * functions inside bounds. Both search from the same start with the same settings over a range of seeds. 
+ * The random numbers are drawn differently so single runs differ, instead the number of runs reaching the target 
+ * fitness, the median evaluations and the median best fitness are compared. A third function has its minimum outside 
+ * the bounds to compare how both handle candidates outside them. Exits with 1 if the strategy is clearly worse.
+ * @author wil
+ *
+ */
+public class CMAESValidation {
+
+	private static final int DIMENSION = 10;
+	private static final int RUNS = 20;
+	private static final int MAX_EVALUATIONS = 30000;
+	private static final double TARGET = 1e-10;
+	/**
+	 * How many times the median evaluations of the optimizer the strategy may take
+	 */
+	private static final double MAX_EVALUATION_RATIO = 1.5;
+	
+	private static final MultivariateFunction SPHERE = new MultivariateFunction(){
+		@Override
+		public double value(double[] x) {
+			double sum = 0;
+			for (int i=0; i<x.length; i++){
+				sum += (x[i] - 1) * (x[i] - 1);
+			}
+			return sum;
+		}
+	};
+	private static final MultivariateFunction ROSENBROCK = new MultivariateFunction(){
+		@Override
+		public double value(double[] x) {
+			double sum = 0;
+			for (int i=0; i<x.length - 1; i++){
+				double a = x[i+1] - x[i] * x[i];
+				double b = 1 - x[i];
+				sum += 100 * a * a + b * b;
+			}
+			return sum;
+		}
+	};
+	
+	/**
+	 * Weighted sphere with its minimum outside the bounds, so the best points lie on the lower bound
+	 */
+	private static final MultivariateFunction BOUNDED = new MultivariateFunction(){
+		@Override
+		public double value(double[] x) {
+			double sum = 0;
+			for (int i=0; i<x.length; i++){
+				double d = x[i] + 6 + i % 3;
+				sum += (i + 1) * d * d;
+			}
+			return sum;
+		}
+	};
+	
+	private static double [] filled(double value){
+		double [] a = new double [DIMENSION];
+		Arrays.fill(a, value);
+		return a;
+	}
+	private static int lambda(){
+		return 4 + (int)(3 * Math.log(DIMENSION));
+	}
+	
+	/**
+	 * @return the evaluations and the best fitness found
+	 */
+	private static double [] optimizer(MultivariateFunction function, double start, long seed){
+		CMAESOptimizer optimizer = new CMAESOptimizer(lambda(), filled(1), CMAESOptimizer.DEFAULT_MAXITERATIONS, 
+				TARGET, true, 0, 0, new MersenneTwister(seed), false);
+		double value = optimizer.optimize(MAX_EVALUATIONS, function, GoalType.MINIMIZE, filled(start), filled(-5), filled(5)).getValue();
+		return new double [] {optimizer.getEvaluations(), value};
+	}
+	/**
+	 * @return the evaluations and the best fitness found
+	 */
+	private static double [] strategy(MultivariateFunction function, double start, long seed){
+		CMAESStrategy strategy = new CMAESStrategy(lambda(), filled(start), filled(1), filled(-5), filled(5), 
+				CMAESOptimizer.DEFAULT_MAXITERATIONS, new MersenneTwister(seed));
+		strategy.setStopFitness(TARGET);
+		strategy.tellStart(function.value(filled(start)));
+		int evaluations = 1;
+		while (evaluations < MAX_EVALUATIONS && !strategy.isStopped()){
+			double [][] candidates = strategy.ask();
+			double [] fitness = new double [candidates.length];
+			for (int k=0; k<candidates.length; k++){
+				fitness[k] = function.value(candidates[k]);
+			}
+			strategy.tell(fitness);
+			evaluations += candidates.length;
+		}
+		return new double [] {evaluations, strategy.getBestValue()};
+	}
+	
+	/**
+	 * @param runs evaluations and best fitness of each run
+	 * @param column 0 for the evaluations, 1 for the fitness
+	 * @param reached true to only take the runs which reached the target
+	 * @return the median, NaN if there is no run
+	 */
+	private static double median(double [][] runs, int column, boolean reached){
+		double [] values = new double [runs.length];
+		int count = 0;
+		for (int i=0; i<runs.length; i++){
+			if (!reached || runs[i][1] < TARGET){
+				values[count++] = runs[i][column];
+			}
+		}
+		if (count == 0){
+			return Double.NaN;
+		}
+		Arrays.sort(values, 0, count);
+		return (count % 2 == 1) ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2;
+	}
+	private static int successes(double [][] runs){
+		int count = 0;
+		for (int i=0; i<runs.length; i++){
+			if (runs[i][1] < TARGET){
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return true if the strategy did about as well as the optimizer
+	 */
+	private static boolean compare(String name, MultivariateFunction function, double start){
+		double [][] optimizer = new double [RUNS][];
+		double [][] strategy = new double [RUNS][];
+		for (int r=0; r<RUNS; r++){
+			optimizer[r] = optimizer(function, start, r);
+			strategy[r] = strategy(function, start, r);
+		}
+		double optimizerEvaluations = median(optimizer, 0, successes(optimizer) > 0);
+		double strategyEvaluations = median(strategy, 0, successes(strategy) > 0);
+		double optimizerBest = median(optimizer, 1, false);
+		double strategyBest = median(strategy, 1, false);
+		System.out.printf("%s\t%d/%d\t%.0f\t%.6g\t\t%d/%d\t%.0f\t%.6g%n", name, successes(optimizer), RUNS, optimizerEvaluations, optimizerBest,
+				successes(strategy), RUNS, strategyEvaluations, strategyBest);
+		return successes(strategy) >= successes(optimizer) - 1 
+				&& !(strategyEvaluations > MAX_EVALUATION_RATIO * optimizerEvaluations)
+				&& strategyBest <= optimizerBest * (1 + 1e-9) + TARGET;
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.out.println("function\toptimizer\tevals\tbest\t\tstrategy\tevals\tbest");
+		boolean ok = compare("sphere\t", SPHERE, 3);
+		ok &= compare("rosenbrock", ROSENBROCK, 0);
+		ok &= compare("bounded\t", BOUNDED, 0);
+		if (!ok){
+			System.out.println("CMAESStrategy does worse than CMAESOptimizer");
+			System.exit(1);
+		}
+	}
+}
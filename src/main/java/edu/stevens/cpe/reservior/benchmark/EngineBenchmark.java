@@ -0,0 +1,150 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.stevens.cpe.reservior.ReserviorException;
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SpikeRouter;
+import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.NeuronPopulation;
+import edu.stevens.cpe.reservior.neuron.PopulationNeuron;
+import edu.stevens.cpe.reservior.topology.RandomSparseTopology;
+
+/**
+ * Compares event driven simulation through a {@link SpikeRouter} with the clock driven engine on the same 
+ * reservoir and input, for {@link IFSpikingNeuron}s and for {@link PopulationNeuron}s. The firing rate is varied through 
+ * {@link IFSpikingNeuron#MEMORY_CAPACITY_COEF}, a smaller coefficient needs fewer inputs to reach the threshold. 
+ * Also checks every run gives the same spike raster.
+ * @author wil
+ *
+ */
+public class EngineBenchmark {
+
+	private static final int N = 500;
+	private static final double DENSITY = 0.05;
+	private static final int SAMPLES = 500;
+	private static final double [] MEMORY_CAPACITIES = new double []{30, 10, 3, 1, 0.5};
+	private static final int ROUNDS = 3;
+	
+	private static double [][] input(){
+		double [][] input = new double[2][SAMPLES];
+		for (int i=0; i<SAMPLES; i++){
+			input[0][i] = Math.sin(i / 5.0) + 1;
+			input[1][i] = (i % 7 == 0) ? 1 : 0;
+		}
+		return input;
+	}
+	
+	private static double [][] raster(ReservoirNetwork<?> network){
+		Neuron [] neurons = network.getReservior().getNeurons();
+		double [][] raster = new double[neurons.length][];
+		for (int i=0; i<neurons.length; i++){
+			raster[i] = neurons[i].getFiringTimes();
+		}
+		return raster;
+	}
+	
+	/**
+	 * Give each neuron of target the weights of the neuron with the same index in source. Networks in the same context 
+	 * number their neurons from different IDs, so connections between reservoir neurons are renamed. Inputs have the same names.
+	 */
+	private static void copyWeights(ReservoirNetwork<?> source, ReservoirNetwork<?> target){
+		Neuron [] from = source.getReservior().getNeurons();
+		Neuron [] to = target.getReservior().getNeurons();
+		Map<String,String> names = new HashMap<String,String>();
+		for (int i=0; i<from.length; i++){
+			names.put(from[i].getName(), to[i].getName());
+		}
+		for (int i=0; i<from.length; i++){
+			Map<String,Double> weights = new HashMap<String,Double>();
+			for (Map.Entry<String,Double> weight : from[i].getWeights().entrySet()){
+				String name = names.get(weight.getKey());
+				weights.put((name != null) ? name : weight.getKey(), weight.getValue());
+			}
+			to[i].setWeights(weights);
+		}
+	}
+	
+	/**
+	 * @param args
+	 * @throws ReserviorException 
+	 */
+	public static void main(String[] args) throws ReserviorException {
+		double [][] input = input();
+		RandomSparseTopology topology = new RandomSparseTopology(N, DENSITY);
+		
+		ReservoirNetwork.resetClock();
+		ReservoirNetwork<IFSpikingNeuron> event = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class, new SpikeRouter());
+		ReservoirNetwork<IFSpikingNeuron> clock = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class);
+		ReservoirNetwork<PopulationNeuron> population = new ReservoirNetwork<PopulationNeuron>(2, N, false, topology, PopulationNeuron.class);
+		//Copy the random input weights so the networks are the same
+		copyWeights(event, clock);
+		copyWeights(event, population);
+		clock.setClockDriven(true);
+		population.setClockDriven(true);
+		
+		double original = IFSpikingNeuron.MEMORY_CAPACITY_COEF;
+		System.out.println("capacity\trate\t\tevent(ms)\tclock(ms)\tpopulation(ms)\tidentical");
+		for (int c=0; c<MEMORY_CAPACITIES.length; c++){
+			IFSpikingNeuron.MEMORY_CAPACITY_COEF = MEMORY_CAPACITIES[c];
+			NeuronPopulation p = population.getReservior().getPopulation();
+			p.setMemoryCapacity(MEMORY_CAPACITIES[c]);
+			long eventTime = Long.MAX_VALUE;
+			long clockTime = Long.MAX_VALUE;
+			long populationTime = Long.MAX_VALUE;
+			double [][] eventRaster = null;
+			double [][] clockRaster = null;
+			double [][] populationRaster = null;
+			for (int r=0; r<ROUNDS; r++){
+				event.getReservior().reset();
+				long start = System.nanoTime();
+				event.input(input);
+				eventTime = Math.min(eventTime, System.nanoTime() - start);
+				eventRaster = raster(event);
+				
+				clock.getReservior().reset();
+				start = System.nanoTime();
+				clock.input(input);
+				clockTime = Math.min(clockTime, System.nanoTime() - start);
+				clockRaster = raster(clock);
+				
+				population.getReservior().reset();
+				start = System.nanoTime();
+				population.input(input);
+				populationTime = Math.min(populationTime, System.nanoTime() - start);
+				populationRaster = raster(population);
+			}
+			double spikes = 0;
+			for (int i=0; i<N; i++){
+				for (int t=0; t<eventRaster[i].length; t++){
+					spikes += eventRaster[i][t];
+				}
+			}
+			double rate = spikes / (N * (double)eventRaster[0].length);
+			boolean identical = Arrays.deepEquals(eventRaster, clockRaster) && Arrays.deepEquals(eventRaster, populationRaster);
+			System.out.printf("%.1f\t\t%.4f\t\t%.2f\t\t%.2f\t\t%.2f\t\t%b%n", MEMORY_CAPACITIES[c], rate, eventTime / 1e6, clockTime / 1e6, populationTime / 1e6, identical);
+		}
+		IFSpikingNeuron.MEMORY_CAPACITY_COEF = original;
+		event.getReservior().reset();
+		clock.getReservior().reset();
+		population.getReservior().reset();
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
+import org.bushe.swing.event.EventTimeBuffer;
+import org.bushe.swing.event.SortedEventTimeBuffer;
+import org.bushe.swing.event.TimingWheelEventTimeBuffer;
+
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SpikeEvent;
+
+/**
+ * Measures how long the discrete time event service takes to flush a backlog of buffered spikes.
+ * One spike is buffered for every time step 1..T while the clock sits at 0, then the whole backlog is flushed.
+ * With a time ordered buffer the flush time should grow roughly linearly with T.
+ * Each depth is run against the sorted map buffer and the timing wheel.
+ * @author wil
+ *
+ */
+public class EventServiceBenchmark {
+
+	private static final String TOPIC = "bench";
+	private static final int [] BACKLOG_DEPTHS = new int []{1000, 2000, 5000, 10000, 20000, 50000};
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Buffer one spike per time step and time the flush
+	 * @param depth The number of distinct discrete times in the backlog
+	 * @param buffer Empty buffer used by the service
+	 * @return The flush time in nanoseconds
+	 */
+	public static long timeFlush(int depth, EventTimeBuffer buffer){
+		DiscreteTimeThreadSafeEventService service = new DiscreteTimeThreadSafeEventService(buffer);
+		ReservoirNetwork.resetClock();
+		for (int t=1; t<=depth; t++){
+			SpikeEvent ev = new SpikeEvent();
+			ev.setTime(t);
+			service.publish(TOPIC, ev);
+		}
+		long start = System.nanoTime();
+		service.flush();
+		long elapsed = System.nanoTime() - start;
+		ReservoirNetwork.resetClock();
+		return elapsed;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int deepest = BACKLOG_DEPTHS[BACKLOG_DEPTHS.length-1];
+		for (int i=0; i<WARMUP_ROUNDS; i++){
+			timeFlush(deepest, new SortedEventTimeBuffer());
+			timeFlush(deepest, new TimingWheelEventTimeBuffer());
+		}
+		System.out.println("depth\tsorted(ms)\twheel(ms)");
+		for (int d=0; d<BACKLOG_DEPTHS.length; d++){
+			long sorted = Long.MAX_VALUE;
+			long wheel = Long.MAX_VALUE;
+			for (int r=0; r<ROUNDS; r++){
+				sorted = Math.min(sorted, timeFlush(BACKLOG_DEPTHS[d], new SortedEventTimeBuffer()));
+				wheel = Math.min(wheel, timeFlush(BACKLOG_DEPTHS[d], new TimingWheelEventTimeBuffer()));
+			}
+			System.out.printf("%d\t%.3f\t\t%.3f%n", BACKLOG_DEPTHS[d], sorted / 1e6, wheel / 1e6);
+		}
+	}
+}
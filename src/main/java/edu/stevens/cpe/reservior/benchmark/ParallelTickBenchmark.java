@@ -0,0 +1,104 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import java.util.Arrays;
+
+import edu.stevens.cpe.reservior.ParallelTickExecutor;
+import edu.stevens.cpe.reservior.ReserviorException;
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.topology.RandomSparseTopology;
+
+/**
+ * Times the clock driven engine on one large reservoir delivering each tick on 1 to all available cores with a 
+ * {@link ParallelTickExecutor}, and checks every thread count gives the same spike raster and state histories as one thread. 
+ * The largest thread count can be given as the first argument.
+ * @author wil
+ *
+ */
+public class ParallelTickBenchmark {
+
+	private static final int N = 10000;
+	private static final double DENSITY = 0.005;
+	private static final int SAMPLES = 200;
+	private static final int ROUNDS = 3;
+	
+	private static double [][] input(){
+		double [][] input = new double[2][SAMPLES];
+		for (int i=0; i<SAMPLES; i++){
+			input[0][i] = Math.sin(i / 5.0) + 1;
+			input[1][i] = (i % 7 == 0) ? 1 : 0;
+		}
+		return input;
+	}
+	
+	private static double [][] raster(ReservoirNetwork<?> network){
+		Neuron [] neurons = network.getReservior().getNeurons();
+		double [][] raster = new double[neurons.length][];
+		for (int i=0; i<neurons.length; i++){
+			raster[i] = neurons[i].getFiringTimes();
+		}
+		return raster;
+	}
+	private static double [][] states(ReservoirNetwork<?> network){
+		Neuron [] neurons = network.getReservior().getNeurons();
+		double [][] states = new double[neurons.length][];
+		for (int i=0; i<neurons.length; i++){
+			states[i] = neurons[i].getStateHistory();
+		}
+		return states;
+	}
+	
+	/**
+	 * @param args
+	 * @throws ReserviorException 
+	 */
+	public static void main(String[] args) throws ReserviorException {
+		double [][] input = input();
+		RandomSparseTopology topology = new RandomSparseTopology(N, DENSITY);
+		ReservoirNetwork<IFSpikingNeuron> network = new ReservoirNetwork<IFSpikingNeuron>(2, N, false, topology, IFSpikingNeuron.class);
+		network.setClockDriven(true);
+		
+		int cores = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		System.out.println("threads\ttime(ms)\tspeedup\tidentical");
+		double [][] serialRaster = null;
+		double [][] serialStates = null;
+		double serialTime = 0;
+		for (int threads=1; threads<=cores; threads = (threads == cores) ? cores + 1 : Math.min(cores, threads << 1)){
+			network.getClockDrivenEngine().setThreads(threads);
+			long time = Long.MAX_VALUE;
+			for (int r=0; r<ROUNDS; r++){
+				network.getReservior().reset();
+				long start = System.nanoTime();
+				network.input(input);
+				time = Math.min(time, System.nanoTime() - start);
+			}
+			double [][] raster = raster(network);
+			double [][] states = states(network);
+			if (threads == 1){
+				serialRaster = raster;
+				serialStates = states;
+				serialTime = time;
+			}
+			boolean identical = Arrays.deepEquals(serialRaster, raster) && Arrays.deepEquals(serialStates, states);
+			System.out.printf("%d\t%.2f\t\t%.2f\t%b%n", threads, time / 1e6, serialTime / time, identical);
+		}
+		network.getReservior().reset();
+		network.shutdown();
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.benchmark;
+
+import java.util.Random;
+
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SpikeEvent;
+import edu.stevens.cpe.reservior.SpikeRouter;
+import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.NeuronPopulation;
+
+/**
+ * Measures the cost of one membrane update per neuron per tick for a {@link NeuronPopulation}, both the
+ * clock driven {@link NeuronPopulation#step(double[], long, int[])} loop and one {@link NeuronPopulation#integrate(int, double, long, long)}
+ * call per neuron, against one {@link IFSpikingNeuron} object per neuron. Object neurons are only run for
+ * the smaller sizes since each keeps a history of every update.
+ * @author wil
+ *
+ */
+public class PopulationBenchmark {
+
+	private static final int [] SIZES = new int []{1000, 10000, 100000, 1000000};
+	private static final int MAX_OBJECT_SIZE = 10000;
+	private static final int STEPS = 50;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 3;
+	
+	/**
+	 * @return Nanoseconds per neuron update
+	 */
+	public static double timeStep(NeuronPopulation population, double [][] currents){
+		int [] fired = new int[population.size()];
+		population.reset();
+		long start = System.nanoTime();
+		for (int t=0; t<STEPS; t++){
+			population.step(currents[t % currents.length], t, fired);
+		}
+		return (System.nanoTime() - start) / ((double)STEPS * population.size());
+	}
+	/**
+	 * @return Nanoseconds per neuron update
+	 */
+	public static double timeIntegrate(NeuronPopulation population, double [][] currents){
+		population.reset();
+		int n = population.size();
+		long start = System.nanoTime();
+		for (int t=0; t<STEPS; t++){
+			double [] current = currents[t % currents.length];
+			for (int i=0; i<n; i++){
+				population.integrate(i, current[i], SpikeEvent.DEFAULT_PULSE_WIDTH, t);
+			}
+		}
+		return (System.nanoTime() - start) / ((double)STEPS * n);
+	}
+	/**
+	 * @return Nanoseconds per neuron update
+	 */
+	public static double timeObjects(int n, double [][] currents){
+		//Spikes go to a router with no connections so only the neuron update is measured
+		SpikeRouter router = new SpikeRouter();
+		IFSpikingNeuron [] neurons = new IFSpikingNeuron[n];
+		for (int i=0; i<n; i++){
+			neurons[i] = new IFSpikingNeuron(i);
+			neurons[i].setRouter(router);
+		}
+		long start = System.nanoTime();
+		for (int t=0; t<STEPS; t++){
+			ReservoirNetwork.setClock(t);
+			double [] current = currents[t % currents.length];
+			for (int i=0; i<n; i++){
+				neurons[i].setLastEventdiscreteTimestamp(t);
+				neurons[i].updateMembranePotential(current[i], SpikeEvent.DEFAULT_PULSE_WIDTH);
+			}
+			router.clear();
+		}
+		long elapsed = System.nanoTime() - start;
+		ReservoirNetwork.resetClock();
+		return elapsed / ((double)STEPS * n);
+	}
+	
+	private static double [][] currents(int n, Random random){
+		double [][] currents = new double[4][n];
+		for (int k=0; k<currents.length; k++){
+			for (int i=0; i<n; i++){
+				currents[k][i] = random.nextDouble();
+			}
+		}
+		return currents;
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		NeuronPopulation warmup = new NeuronPopulation(MAX_OBJECT_SIZE);
+		double [][] warmupCurrents = currents(MAX_OBJECT_SIZE, random);
+		for (int r=0; r<WARMUP_ROUNDS; r++){
+			timeStep(warmup, warmupCurrents);
+			timeIntegrate(warmup, warmupCurrents);
+			timeObjects(MAX_OBJECT_SIZE, warmupCurrents);
+		}
+		System.out.println("neurons\tstep(ns)\tintegrate(ns)\tobjects(ns)");
+		for (int s=0; s<SIZES.length; s++){
+			int n = SIZES[s];
+			NeuronPopulation population = new NeuronPopulation(n);
+			double [][] currents = currents(n, random);
+			double step = Double.MAX_VALUE;
+			double integrate = Double.MAX_VALUE;
+			double objects = Double.NaN;
+			for (int r=0; r<ROUNDS; r++){
+				step = Math.min(step, timeStep(population, currents));
+				integrate = Math.min(integrate, timeIntegrate(population, currents));
+			}
+			if (n <= MAX_OBJECT_SIZE){
+				for (int r=0; r<ROUNDS; r++){
+					objects = (r == 0) ? timeObjects(n, currents) : Math.min(objects, timeObjects(n, currents));
+				}
+			}
+			System.out.printf("%d\t%.2f\t\t%.2f\t\t%.2f%n", n, step, integrate, objects);
+		}
+	}
+}
@@ -25,7 +25,6 @@ import org.apache.commons.math3.optimization.direct.CMAESOptimizer;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
-import org.bushe.swing.event.EventBus;
 import org.bushe.swing.event.EventServiceExistsException;
 import org.bushe.swing.event.EventServiceLocator;
 import org.encog.mathutil.error.ErrorCalculation;
@@ -35,9 +34,11 @@ import cern.colt.matrix.DoubleMatrix2D;
 
 import edu.stevens.cpe.math.MLArrayUtils;
 import edu.stevens.cpe.math.MLMatrixUtils;
+import edu.stevens.cpe.math.RidgePath;
 import edu.stevens.cpe.math.SignalGenerator;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
 import edu.stevens.cpe.reservior.SpikeEvent;
 import edu.stevens.cpe.reservior.layers.SpikingOutput;
 import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
@@ -49,11 +50,17 @@ import edu.stevens.cpe.reservoir.translate.HSA;
  * memory = 2.53
  * rp = 0
  * alpha =0.84
+ * 
+ * The ridge alpha is not evolved, each candidate picks it from {@link #ALPHAS} by leave-one-out error.
  * @author wil
  *
  */
 public class EvolvedReservoir {
 	public static Logger logger = Logger.getLogger(EvolvedReservoir.class);
+	/**
+	 * Ridge coefficients tried for every candidate reservoir
+	 */
+	public static double [] ALPHAS = RidgePath.logspace(1e-4, 1e2, 25);
 
 		private double insigma = .1;
 
@@ -62,6 +69,7 @@ public class EvolvedReservoir {
 		private int epoch = 0;
 		private double minError = Double.POSITIVE_INFINITY; 
 		private double [] bestCoeff;
+		private double bestAlpha;
 
 		private double [] dataset;
 		private double [] analog;
@@ -100,7 +108,7 @@ public class EvolvedReservoir {
 				}
 		
 		}
-		private void createNetwork(int size, double density){
+		private void createNetwork(int size, double density, SimulationContext context){
 			
 			try {
 				//Create reservoir
@@ -108,7 +116,7 @@ public class EvolvedReservoir {
 				int outputs = 1;
 				boolean useBias = false;
 				RandomSparseTopology topology = new RandomSparseTopology(size,density);
-				this.network = new ReservoirNetwork<IFSpikingNeuron>(inputs, size, useBias, topology, IFSpikingNeuron.class);
+				this.network = new ReservoirNetwork<IFSpikingNeuron>(inputs, size, useBias, topology, IFSpikingNeuron.class, null, context);
 				this.out = new SpikingOutput<IFSpikingNeuron>(network.getReservior(), outputs, IFSpikingNeuron.class);
 			} catch (ReserviorException e) {
 				e.printStackTrace();
@@ -119,16 +127,15 @@ public class EvolvedReservoir {
 			@Override
 			public double value(double[] coeff) {
 				
-				IFSpikingNeuron.MEMORY_CAPACITY_COEF = coeff[0];
+				//Each candidate gets its own clock, IDs and parameters
+				SimulationContext context = new SimulationContext();
+				context.setMemoryCapacity(coeff[0]);
 				/*
 				 * Having a 0 refactory period causes an extremely slow system
 				 */
-				IFSpikingNeuron.REFACTORY_PEROID = (long)Math.floor(coeff[1]);
-				
-				double alpha = coeff[2];
-				
+				context.setRefractoryPeriod((long)Math.floor(coeff[1]));
 				
-				createNetwork((int)Math.floor(coeff[3]), coeff[4]);
+				createNetwork((int)Math.floor(coeff[2]), coeff[3], context);
 				
 				double [] dataset = EvolvedReservoir.this.dataset;
 			
@@ -138,9 +145,9 @@ public class EvolvedReservoir {
 				for (int i=0; i<dataset.length; i++){
 					SpikeEvent ev = new SpikeEvent(dataset[i]*SpikeEvent.DEFAULT_SPIKE_HEIGHT, SpikeEvent.DEFAULT_PULSE_WIDTH);
 					ev.setTime(i);
-					EventBus.publish(PUBLISHER_ID,  ev);
+					context.getEventService().publish(PUBLISHER_ID,  ev);
 					//logger.info(i);
-					ReservoirNetwork.incClock();
+					context.incClock();
 				}
 				
 				//Retrieve the states after stimulating
@@ -148,8 +155,10 @@ public class EvolvedReservoir {
 				DoubleMatrix2D Y_state = factory.make(new double [][] {dataset}).viewDice();//.viewSelection(MLArrayUtils.viewableRows(100, samples), null);
 				DoubleMatrix2D X_state = network.getReservior().getInternalFiringTimes().viewDice();//.viewSelection(MLArrayUtils.viewableRows(100, samples), null);
 		
-				//Compute the weights
-				DoubleMatrix2D W = MLMatrixUtils.ridge(X_state, Y_state,alpha);
+				//Compute the weights, one decomposition of the states serves every alpha
+				RidgePath path = MLMatrixUtils.ridgePath(X_state, Y_state);
+				double alpha = path.bestAlpha(ALPHAS);
+				DoubleMatrix2D W = path.weights(alpha);
 				//Take these weights and now set connections, first weight index goes to first created neuron
 				out.setWeightsByType(IFSpikingNeuron.ID_PREFIX, W.viewDice().viewRow(0).toArray());
 				network.getReservior().reset();
@@ -180,6 +189,7 @@ network.shutdown();
 				if (error < minError){
 					minError = error;
 					bestCoeff = coeff;
+					bestAlpha = alpha;
 				}
 				return error;
 			}
@@ -193,9 +203,10 @@ network.shutdown();
 			this.epoch = 0;
 			
 			//Number of weights to evolve
-			final double[] start = new double []{3, 0, 1, 20, .1};
-			final double[] lower = new double []{1, 0, 0, 15, .08};
-			final double[] upper = new double []{5, 5, 3, 120, .3};
+			//memory, refractory period, size, density
+			final double[] start = new double []{3, 0, 20, .1};
+			final double[] lower = new double []{1, 0, 15, .08};
+			final double[] upper = new double []{5, 5, 120, .3};
 			
 			//Set to 1/3 the initial search volume
 			final double[] sigma = new double [size];
@@ -215,6 +226,7 @@ network.shutdown();
 			
 			final PointValuePair result = optimizer.optimize(maxEvals, fitnessFuntion, GoalType.MINIMIZE, start, lower, upper);
 			logger.info(Arrays.toString(result.getPoint()));
+			logger.info("Best alpha: " + bestAlpha);
 
 		}
 	/**
@@ -223,7 +235,7 @@ network.shutdown();
 	public static void main(String[] args) {
 
 		EvolvedReservoir evo = new EvolvedReservoir();
-		evo.optimize(5);
+		evo.optimize(4);
 	}
 
 }
@@ -20,14 +20,14 @@ import java.util.Random;
 
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
-import org.bushe.swing.event.EventBus;
 import org.encog.ml.data.MLData;
 
 import edu.stevens.cpe.reservior.PulseGenerator;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.Reservoir;
-import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
 import edu.stevens.cpe.reservior.SpikeEvent;
+import edu.stevens.cpe.reservior.SpikeRouter;
 import edu.stevens.cpe.reservior.neuron.Neuron;
 
 /**
@@ -65,6 +65,22 @@ public class Input {
 	 * 
 	 */
 	private String [] publishers;
+	/**
+	 * Source IDs of the publishers, used to route spikes without topics
+	 */
+	private int [] publisherIds;
+	/**
+	 * Source ID of the bias
+	 */
+	private int biasId;
+	/**
+	 * When set spikes are delivered through the router instead of the EventBus
+	 */
+	private SpikeRouter router;
+	/**
+	 * Owner of the clock and source IDs, same as the reservoir
+	 */
+	private final SimulationContext context;
 	/**
 	 * 
 	 */
@@ -80,11 +96,16 @@ public class Input {
 		this.reservior = reservior;
 		this.numberInputs = numberInputs;
 		this.useBias = useBias;
+		this.router = reservior.getRouter();
+		this.context = reservior.getContext();
 		
 		this.publishers = new String[numberInputs];
+		this.publisherIds = new int[numberInputs];
 		for (int i=0; i<publishers.length; i++){
 			publishers[i] =ID_PREFIX + i; 
+			publisherIds[i] = context.getSourceID(publishers[i]);
 		}
+		this.biasId = context.getSourceID(ID_BIAS);
 		//Subscribe all the neurons in the reservoir to these inputs
 		reservior.subscribe(publishers);
 		if (useBias){
@@ -139,21 +160,23 @@ public class Input {
 				long leastSignificant = bits & 0x0000001; 
 	
 				double amp = (leastSignificant != 0) ? SpikeEvent.DEFAULT_SPIKE_HEIGHT : 0;
-				SpikeEvent ev = new SpikeEvent(amp, SpikeEvent.DEFAULT_PULSE_WIDTH);
-				ev.setTime(i);
-				EventBus.publish(publishers[j],  ev);
+				publish(j, spike(amp, i));
 				
 				bits = bits >> 1; //shift out the bit that was just published
 				workableData[j] =  Double.longBitsToDouble(bits) ;
 			}
 			//Fire off the bias
 			if (useBias){
-				SpikeEvent ev = new SpikeEvent(SpikeEvent.DEFAULT_SPIKE_HEIGHT, SpikeEvent.DEFAULT_PULSE_WIDTH);
-				ev.setTime(i);
-				EventBus.publish(ID_BIAS,  ev);
+				SpikeEvent ev = spike(SpikeEvent.DEFAULT_SPIKE_HEIGHT, i);
+				ev.setSourceID(biasId);
+				if (router != null){
+					router.publish(ev);
+				} else {
+					context.getEventService().publish(ID_BIAS,  ev);
+				}
 			}
 			
-			ReservoirNetwork.incClock();
+			context.incClock();
 		//	logger.info("it: " + i + " clk: " + DiscreteTimeThreadSafeEventService.getClock());
 		}
 	}
@@ -164,14 +187,13 @@ public class Input {
 		int sampleSize = input[0].length;
 		for (int i=0; i<sampleSize; i++){ //for every sample
 			for (int j=0; j<publishers.length; j++){ // for each input signal
-				SpikeEvent ev = new SpikeEvent(input[j][i]*SpikeEvent.DEFAULT_SPIKE_HEIGHT, SpikeEvent.DEFAULT_PULSE_WIDTH);
-				ev.setTime(i);
-				EventBus.publish(publishers[j],  ev);
+				publish(j, spike(input[j][i]*SpikeEvent.DEFAULT_SPIKE_HEIGHT, i));
 			}
-			System.out.print(i+" ");
-			ReservoirNetwork.incClock();
+			context.incClock();
+		}
+		if (logger.isDebugEnabled()){
+			logger.debug("Published " + sampleSize + " samples");
 		}
-		System.out.println("");
 	}
 	/**
 	 * Set inputs as a sequene of spike trains
@@ -193,12 +215,66 @@ public class Input {
 		}
 	}
 	 */
+	
+	/**
+	 * An event to publish at time, reused by the router once delivered when there is one
+	 */
+	private SpikeEvent spike(double amplitude, long time){
+		if (router != null){
+			return router.obtain(amplitude, SpikeEvent.DEFAULT_PULSE_WIDTH, time);
+		}
+		SpikeEvent ev = new SpikeEvent(amplitude, SpikeEvent.DEFAULT_PULSE_WIDTH);
+		ev.setTime(time);
+		return ev;
+	}
+	/**
+	 * Publish a spike from input j
+	 * @param j
+	 * @param ev
+	 */
+	private void publish(int j, SpikeEvent ev){
+		ev.setSourceID(publisherIds[j]);
+		if (router != null){
+			router.publish(ev);
+		} else {
+			context.getEventService().publish(publishers[j],  ev);
+		}
+	}
 
+	/**
+	 * @return the source IDs of the publishers, in the same order as {@link #getPublishers()}
+	 */
+	public int[] getPublisherIds() {
+		return publisherIds;
+	}
+	/**
+	 * @return the source ID of the bias
+	 */
+	public int getBiasId() {
+		return biasId;
+	}
+	/**
+	 * @return the number of inputs, not counting the bias
+	 */
+	public int getNumberInputs() {
+		return numberInputs;
+	}
+	/**
+	 * @return true if a bias spike is sent with each static input
+	 */
+	public boolean isUseBias() {
+		return useBias;
+	}
+	
 	/**
 	 * @param publishers the publishers to set
 	 */
 	public void setPublishers(String[] publishers) {
 		this.publishers = publishers;
+		this.publisherIds = new int[publishers.length];
+		for (int i=0; i<publishers.length; i++){
+			publisherIds[i] = context.getSourceID(publishers[i]);
+		}
 	}
 
 }
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.layers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.MLDataPair;
+import org.encog.ml.data.MLDataSet;
+import org.encog.ml.data.basic.BasicMLData;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+import edu.stevens.cpe.math.CholeskyRidge;
+import edu.stevens.cpe.reservior.Reservoir;
+import edu.stevens.cpe.reservior.ReservoirState;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.SpikeTrain;
+
+/**
+ * Readout computing y = W x directly from the state of the reservoir neurons. 
+ * 
+ * Unlike {@link SpikingOutput} there are no output neurons subscribed to the reservoir, so reservoir spikes 
+ * are not fanned out to the readout and the weights are a plain L x N array which can be replaced in one call 
+ * with the result of ridge regression or a CMA-ES candidate. The readout has no feedback.
+ * @author wil
+ *
+ */
+public class LinearReadout implements ReadoutFunction {
+
+	/**
+	 * What is read from each reservoir neuron
+	 */
+	public enum Feature {
+		/**
+		 * Number of spikes during the input
+		 */
+		SPIKE_COUNT,
+		/**
+		 * Spikes low pass filtered with {@link LinearReadout#getTraceDecay()} per tick, read at the end of the input
+		 */
+		TRACE,
+		/**
+		 * Membrane potential at the end of the input
+		 */
+		MEMBRANE_POTENTIAL
+	}
+	
+	/**
+	 * Decay per tick of {@link Feature#TRACE}
+	 */
+	public static double DEFAULT_TRACE_DECAY = 0.9;
+	
+	private final Reservoir<?> reservoir;
+	private final Feature feature;
+	private final boolean useBias;
+	private int numberOutputs;
+	private double traceDecay = DEFAULT_TRACE_DECAY;
+	/**
+	 * Row major L x (N + 1 if biased), the bias weight is last in each row
+	 */
+	private double [] weights;
+	
+	/**
+	 * 
+	 * @param reservoir The reservoir to read
+	 * @param numberOutputs Number of outputs
+	 * @param feature What is read from each neuron
+	 * @param useBias Add a constant 1 feature
+	 */
+	public LinearReadout(Reservoir<?> reservoir, int numberOutputs, Feature feature, boolean useBias){
+		this.reservoir = reservoir;
+		this.numberOutputs = numberOutputs;
+		this.feature = feature;
+		this.useBias = useBias;
+		this.weights = new double [numberOutputs * getNumberFeatures()];
+	}
+	public LinearReadout(Reservoir<?> reservoir, int numberOutputs){
+		this(reservoir, numberOutputs, Feature.SPIKE_COUNT, false);
+	}
+	
+	/**
+	 * @return number of features per output, the number of reservoir neurons plus 1 with a bias
+	 */
+	public int getNumberFeatures(){
+		return reservoir.getNeurons().length + (useBias ? 1 : 0);
+	}
+	
+	/**
+	 * Features of the reservoir as it is now
+	 * @param x length {@link #getNumberFeatures()}, overwritten
+	 * @return x
+	 */
+	public double [] getFeatures(double [] x){
+		Neuron [] neurons = reservoir.getNeurons();
+		long clock = reservoir.getContext().getClock();
+		for (int i=0; i<neurons.length; i++){
+			switch (feature){
+			case SPIKE_COUNT:
+				x[i] = neurons[i].getSpikeTrain().count(0, clock);
+				break;
+			case TRACE:
+				x[i] = trace(neurons[i].getSpikeTrain(), clock);
+				break;
+			case MEMBRANE_POTENTIAL:
+				x[i] = neurons[i].getCurrentMembranePotential();
+				break;
+			}
+		}
+		if (useBias){
+			x[neurons.length] = 1;
+		}
+		return x;
+	}
+	/**
+	 * Features of recorded reservoir activity
+	 * @param state
+	 * @param x length {@link #getNumberFeatures()}, overwritten
+	 * @return x
+	 */
+	public double [] getFeatures(ReservoirState state, double [] x){
+		int n = state.size();
+		long clock = state.getClock();
+		for (int i=0; i<n; i++){
+			switch (feature){
+			case SPIKE_COUNT:
+				x[i] = state.getSpikeTrain(i).count(0, clock);
+				break;
+			case TRACE:
+				x[i] = trace(state.getSpikeTrain(i), clock);
+				break;
+			case MEMBRANE_POTENTIAL:
+				x[i] = state.getMembranePotentials()[i];
+				break;
+			}
+		}
+		if (useBias){
+			x[n] = 1;
+		}
+		return x;
+	}
+	/**
+	 * Sum of decay^(clock-1-t) over the spike times t before the clock
+	 */
+	private double trace(SpikeTrain spikes, long clock){
+		double trace = 0;
+		long last = 0;
+		for (long t = spikes.nextSpike(0); t >= 0 && t < clock; t = spikes.nextSpike(t + 1)){
+			trace = trace * Math.pow(traceDecay, t - last) + 1;
+			last = t;
+		}
+		return (trace == 0) ? 0 : trace * Math.pow(traceDecay, clock - 1 - last);
+	}
+	
+	/**
+	 * y = W x
+	 * @param x features
+	 * @return
+	 */
+	public MLData getOutput(double [] x){
+		int n = getNumberFeatures();
+		MLData output = new BasicMLData(numberOutputs);
+		for (int l=0; l<numberOutputs; l++){
+			double sum = 0;
+			int row = l * n;
+			for (int i=0; i<n; i++){
+				sum += weights[row + i] * x[i];
+			}
+			output.setData(l, sum);
+		}
+		return output;
+	}
+	
+	@Override
+	public MLData getOutput() {
+		return getOutput(getFeatures(new double [getNumberFeatures()]));
+	}
+	@Override
+	public MLData getOutput(ReservoirState state) {
+		return getOutput(getFeatures(state, new double [getNumberFeatures()]));
+	}
+	
+	/**
+	 * Set the weights by ridge regression of the targets on the features of the states
+	 * @param states Recorded reservoir activity of each record, see {@link edu.stevens.cpe.reservior.readout.ReservoirStateCache#fill(MLDataSet)}
+	 * @param dataset Targets in the same order as the states
+	 * @param alpha Regularization
+	 */
+	public void ridge(List<ReservoirState> states, MLDataSet dataset, double alpha){
+		CholeskyRidge ridge = new CholeskyRidge(getNumberFeatures(), numberOutputs);
+		double [] x = new double [getNumberFeatures()];
+		int record = 0;
+		for (MLDataPair pair : dataset){
+			ridge.add(getFeatures(states.get(record++), x), pair.getIdealArray());
+		}
+		//N x L, stored as L x N
+		setWeights(ridge.solve(alpha).viewDice());
+	}
+	
+	/**
+	 * @param weights Row major L x {@link #getNumberFeatures()}, copied
+	 */
+	public void setWeights(double [] weights){
+		if (weights.length != this.weights.length){
+			throw new IllegalArgumentException("Expected " + this.weights.length + " weights, got " + weights.length);
+		}
+		System.arraycopy(weights, 0, this.weights, 0, weights.length);
+	}
+	/**
+	 * @param W L x {@link #getNumberFeatures()}, one row per output as returned by {@link edu.stevens.cpe.reservior.readout.ReservoirSnapshot#ridge()}
+	 */
+	public void setWeights(DoubleMatrix2D W){
+		int n = getNumberFeatures();
+		if (W.rows() != numberOutputs || W.columns() != n){
+			throw new IllegalArgumentException("Expected " + numberOutputs + "x" + n + " weights, got " + W.rows() + "x" + W.columns());
+		}
+		for (int l=0; l<numberOutputs; l++){
+			for (int i=0; i<n; i++){
+				weights[l * n + i] = W.getQuick(l, i);
+			}
+		}
+	}
+	/**
+	 * @return the weights, row major L x {@link #getNumberFeatures()}
+	 */
+	public double [] getWeights() {
+		return weights;
+	}
+	
+	/**
+	 * @param copy A reservoir with the same neurons
+	 * @return a readout of the copy with the same weights
+	 */
+	public LinearReadout copy(Reservoir<?> copy){
+		LinearReadout readout = new LinearReadout(copy, numberOutputs, feature, useBias);
+		readout.traceDecay = traceDecay;
+		readout.setWeights(weights);
+		return readout;
+	}
+	
+	public Feature getFeature() {
+		return feature;
+	}
+	public double getTraceDecay() {
+		return traceDecay;
+	}
+	/**
+	 * @param traceDecay Decay per tick of {@link Feature#TRACE}, between 0 and 1
+	 */
+	public void setTraceDecay(double traceDecay) {
+		this.traceDecay = traceDecay;
+	}
+	
+	@Override
+	public int getNumberOutputs() {
+		return numberOutputs;
+	}
+	/**
+	 * The weights are cleared when the number changes
+	 */
+	@Override
+	public void setNumberOutputs(int numberOutputs) {
+		if (numberOutputs != this.numberOutputs){
+			this.numberOutputs = numberOutputs;
+			this.weights = new double [numberOutputs * getNumberFeatures()];
+		}
+	}
+	
+	/**
+	 * Nothing to reset, the output is computed from the reservoir each time
+	 */
+	@Override
+	public void reset() {
+	}
+	@Override
+	public boolean hasFeedback() {
+		return false;
+	}
+	/**
+	 * No feedback connections
+	 */
+	@Override
+	public void manipulateFeedbackConnections(double scale, double shift) {
+	}
+	/**
+	 * No feedback connections
+	 */
+	@Override
+	public void shiftFeedbackConnections(double shift) {
+	}
+	
+	@Override public String toString(){
+		return "LinearReadout " + feature + " " + Arrays.toString(weights);
+	}
+}
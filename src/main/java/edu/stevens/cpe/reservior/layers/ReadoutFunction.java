@@ -19,6 +19,8 @@ import java.util.concurrent.Callable;
 
 import org.encog.ml.data.MLData;
 
+import edu.stevens.cpe.reservior.ReservoirState;
+
 public interface ReadoutFunction  {
 
 	/**
@@ -33,6 +35,20 @@ public interface ReadoutFunction  {
 	
 	public MLData getOutput();
 	
+	/**
+	 * The output for recorded reservoir activity, computed without simulating the reservoir. 
+	 * Only the same as a live run when the readout has no feedback.
+	 * @param state
+	 * @return
+	 */
+	public MLData getOutput(ReservoirState state);
+	
+	/**
+	 * @return true if the outputs feed back into the reservoir, in which case the reservoir activity depends 
+	 * on the readout weights and can not be cached
+	 */
+	public boolean hasFeedback();
+	
 	public void reset();
 	
 	public void manipulateFeedbackConnections(double scale, double shift);
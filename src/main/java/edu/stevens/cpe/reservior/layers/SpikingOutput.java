@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.apache.log4j.Logger;
@@ -40,10 +41,14 @@ import cern.colt.matrix.DoubleMatrix2D;
 import edu.stevens.cpe.math.MLMatrixUtils;
 import edu.stevens.cpe.reservior.NeuronNetwork;
 import edu.stevens.cpe.reservior.Reservoir;
+import edu.stevens.cpe.reservior.ReservoirState;
+import edu.stevens.cpe.reservior.SimulationContext;
+import edu.stevens.cpe.reservior.SpikeEvent;
 import edu.stevens.cpe.reservior.Subscriber;
 import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
 import edu.stevens.cpe.reservior.neuron.LIFSpikingNeuron;
 import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.Synapses;
 
 public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements ReadoutFunction {
 	private static Logger logger = Logger.getLogger(SpikingOutput.class);
@@ -72,6 +77,8 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 		this.reservior = reservior;
 		this.neuronClass = clazz;
 
+		//Output nodes take their IDs and event service from the reservoir's context
+		SimulationContext previous = reservior.getContext().enter();
 		try {
 			createOutputNodes();
 			addOutConnections();
@@ -89,6 +96,8 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 			e.printStackTrace();
 		} catch (NoSuchMethodException e) {
 			e.printStackTrace();
+		} finally {
+			SimulationContext.exit(previous);
 		}
 	
 	}
@@ -100,6 +109,7 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 		for (int i=0; i<getNumberOutputs(); i++){
 //			neurons[i] =	neuronClass.getConstructor(String.class).newInstance(ID_PREFIX + (reservior.getNeurons().length+i) + "");	
 			nodes[i] =	neuronClass.getConstructor(String.class, Boolean.class).newInstance(ID_PREFIX + i + "",true);			
+			nodes[i].setRouter(reservior.getRouter());
 
 			lastPolledVoltages[i] = 0;
 		}
@@ -185,6 +195,72 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 		return output;
 	}
 
+	/**
+	 * Replay the recorded reservoir spikes into the output neurons in the order they arrived. 
+	 * The output neurons do not publish their own spikes.
+	 */
+	@Override
+	public MLData getOutput(ReservoirState state) {
+		reset();
+		Neuron [] sources = reservior.getNeurons();
+		double [][] weights = new double [nodes.length][sources.length];
+		for (int i=0; i<nodes.length; i++){
+			Synapses synapses = nodes[i].getSynapses();
+			for (int j=0; j<sources.length; j++){
+				//NaN for sources the output is not connected to
+				weights[i][j] = synapses.getWeight(sources[j].getID(), Double.NaN);
+			}
+		}
+		for (int k=0; k<state.getSpikeCount(); k++){
+			long time = state.getArrivalTime(k);
+			int source = state.getSpikeSource(k);
+			for (int i=0; i<nodes.length; i++){
+				if (Double.isNaN(weights[i][source])){
+					continue;
+				}
+				nodes[i].setLastEventdiscreteTimestamp(time);
+				nodes[i].integrate(SpikeEvent.DEFAULT_SPIKE_HEIGHT * weights[i][source], SpikeEvent.DEFAULT_PULSE_WIDTH, time);
+			}
+		}
+		return getOutput();
+	}
+	
+	/**
+	 * True when any reservoir neuron listens to an output neuron with a non zero weight
+	 */
+	@Override
+	public boolean hasFeedback() {
+		for (int j=0; j<reservior.getNeurons().length; j++){
+			Synapses synapses = reservior.getNeurons()[j].getSynapses();
+			for (int i=0; i<nodes.length; i++){
+				if (synapses.getWeight(nodes[i].getID(), 0) != 0){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the same output layer on a copy of the reservoir, see {@link edu.stevens.cpe.reservior.ReservoirNetwork#copy()}.
+	 * The output weights and the feedback weights of the reservoir neurons are copied.
+	 * @param copy A reservoir with the same neurons as the one this layer is connected to
+	 * @return the copied layer
+	 */
+	public SpikingOutput<T> copy(Reservoir<?> copy){
+		SpikingOutput<T> output = new SpikingOutput<T>(copy, numberOutputs, neuronClass);
+		for (int i=0; i<nodes.length; i++){
+			output.getNeurons()[i].setWeights(nodes[i].getWeights());
+			String name = nodes[i].getName();
+			for (int j=0; j<reservior.getNeurons().length; j++){
+				Double feedback = reservior.getNeurons()[j].getWeights().get(name);
+				if (feedback != null){
+					copy.getNeurons()[j].setWeight(name, feedback);
+				}
+			}
+		}
+		return output;
+	}
 
 	/**
 	 * @return the neurons
@@ -203,7 +279,7 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 	 * public void setWeightsByType(String type, double [] newWeights){
 		int index = 0;
 		for (int i=0; i<getNeurons().length; i++){
-			HashMap<String, Double> weights = getNeurons()[i].getWeights();
+			Map<String, Double> weights = getNeurons()[i].getWeights();
 			
 			List<String> keys = new ArrayList<String>(weights.keySet());
 			Collections.sort(keys);
@@ -220,14 +296,14 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 	public void setWeightsByType(String type, double [] newWeights){
 		int index = 0;
 		for (int i=0; i<nodes.length; i++){
-			HashMap<String, Double> weights = nodes[i].getWeights();
+			Map<String, Double> weights = nodes[i].getWeights();
 			
 			List<String> keys = new ArrayList<String>(weights.keySet());
 			Collections.sort(keys);
 			
 			for (int j=0; j<keys.size(); j++){
 				if (keys.get(j).startsWith(type)){
-					weights.put(keys.get(j), newWeights[index]);
+					nodes[i].setWeight(keys.get(j), newWeights[index]);
 					index++;
 				}
 			}
@@ -237,11 +313,11 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 	public void setWeights(double [] newWeights){
 		int index = 0;
 		for (int i=0; i<getNeurons().length; i++){
-			HashMap<String, Double> weights = getNeurons()[i].getWeights();
+			Map<String, Double> weights = getNeurons()[i].getWeights();
 			Iterator<String> it = weights.keySet().iterator();
 			while (it.hasNext()){
 				String id = it.next();
-				weights.put(id, newWeights[index]);
+				getNeurons()[i].setWeight(id, newWeights[index]);
 				index++;
 			}
 		}
@@ -250,7 +326,7 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		PrintStream ps = new PrintStream(baos);
 		for (int i=0; i<getNeurons().length; i++){
-			HashMap<String, Double> weights = getNeurons()[i].getWeights();
+			Map<String, Double> weights = getNeurons()[i].getWeights();
 			Iterator<String> it = weights.keySet().iterator();
 			while (it.hasNext()){
 				String id = it.next();
@@ -336,7 +412,7 @@ public class SpikingOutput  <T extends Neuron> extends NeuronNetwork implements
 			Iterator<String> it = weights.keySet().iterator();
 			while (it.hasNext()){
 				String key = it.next();
-				reservior.getNeurons()[j].getWeights().put(key, weights.get(key)* scale + shift);
+				reservior.getNeurons()[j].setWeight(key, weights.get(key)* scale + shift);
 			}
 		}
 	}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+/**
+ * Leak factors exp(-k/tau) for k elapsed ticks, computed once with {@link StrictMath} so every machine decays 
+ * a membrane potential by exactly the same amount. Tables are immutable and shared by all neurons with the same 
+ * time constant.
+ * @author wil
+ *
+ */
+public class DecayTable {
+
+	/**
+	 * Number of elapsed ticks with a precomputed factor, longer gaps are computed when needed
+	 */
+	public static int DEFAULT_SIZE = 1024;
+	
+	/**
+	 * Most recently requested table, neurons of a reservoir normally share one time constant
+	 */
+	private static volatile DecayTable last;
+	
+	private final double timeConstant;
+	private final double [] factors;
+	
+	/**
+	 * @param timeConstant tau in ticks, positive. Infinite for no leak
+	 * @param size Number of precomputed factors
+	 */
+	public DecayTable(double timeConstant, int size){
+		if (!(timeConstant > 0)){
+			throw new IllegalArgumentException("Time constant must be positive, got " + timeConstant);
+		}
+		this.timeConstant = timeConstant;
+		this.factors = new double[Math.max(1, size)];
+		for (int k=0; k<factors.length; k++){
+			factors[k] = StrictMath.exp(-k / timeConstant);
+		}
+	}
+	
+	/**
+	 * @param timeConstant tau in ticks
+	 * @return a table with {@link #DEFAULT_SIZE} factors, shared with the last caller asking for the same time constant
+	 */
+	public static DecayTable get(double timeConstant){
+		DecayTable table = last;
+		if (table == null || table.timeConstant != timeConstant){
+			table = new DecayTable(timeConstant, DEFAULT_SIZE);
+			last = table;
+		}
+		return table;
+	}
+	
+	/**
+	 * @param ticks Elapsed ticks
+	 * @return exp(-ticks/tau), 1 for no elapsed time
+	 */
+	public double factor(long ticks){
+		if (ticks <= 0){
+			return 1;
+		}
+		if (ticks < factors.length){
+			return factors[(int)ticks];
+		}
+		return StrictMath.exp(-ticks / timeConstant);
+	}
+	
+	/**
+	 * @return tau in ticks
+	 */
+	public double getTimeConstant() {
+		return timeConstant;
+	}
+	/**
+	 * @return the number of precomputed factors
+	 */
+	public int size() {
+		return factors.length;
+	}
+}
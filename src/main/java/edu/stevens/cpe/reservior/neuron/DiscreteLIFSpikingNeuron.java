@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import edu.stevens.cpe.reservior.SimulationContext;
+
+/**
+ * Leaky integrate and fire neuron driven by the simulation clock. Between updates the membrane potential decays 
+ * by exp(-k/tau) for the k ticks elapsed, looked up in a {@link DecayTable}, and is then charged and fired exactly 
+ * as an {@link IFSpikingNeuron}. The leak is applied lazily when the next input arrives so a neuron without input 
+ * costs nothing, and results do not depend on the speed of the machine unlike {@link LIFSpikingNeuron}.
+ * 
+ * Inputs ignored during the refractory period still let the potential decay.
+ * @author wil
+ *
+ */
+public class DiscreteLIFSpikingNeuron extends IFSpikingNeuron {
+
+	/**
+	 * Membrane time constant tau in ticks.
+	 * Used by neurons in the default {@link SimulationContext}, other contexts have their own copy.
+	 */
+	public static double TIME_CONSTANT = 20;
+	
+	/**
+	 * Factors for the time constant of the context
+	 */
+	private DecayTable decayTable;
+	/**
+	 * Time the membrane potential was last decayed to
+	 */
+	private long lastDecayTime = 0;
+	
+	public DiscreteLIFSpikingNeuron(Integer id){
+		super(id);
+	}
+	public DiscreteLIFSpikingNeuron(String name){
+		super(name);
+	}
+	public DiscreteLIFSpikingNeuron(Integer id, String name){
+		super(id, name);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public synchronized boolean integrate(double current, long pulseWidth, long time){
+		if (time > lastDecayTime){
+			double potential = getMembranePotential();
+			if (potential != 0){
+				setMembranePotential(potential * getDecayTable().factor(time - lastDecayTime));
+			}
+			lastDecayTime = time;
+		}
+		return super.integrate(current, pulseWidth, time);
+	}
+	
+	/**
+	 * @return the membrane potential decayed to the clock of the context
+	 */
+	@Override public synchronized double getCurrentMembranePotential(){
+		return getMembranePotential() * getDecayTable().factor(getContext().getClock() - lastDecayTime);
+	}
+	
+	private DecayTable getDecayTable(){
+		double timeConstant = getContext().getTimeConstant();
+		if (decayTable == null || decayTable.getTimeConstant() != timeConstant){
+			decayTable = DecayTable.get(timeConstant);
+		}
+		return decayTable;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public void reset(){
+		super.reset();
+		lastDecayTime = 0;
+	}
+}
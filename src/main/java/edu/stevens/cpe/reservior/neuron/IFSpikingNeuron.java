@@ -15,15 +15,13 @@
  ******************************************************************************/
 package edu.stevens.cpe.reservior.neuron;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.DiscreteTimeThreadSafeEventService;
 import org.bushe.swing.event.EventBus;
 
 import edu.stevens.cpe.reservior.Reservoir;
-import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
 import edu.stevens.cpe.reservior.SpikeEvent;
 
 /**
@@ -42,20 +40,19 @@ public class IFSpikingNeuron extends Neuron {
 	/**
 	 * This value determines how many times the neuron must be stimulated until it reaches its threshold
 	 * A smaller value will retain less memory as a larger value but will fire more frequently.
+	 * Used by neurons in the default {@link SimulationContext}, other contexts have their own copy.
 	 */
 	public static double MEMORY_CAPACITY_COEF = 3;
 	/**
 	 * The times in which this neuron has fired
 	 */
-	private final ArrayList<Long> spikeTimes = new ArrayList<Long>();
+	private final SpikeTrain spikeTrain = new SpikeTrain();
 
 
-
-	private final HashMap<Long,Double> chargeTimes = new HashMap<Long,Double>();
-
 	/**
 	 * If a neuron fires then the action potential is the same regardless of the amount of excitation received from the inputs.
 	 * The membrane potential voltage threshold in mV
+	 * Used by neurons in the default {@link SimulationContext}, other contexts have their own copy.
 	 */
 	public static double THRESHOLD = 1;//16;
 	
@@ -74,6 +71,7 @@ public class IFSpikingNeuron extends Neuron {
 	/**
 	 * Time in which the neuron is given time to rest in nanoseconds
 	 * t_ref
+	 * Used by neurons in the default {@link SimulationContext}, other contexts have their own copy.
 	 */
 	public static long REFACTORY_PEROID = 1;//3 * (long)Math.pow(10, 6);
 	
@@ -117,7 +115,7 @@ public class IFSpikingNeuron extends Neuron {
 	protected double charge(double time, double current){
 		//in descrete time, time = 1
 		//return (current * time / membraneCapacitance) + getMembranePotential();
-		return (current * time / MEMORY_CAPACITY_COEF) + getMembranePotential();
+		return (current * time / getContext().getMemoryCapacity()) + getMembranePotential();
 
 	}
 
@@ -126,26 +124,37 @@ public class IFSpikingNeuron extends Neuron {
 	 * This method must be overriden to provide the response to when a spike event is received
 	 */
 	@Override public synchronized void updateMembranePotential(double current, long pulseWidth){
+		if (integrate(current, pulseWidth, getLastEventdiscreteTimestamp())){
+			//Inc the time series, time driven by spikes. Descrete times are updated in the onEvent method
+			SpikeEvent packet = newSpikeEvent(getLastEventdiscreteTimestamp()+1);
+			
+			//Fire
+			fire(packet);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public synchronized boolean integrate(double current, long pulseWidth, long time){
+		setLastEventdiscreteTimestamp(time);
+		boolean fired = false;
 		//logger.info(c + " update");
-		long currentTime = System.nanoTime();
 		//Make sure we are not in a refactory period
-		if (getLastEventdiscreteTimestamp() >= timeRefactoryPeriodComplete){
+		if (time >= timeRefactoryPeriodComplete){
 			//long deltaTime = currentTime - getLastEventTimestamp();
 		
 			//charge at a constant current for 1 second
 			//double newMembranePotential = charge(pulseWidth*Math.pow(10,-9), current);
 			double newMembranePotential = charge(pulseWidth, current);
 
-			if (newMembranePotential > THRESHOLD){
-				SpikeEvent packet = new SpikeEvent();
-				//Inc the time series, time driven by spikes. Descrete times are updated in the onEvent method
-				packet.setTime(getLastEventdiscreteTimestamp()+1);
-				
-				//Fire
-				EventBus.publish(getName(), packet );
-				spikeTimes.add(getLastEventdiscreteTimestamp());
+			if (newMembranePotential > getContext().getThreshold()){
+				fired = true;
+				spikeTrain.add(time);
 
-				logger.debug(getName() + "\t=>\t\tt=" + getLastEventdiscreteTimestamp());
+				if (logger.isTraceEnabled()){
+					logger.trace(getName() + "\t=>\t\tt=" + getLastEventdiscreteTimestamp());
+				}
 				//Reset the membran potential
 				
 				//FIXME
@@ -155,16 +164,16 @@ public class IFSpikingNeuron extends Neuron {
 				}
 				
 				//Set next valid time
-				this.timeRefactoryPeriodComplete  = getLastEventdiscreteTimestamp()+REFACTORY_PEROID;//currentTime + refactoryPeriod;
+				this.timeRefactoryPeriodComplete  = getLastEventdiscreteTimestamp()+getRefactoryPeriod();//currentTime + refactoryPeriod;
 			} else {
 				setMembranePotential(newMembranePotential);
 			}
-			setLastEventTimestamp(currentTime);
-		} else {
-			logger.debug(c + " missed pulse");
+		} else if (logger.isTraceEnabled()){
+			logger.trace(c + " missed pulse");
 		}
-		chargeTimes.put(getLastEventdiscreteTimestamp(),getMembranePotential());
+		getStateProbe().record(time, getMembranePotential());
 		c++;
+		return fired;
 	}
 	
 	@Override public synchronized double getCurrentMembranePotential(){
@@ -185,7 +194,7 @@ public class IFSpikingNeuron extends Neuron {
 	 * @return the refactoryPeriod
 	 */
 	public long getRefactoryPeriod() {
-		return REFACTORY_PEROID;
+		return getContext().getRefractoryPeriod();
 	}
 
 	/**
@@ -207,7 +216,8 @@ public class IFSpikingNeuron extends Neuron {
 	 */
 	@Override public void reset(){
 		setMembranePotential(resetValue);
-		spikeTimes.clear();
+		spikeTrain.clear();
+		getStateProbe().clear();
 		this.timeRefactoryPeriodComplete = -1;
 	}
 
@@ -217,24 +227,16 @@ public class IFSpikingNeuron extends Neuron {
 		
 	}
 	@Override public double [] getStateHistory(){
-		int maxTime = (int) ReservoirNetwork.getClock();
+		int maxTime = (int) getContext().getClock();
 		//TODO fix this casting
-		double [] charges = new double[maxTime];
-		double lastCharge = 0;
-		for (int i=0; i<maxTime; i++){
-			Object charge = chargeTimes.get((long)i);
-			double val = (charge == null) ? -1 :  chargeTimes.get((long)i);
-			charges[i] = val;//chargeTimes.get((long)i);//(charge != null) ? (Double)charge : lastCharge;
-		}
-		return charges;
+		return getStateProbe().getHistory(maxTime);
 	}
 	@Override public double [] getFiringTimes(){
-		int maxTime = (int) ReservoirNetwork.getClock();
+		int maxTime = (int) getContext().getClock();
 		//TODO fix this casting
-		double [] spikes = new double[maxTime];
-		for (int i=0; i<maxTime; i++){
-			spikes[i] = spikeTimes.contains(Long.valueOf(i)) ? 1 : 0;
-		}
-		return spikes;
+		return spikeTrain.toArray(maxTime);
+	}
+	@Override public SpikeTrain getSpikeTrain(){
+		return spikeTrain;
 	}
 }
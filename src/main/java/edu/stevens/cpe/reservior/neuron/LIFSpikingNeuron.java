@@ -27,6 +27,8 @@ import edu.stevens.cpe.reservior.SpikeEvent;
 /**
  * Parameters obtained from 
  * http://www.cs.rug.nl/biehl/Teaching/NN/iaf.pdf
+ * 
+ * Decay is timed by the wall clock, see {@link DiscreteLIFSpikingNeuron} to simulate in discrete time.
  * @author wil
  *
  */
@@ -73,15 +75,20 @@ public class LIFSpikingNeuron extends IFSpikingNeuron {
 		
 			double newMembranePotential = discharge(deltaTime*Math.pow(10,-9)) + charge(pulseWidth*Math.pow(10,-9), current);
 			
-			loggerVolt.debug( (currentTime- Reservoir.startTime) + "\t" + newMembranePotential);
-			logger.debug("FIRE " + c + "\t" + deltaTime + "\t" + newMembranePotential);
+			if (loggerVolt.isTraceEnabled()){
+				loggerVolt.trace( (currentTime- Reservoir.startTime) + "\t" + newMembranePotential);
+			}
+			if (logger.isTraceEnabled()){
+				logger.trace("FIRE " + c + "\t" + deltaTime + "\t" + newMembranePotential);
+			}
 
 			
-			if (newMembranePotential > THRESHOLD){
-				SpikeEvent packet = new SpikeEvent();
+			if (newMembranePotential > getContext().getThreshold()){
 				//Fire
-				EventBus.publish(getName(), packet );
-				loggerFiring.debug(getName() + "\t" + (currentTime- Reservoir.startTime));
+				fire(newSpikeEvent(0));
+				if (loggerFiring.isTraceEnabled()){
+					loggerFiring.trace(getName() + "\t" + (currentTime- Reservoir.startTime));
+				}
 				
 				//Reset
 				setMembranePotential(getResetValue());
@@ -92,12 +99,19 @@ public class LIFSpikingNeuron extends IFSpikingNeuron {
 				setMembranePotential(newMembranePotential);
 			}
 			setLastEventTimestamp(currentTime);
-		} else {
-			logger.debug(c + " missed pulse");
+		} else if (logger.isTraceEnabled()){
+			logger.trace(c + " missed pulse");
 		}
 		c++;
 	}
 	
+	/**
+	 * Updates are driven by the wall clock so there is no discrete time update
+	 */
+	@Override public boolean integrate(double current, long pulseWidth, long time){
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not be simulated in discrete time");
+	}
+	
 	/**
 	 * 
 	 * @param time Lapse time in which the cap has been discharging in seconds
@@ -15,23 +15,27 @@
  ******************************************************************************/
 package edu.stevens.cpe.reservior.neuron;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.bushe.swing.event.EventBus;
 import org.bushe.swing.event.EventTopicSubscriber;
 import org.encog.engine.network.activation.ActivationFunction;
 
-import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
 import edu.stevens.cpe.reservior.SpikeEvent;
+import edu.stevens.cpe.reservior.SpikeListener;
+import edu.stevens.cpe.reservior.SpikeRouter;
 import edu.stevens.cpe.reservior.Subscriber;
 /**
  * To try and limit the subscribes, all signals are going to be mapped to the neuron and weights will be handled inside the neuron
@@ -65,10 +69,13 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	private ArrayList<Neuron> targetNeurons = new ArrayList<Neuron>();
 	
 	/**
-	 * Mapping for weight to target identified by the target neuron index
+	 * Weight of each incoming connection identified by the source ID
 	 */
-	//FIXME Change this to a double [] with length == # neurons in reservoir
-	private HashMap<String, Double> weights = new HashMap<String,Double>();
+	private final Synapses synapses = new Synapses();
+	/**
+	 * Map view of the synapses keyed by source name
+	 */
+	private final Map<String, Double> weights = new WeightsView();
 	/**
 	 * The time that the last event occurred in continulous time in nanoseconds
 	 */
@@ -97,20 +104,35 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	 * This is needed for being able to map back the neuron in arrays and matrices.
 	 */
 	private final int ID;
+	
+	/**
+	 * When set spikes are sent and received through the router instead of the EventBus
+	 */
+	private SpikeRouter router;
+	/**
+	 * Context of the thread which created the neuron
+	 */
+	private final SimulationContext context;
+	/**
+	 * Records the membrane potential for {@link #getStateHistory()}
+	 */
+	private StateProbe stateProbe;
 
 	public Neuron(){
-		this(ReservoirNetwork.generateID()); //create an ID from last known ID in network
+		this(SimulationContext.current().generateID()); //create an ID from last known ID in network
 	}
 	public Neuron(Integer id){
-		this.ID = id;
-		this.name = NAME_PREFIX + id;
+		this(id, NAME_PREFIX + id);
 	}
 	public Neuron(String name){
-		this(ReservoirNetwork.generateID(),name);
+		this(SimulationContext.current().generateID(),name);
 	}
 	public Neuron(Integer id, String name){
 		this.ID = id;
 		this.name = name;
+		this.context = SimulationContext.current();
+		this.stateProbe = new StateProbe(context.getProbeMode(), context.getProbeParameter());
+		context.registerSource(name, id);
 	}
 	/**
 	 * Depending on the number of dendrites have been assigned in the resevior which we are connected to
@@ -143,13 +165,36 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 		//dendrites.add(new Dendrite(this, targetNeuron.getName()));
 		//int targetID = targetNeuron.getID();
 		
-		weights.put(source,weight);
-		
+		subscribe(context.getSourceID(source), source, weight);
+	}
+	/**
+	 * Subscribe to another neuron of the same context without looking up its ID
+	 * @param source
+	 * @param weight
+	 */
+	public void subscribe(Neuron source, double weight){
+		subscribe(source.getID(), source.getName(), weight);
+	}
+	private void subscribe(int sourceID, String source, double weight){
+		synapses.put(sourceID, weight);
+		connect(sourceID, source, weight);
+	}
+	/**
+	 * Have spikes of the source delivered to this neuron
+	 * @param sourceID
+	 * @param source
+	 * @param weight
+	 */
+	private void connect(int sourceID, String source, double weight){
+		if (router != null){
+			router.connect(sourceID, this, weight);
+			return;
+		}
 		//
 		//Must be strongly typed to prevent from being garbaged collected when there are many subscriptions
 		//
 		//TODO what is we are already subscribed what happens?
-		EventBus.subscribeStrongly(source, this);
+		context.getEventService().subscribeStrongly(source, this);
 		
 	}
 	@Override public void subscribe(String [] sources){
@@ -169,11 +214,16 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 
 		//this.targetNeurons.addAll(Arrays.asList(neurons));
 
+		//Map order is random so sort the synapses once at the end
 		Iterator<String> it = sources.keySet().iterator();
 		while (it.hasNext()){
 			String sourceName = it.next();
-			subscribe(sourceName, sources.get(sourceName));
+			int sourceID = context.getSourceID(sourceName);
+			double weight = sources.get(sourceName);
+			synapses.append(sourceID, weight);
+			connect(sourceID, sourceName, weight);
 		}
+		synapses.sort();
 	}
 	
 	/**
@@ -232,25 +282,146 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	
 	}
 	/**
-	 * @return the weights
+	 * Changes to the map are written through to the synapses. 
+	 * @return the weights keyed by source name
 	 */
-	public HashMap<String, Double> getWeights() {
+	public Map<String, Double> getWeights() {
 		return weights;
 	}
+	/**
+	 * @return the synapses
+	 */
+	public Synapses getSynapses() {
+		return synapses;
+	}
 	/**
 	 * Spike from another neuron occured
 	 */
 	//static int c = 0;
 	@Override public void onEvent(String topic, SpikeEvent data) {
 		
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		PrintStream ps = new PrintStream(baos);
-		ps.printf("%4s:%1.9f \t => \t %s \t t= %d \t %1.9f",topic, data.getAmplitude(), name, data.getTime(),getMembranePotential());
-		//logger.debug(baos.toString());
-		
+		if (logger.isTraceEnabled()){
+			logger.trace(String.format("%4s:%1.9f \t => \t %s \t t= %d \t %1.9f",topic, data.getAmplitude(), name, data.getTime(),getMembranePotential()));
+		}
+		int sourceID = data.getSourceID();
+		if (sourceID == SpikeEvent.UNKNOWN_SOURCE){
+			sourceID = context.findSourceID(topic);
+		}
+		int index = synapses.indexOf(sourceID);
+		if (index < 0){
+			return;
+		}
+		receive(data, synapses.getWeightAt(index));
+	}
+	/**
+	 * Spike from a source connected with the given weight
+	 * @param data
+	 * @param weight
+	 */
+	public void receive(SpikeEvent data, double weight){
 		setLastEventdiscreteTimestamp(data.getTime());
-		updateMembranePotential(data.getAmplitude()*weights.get(topic), data.getPulseWidth());
-	
+		updateMembranePotential(data.getAmplitude()*weight, data.getPulseWidth());
+	}
+	/**
+	 * A spike to {@link #fire(SpikeEvent)}, taken from the router pool when there is a router
+	 * @param time
+	 * @return
+	 */
+	protected SpikeEvent newSpikeEvent(long time){
+		if (router != null){
+			return router.obtain(SpikeEvent.DEFAULT_SPIKE_HEIGHT, SpikeEvent.DEFAULT_PULSE_WIDTH, time);
+		}
+		SpikeEvent packet = new SpikeEvent();
+		packet.setTime(time);
+		return packet;
+	}
+	/**
+	 * Send a spike to every neuron subscribed to this one
+	 * @param packet
+	 */
+	protected void fire(SpikeEvent packet){
+		packet.setSourceID(ID);
+		SpikeListener listener = context.getSpikeListener();
+		if (listener != null){
+			listener.spikeFired(ID, packet.getTime());
+		}
+		if (router != null){
+			router.publish(packet);
+		} else {
+			context.getEventService().publish(name, packet);
+		}
+	}
+	/**
+	 * Update the weight of the connection from source
+	 * @param source
+	 * @param weight
+	 */
+	public void setWeight(String source, double weight){
+		int sourceID = context.getSourceID(source);
+		boolean connected = synapses.contains(sourceID);
+		synapses.put(sourceID, weight);
+		updateConnection(sourceID, source, weight, connected);
+	}
+	/**
+	 * Bring the router or the event service in line with a weight already set in the synapses
+	 * @param sourceID
+	 * @param source
+	 * @param weight
+	 * @param connected true if the source was a synapse before
+	 */
+	private void updateConnection(int sourceID, String source, double weight, boolean connected){
+		if (router != null){
+			if (!router.setWeight(sourceID, ID, weight)){
+				connect(sourceID, source, weight);
+			}
+		} else if (!connected){
+			connect(sourceID, source, weight);
+		}
+	}
+	/**
+	 * Stop spikes of the source from being delivered to this neuron
+	 * @param sourceID
+	 */
+	private void disconnect(int sourceID){
+		if (router != null){
+			router.disconnect(sourceID, ID);
+			return;
+		}
+		String source = context.getSourceName(sourceID);
+		if (source != null){
+			context.getEventService().unsubscribe(source, this);
+		}
+	}
+	/**
+	 * @return the probe recording the membrane potential
+	 */
+	public StateProbe getStateProbe() {
+		return stateProbe;
+	}
+	/**
+	 * @param stateProbe Records the membrane potential from now on
+	 */
+	public void setStateProbe(StateProbe stateProbe) {
+		this.stateProbe = stateProbe;
+	}
+	/**
+	 * @return the context the neuron was created in
+	 */
+	public SimulationContext getContext() {
+		return context;
+	}
+	/**
+	 * @return the router, null when spikes go through the EventBus
+	 */
+	public SpikeRouter getRouter() {
+		return router;
+	}
+	/**
+	 * Must be set before subscribing
+	 * @param router the router to set
+	 */
+	public void setRouter(SpikeRouter router) {
+		this.router = router;
 	}
 	/**
 	 * Not currently used may when dynamically removing creating
@@ -276,6 +447,22 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	 * @return
 	 */
 	public abstract double [] getFiringTimes();
+	
+	/**
+	 * Spike history as a bitset. Neurons which keep their own {@link SpikeTrain} return it, the default 
+	 * builds one from {@link #getFiringTimes()}.
+	 * @return
+	 */
+	public SpikeTrain getSpikeTrain(){
+		double [] firingTimes = getFiringTimes();
+		SpikeTrain spikeTrain = new SpikeTrain(firingTimes.length);
+		for (int i=0; i<firingTimes.length; i++){
+			if (firingTimes[i] != 0){
+				spikeTrain.add(i);
+			}
+		}
+		return spikeTrain;
+	}
 
 	/**
 	 * @param lastEventTimestamp the lastEventTimestamp to set
@@ -285,10 +472,34 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	}
 
 	/**
+	 * Replace all weights, sources missing from the map are disconnected and new ones connected
 	 * @param weights the weights to set
 	 */
-	public void setWeights(HashMap<String, Double> weights) {
-		this.weights = weights;
+	public void setWeights(Map<String, Double> weights) {
+		//Copy first in case this is our own view
+		HashMap<String, Double> copy = new HashMap<String, Double>(weights);
+		String [] sources = copy.keySet().toArray(new String[copy.size()]);
+		int [] sourceIDs = new int[sources.length];
+		boolean [] connected = new boolean[sources.length];
+		for (int i=0; i<sources.length; i++){
+			sourceIDs[i] = context.getSourceID(sources[i]);
+			connected[i] = synapses.contains(sourceIDs[i]);
+		}
+		int [] kept = sourceIDs.clone();
+		Arrays.sort(kept);
+		for (int k=0; k<synapses.size(); k++){
+			int sourceID = synapses.getSourceAt(k);
+			if (Arrays.binarySearch(kept, sourceID) < 0){
+				disconnect(sourceID);
+			}
+		}
+		synapses.clear();
+		for (int i=0; i<sources.length; i++){
+			double weight = copy.get(sources[i]);
+			synapses.append(sourceIDs[i], weight);
+			updateConnection(sourceIDs[i], sources[i], weight, connected[i]);
+		}
+		synapses.sort();
 	}
 	public void setWeightsByType(String type, double [] newWeights){
 		int index = 0;			
@@ -297,17 +508,17 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 		
 		for (int j=0; j<keys.size(); j++){
 			if (keys.get(j).startsWith(type)){
-				weights.put(keys.get(j), newWeights[index]);
+				setWeight(keys.get(j), newWeights[index]);
 				index++;
 			}
 		}
 	}
 	public HashMap<String, Double> getWeightsByType(String type){
 		 HashMap<String, Double> w = new HashMap<String,Double>();
-		List<String> keys = new ArrayList<String>(weights.keySet());		
-		for (int j=0; j<keys.size(); j++){
-			if (keys.get(j).startsWith(type)){
-				w.put(keys.get(j), weights.get(keys.get(j)));
+		for (int j=0; j<synapses.size(); j++){
+			String source = context.getSourceName(synapses.getSourceAt(j));
+			if (source != null && source.startsWith(type)){
+				w.put(source, synapses.getWeightAt(j));
 			}
 		}
 		return w;
@@ -329,6 +540,18 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 	 */
 	public abstract void updateMembranePotential(double current, long time);
 	
+	/**
+	 * Apply a current received at a discrete time without publishing a spike, used when the network is 
+	 * simulated one tick at a time instead of by events.
+	 * @param current
+	 * @param pulseWidth
+	 * @param time
+	 * @return true if the neuron fired
+	 */
+	public boolean integrate(double current, long pulseWidth, long time){
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not be simulated in discrete time");
+	}
+	
 	@Override
 	public void unsubscribe(String source) {
 		// TODO Auto-generated method stub
@@ -352,4 +575,87 @@ public abstract class Neuron  implements EventTopicSubscriber<SpikeEvent>, Runna
 		// TODO Auto-generated method stub
 		
 	}
+	
+	/**
+	 * Weights keyed by source name, names are resolved through the source IDs registered with the {@link SimulationContext}
+	 */
+	private class WeightsView extends AbstractMap<String, Double> {
+
+		@Override public Double get(Object key) {
+			if (!(key instanceof String)){
+				return null;
+			}
+			int index = synapses.indexOf(context.findSourceID((String)key));
+			return (index < 0) ? null : synapses.getWeightAt(index);
+		}
+		@Override public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		@Override public Double put(String key, Double value) {
+			Double previous = get(key);
+			setWeight(key, value);
+			return previous;
+		}
+		@Override public int size() {
+			return synapses.size();
+		}
+		@Override public Set<Map.Entry<String, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<String,Double>>() {
+				@Override public Iterator<Map.Entry<String, Double>> iterator() {
+					return new Iterator<Map.Entry<String,Double>>() {
+						private int next = 0;
+						@Override public boolean hasNext() {
+							return next < synapses.size();
+						}
+						@Override public Map.Entry<String, Double> next() {
+							if (!hasNext()){
+								throw new NoSuchElementException();
+							}
+							return new WeightEntry(next++);
+						}
+						@Override public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+				@Override public int size() {
+					return synapses.size();
+				}
+			};
+		}
+	}
+	
+	private class WeightEntry implements Map.Entry<String, Double> {
+		private final int index;
+		private final String source;
+		
+		WeightEntry(int index){
+			this.index = index;
+			this.source = context.getSourceName(synapses.getSourceAt(index));
+		}
+		@Override public String getKey() {
+			return source;
+		}
+		@Override public Double getValue() {
+			return synapses.getWeightAt(index);
+		}
+		@Override public Double setValue(Double value) {
+			double previous = synapses.getWeightAt(index);
+			synapses.setWeightAt(index, value);
+			if (router != null){
+				router.setWeight(synapses.getSourceAt(index), ID, value);
+			}
+			return previous;
+		}
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)){
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+			return (source == null ? e.getKey() == null : source.equals(e.getKey())) && getValue().equals(e.getValue());
+		}
+		@Override public int hashCode() {
+			return (source == null ? 0 : source.hashCode()) ^ getValue().hashCode();
+		}
+	}
 }
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import java.util.Arrays;
+
+import edu.stevens.cpe.reservior.SimulationContext;
+
+/**
+ * Integrate and fire dynamics for a whole population of neurons held in primitive arrays indexed by neuron, 
+ * instead of one heap object per neuron each with its own lock, random generator and histories. 
+ * 
+ * With the default parameters {@link #integrate(int, double, long, long)} gives exactly the same membrane 
+ * potentials and firing times as {@link IFSpikingNeuron}. A leaky population, see {@link #setLeaky(boolean)}, 
+ * decays the potential by exp(-k/tau) for the k ticks between updates with the time constant of its context, 
+ * exactly as {@link DiscreteLIFSpikingNeuron}.
+ * 
+ * {@link PopulationNeuron} provides the object per neuron API on top of a population.
+ * Not thread safe.
+ * @author wil
+ *
+ */
+public class NeuronPopulation {
+
+	/**
+	 * Value of {@link #getLastSpike(int)} for a neuron that has not fired
+	 */
+	public static final int NEVER = -1;
+
+	private final int size;
+	private final double [] potential;
+	/**
+	 * Updates before this time are ignored
+	 */
+	private final long [] refractoryUntil;
+	private final int [] lastSpike;
+	/**
+	 * Time of the last update, used to apply the leak
+	 */
+	private final long [] lastUpdate;
+	
+	private double threshold;
+	private double resetValue = 0;
+	private double memoryCapacity;
+	private long refractoryPeriod;
+	/**
+	 * Owner of the time constant of a leaky population
+	 */
+	private final SimulationContext context;
+	private boolean leaky = false;
+	/**
+	 * Leak factors for the time constant of the context
+	 */
+	private DecayTable decayTable;
+	
+	/**
+	 * Population using the neuron parameters of the current {@link SimulationContext}
+	 * @param size
+	 */
+	public NeuronPopulation(int size){
+		this(size, SimulationContext.current());
+	}
+	/**
+	 * @param size
+	 * @param context Neuron parameters are copied from the context
+	 */
+	public NeuronPopulation(int size, SimulationContext context){
+		this.size = size;
+		this.context = context;
+		this.threshold = context.getThreshold();
+		this.memoryCapacity = context.getMemoryCapacity();
+		this.refractoryPeriod = context.getRefractoryPeriod();
+		this.potential = new double[size];
+		this.refractoryUntil = new long[size];
+		this.lastSpike = new int[size];
+		this.lastUpdate = new long[size];
+		reset();
+	}
+	
+	/**
+	 * Apply an input current to a single neuron at time. This is the event driven update
+	 * @param i
+	 * @param current
+	 * @param pulseWidth
+	 * @param time
+	 * @return true if the neuron fired
+	 */
+	public boolean integrate(int i, double current, long pulseWidth, long time){
+		if (time < refractoryUntil[i]){
+			return false;
+		}
+		double v = potential[i];
+		if (leaky && time > lastUpdate[i]){
+			v *= getDecayTable().factor(time - lastUpdate[i]);
+		}
+		lastUpdate[i] = time;
+		v = (current * pulseWidth / memoryCapacity) + v;
+		if (v > threshold){
+			fire(i, time);
+			return true;
+		}
+		potential[i] = v;
+		return false;
+	}
+	
+	/**
+	 * Clock driven update of every neuron, current[i] is the total input to neuron i during the tick. Inputs 
+	 * are summed before the threshold is checked, unlike applying them one at a time with {@link #integrate(int, double, long, long)}.
+	 * The leak is applied once per call so this must be called every tick.
+	 * @param current
+	 * @param time
+	 * @param fired Filled with the indexes of the neurons that fired, must hold {@link #size()}
+	 * @return The number of neurons that fired
+	 */
+	public int step(double [] current, long time, int [] fired){
+		final double [] v = potential;
+		final long [] ref = refractoryUntil;
+		final double c = memoryCapacity;
+		final double l = leaky ? getDecayTable().factor(1) : 1.0;
+		int count = 0;
+		for (int i=0; i<size; i++){
+			if (time < ref[i]){
+				continue;
+			}
+			double next = (current[i] / c) + v[i] * l;
+			lastUpdate[i] = time;
+			if (next > threshold){
+				fire(i, time);
+				fired[count++] = i;
+			} else {
+				v[i] = next;
+			}
+		}
+		return count;
+	}
+	
+	private DecayTable getDecayTable(){
+		double timeConstant = context.getTimeConstant();
+		if (decayTable == null || decayTable.getTimeConstant() != timeConstant){
+			decayTable = DecayTable.get(timeConstant);
+		}
+		return decayTable;
+	}
+	
+	private void fire(int i, long time){
+		potential[i] = resetValue;
+		refractoryUntil[i] = time + refractoryPeriod;
+		lastSpike[i] = (int)time;
+	}
+	
+	/**
+	 * Put every neuron back to the reset potential and clear the refractory periods
+	 */
+	public void reset(){
+		Arrays.fill(potential, resetValue);
+		Arrays.fill(refractoryUntil, -1);
+		Arrays.fill(lastSpike, NEVER);
+		Arrays.fill(lastUpdate, 0);
+	}
+	/**
+	 * Put a single neuron back to its reset state
+	 * @param i
+	 */
+	public void reset(int i){
+		potential[i] = resetValue;
+		refractoryUntil[i] = -1;
+		lastSpike[i] = NEVER;
+		lastUpdate[i] = 0;
+	}
+	
+	/**
+	 * @return the number of neurons
+	 */
+	public int size() {
+		return size;
+	}
+	public double getPotential(int i){
+		return potential[i];
+	}
+	public void setPotential(int i, double value){
+		potential[i] = value;
+	}
+	public long getRefractoryUntil(int i){
+		return refractoryUntil[i];
+	}
+	/**
+	 * @param i
+	 * @return The last time the neuron fired, {@link #NEVER} if it has not 
+	 */
+	public int getLastSpike(int i){
+		return lastSpike[i];
+	}
+	/**
+	 * @return the threshold
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+	/**
+	 * @param threshold the threshold to set
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+	/**
+	 * @return the resetValue
+	 */
+	public double getResetValue() {
+		return resetValue;
+	}
+	/**
+	 * @param resetValue the resetValue to set
+	 */
+	public void setResetValue(double resetValue) {
+		this.resetValue = resetValue;
+	}
+	/**
+	 * @return the memoryCapacity
+	 */
+	public double getMemoryCapacity() {
+		return memoryCapacity;
+	}
+	/**
+	 * @param memoryCapacity the memoryCapacity to set
+	 */
+	public void setMemoryCapacity(double memoryCapacity) {
+		this.memoryCapacity = memoryCapacity;
+	}
+	/**
+	 * @return the refractoryPeriod
+	 */
+	public long getRefractoryPeriod() {
+		return refractoryPeriod;
+	}
+	/**
+	 * @param refractoryPeriod the refractoryPeriod to set
+	 */
+	public void setRefractoryPeriod(long refractoryPeriod) {
+		this.refractoryPeriod = refractoryPeriod;
+	}
+	/**
+	 * @return true if the potential decays with the time constant of the context
+	 */
+	public boolean isLeaky() {
+		return leaky;
+	}
+	/**
+	 * @param leaky true for leaky integrate and fire with the time constant of the context, false for integrate and fire
+	 */
+	public void setLeaky(boolean leaky) {
+		this.leaky = leaky;
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import edu.stevens.cpe.reservior.SpikeEvent;
+
+/**
+ * A neuron whose membrane state lives in a {@link NeuronPopulation}, keeping the publish subscribe API of
+ * {@link Neuron} for code that works with neuron objects. Behaves as an {@link IFSpikingNeuron}, 
+ * or as a {@link DiscreteLIFSpikingNeuron} when the population is leaky.
+ * @author wil
+ *
+ */
+public class PopulationNeuron extends Neuron {
+
+	private final NeuronPopulation population;
+	/**
+	 * Index of this neuron in the population
+	 */
+	private final int index;
+	
+	private final SpikeTrain spikeTrain = new SpikeTrain();
+	
+	/**
+	 * @param population
+	 * @param index Index in the population, also used as the ID
+	 */
+	public PopulationNeuron(NeuronPopulation population, Integer index){
+		this(population, index, index);
+	}
+	/**
+	 * @param population
+	 * @param index Index in the population
+	 * @param id
+	 */
+	public PopulationNeuron(NeuronPopulation population, int index, Integer id){
+		super(id, IFSpikingNeuron.ID_PREFIX + id);
+		this.population = population;
+		this.index = index;
+	}
+	
+	@Override public void updateMembranePotential(double current, long pulseWidth) {
+		long time = getLastEventdiscreteTimestamp();
+		if (integrate(current, pulseWidth, time)){
+			fire(newSpikeEvent(time + 1));
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public boolean integrate(double current, long pulseWidth, long time) {
+		setLastEventdiscreteTimestamp(time);
+		boolean fired = population.integrate(index, current, pulseWidth, time);
+		if (fired){
+			spikeTrain.add(time);
+		}
+		getStateProbe().record(time, population.getPotential(index));
+		return fired;
+	}
+	
+	@Override public double getMembranePotential() {
+		return population.getPotential(index);
+	}
+	@Override public void setMembranePotential(double membranePotential) {
+		population.setPotential(index, membranePotential);
+	}
+	@Override public double getCurrentMembranePotential(){
+		return population.getPotential(index);
+	}
+	
+	@Override public void reset() {
+		population.reset(index);
+		spikeTrain.clear();
+		getStateProbe().clear();
+	}
+
+	@Override public double[] getStateHistory() {
+		int maxTime = (int) getContext().getClock();
+		return getStateProbe().getHistory(maxTime);
+	}
+
+	@Override public double[] getFiringTimes() {
+		int maxTime = (int) getContext().getClock();
+		return spikeTrain.toArray(maxTime);
+	}
+	@Override public SpikeTrain getSpikeTrain() {
+		return spikeTrain;
+	}
+	
+	@Override public void run() {
+	}
+	
+	/**
+	 * @return the population holding the state of this neuron
+	 */
+	public NeuronPopulation getPopulation() {
+		return population;
+	}
+	/**
+	 * @return the index of this neuron in the population
+	 */
+	public int getIndex() {
+		return index;
+	}
+}
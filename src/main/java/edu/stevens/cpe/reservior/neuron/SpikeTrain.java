@@ -0,0 +1,243 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import java.util.Arrays;
+
+/**
+ * Spike history of a neuron as a bitset over discrete time, bit t of the words is set when the neuron fired at time t.
+ * A spike is recorded in O(1) and counts, windows and rasters are read a word (64 ticks) at a time, where a list 
+ * of boxed times had to be searched once per tick.
+ * @author wil
+ *
+ */
+public class SpikeTrain {
+
+	private static final int ADDRESS_BITS = 6;
+	private static final int WORD_SIZE = 1 << ADDRESS_BITS;
+	
+	private long [] words;
+	/**
+	 * Number of words which may have bits set, words after these are all 0
+	 */
+	private int wordsInUse = 0;
+	private int spikeCount = 0;
+	
+	public SpikeTrain(){
+		this(WORD_SIZE);
+	}
+	/**
+	 * @param expectedTime Number of ticks to allocate room for up front
+	 */
+	public SpikeTrain(long expectedTime){
+		this.words = new long [Math.max(1, wordIndex(Math.max(0, expectedTime - 1)) + 1)];
+	}
+	
+	private static int wordIndex(long time){
+		return (int)(time >> ADDRESS_BITS);
+	}
+	
+	/**
+	 * Record a spike, recording the same time twice has no effect
+	 * @param time
+	 */
+	public void add(long time){
+		if (time < 0){
+			throw new IllegalArgumentException("Spike time must not be negative: " + time);
+		}
+		int w = wordIndex(time);
+		if (w >= words.length){
+			words = Arrays.copyOf(words, Math.max(w + 1, words.length << 1));
+		}
+		long bit = 1L << time;
+		if ((words[w] & bit) == 0){
+			words[w] |= bit;
+			spikeCount++;
+		}
+		if (w >= wordsInUse){
+			wordsInUse = w + 1;
+		}
+	}
+	/**
+	 * @param time
+	 * @return true if there is a spike at the time
+	 */
+	public boolean contains(long time){
+		if (time < 0){
+			return false;
+		}
+		int w = wordIndex(time);
+		return w < wordsInUse && (words[w] & (1L << time)) != 0;
+	}
+	/**
+	 * @return the total number of spikes
+	 */
+	public int count(){
+		return spikeCount;
+	}
+	/**
+	 * @param from first time, inclusive
+	 * @param to last time, exclusive
+	 * @return the number of spikes in [from, to)
+	 */
+	public int count(long from, long to){
+		from = Math.max(0, from);
+		to = Math.min(to, (long)wordsInUse << ADDRESS_BITS);
+		if (from >= to){
+			return 0;
+		}
+		int first = wordIndex(from);
+		int last = wordIndex(to - 1);
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> -to;
+		if (first == last){
+			return Long.bitCount(words[first] & firstMask & lastMask);
+		}
+		int count = Long.bitCount(words[first] & firstMask);
+		for (int w=first+1; w<last; w++){
+			count += Long.bitCount(words[w]);
+		}
+		return count + Long.bitCount(words[last] & lastMask);
+	}
+	/**
+	 * @param from
+	 * @return the first spike time at or after from, -1 if there is none
+	 */
+	public long nextSpike(long from){
+		from = Math.max(0, from);
+		int w = wordIndex(from);
+		if (w >= wordsInUse){
+			return -1;
+		}
+		long word = words[w] & (-1L << from);
+		while (true){
+			if (word != 0){
+				return ((long)w << ADDRESS_BITS) + Long.numberOfTrailingZeros(word);
+			}
+			if (++w == wordsInUse){
+				return -1;
+			}
+			word = words[w];
+		}
+	}
+	/**
+	 * @return the time of the last spike, -1 if there is none
+	 */
+	public long lastSpike(){
+		for (int w=wordsInUse-1; w>=0; w--){
+			if (words[w] != 0){
+				return ((long)w << ADDRESS_BITS) + (WORD_SIZE - 1 - Long.numberOfLeadingZeros(words[w]));
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * The spikes in [from, to) packed so bit 0 of the first word is time from
+	 * @param from first time, inclusive
+	 * @param to last time, exclusive
+	 * @return ceil((to-from)/64) words
+	 */
+	public long [] window(long from, long to){
+		if (from < 0){
+			throw new IllegalArgumentException("Window must not start before time 0: " + from);
+		}
+		int length = (int)Math.max(0, to - from);
+		long [] window = new long [(length + WORD_SIZE - 1) >> ADDRESS_BITS];
+		int shift = (int)(from & (WORD_SIZE - 1));
+		int first = wordIndex(from);
+		for (int i=0; i<window.length; i++){
+			int w = first + i;
+			long low = (w < wordsInUse) ? words[w] >>> shift : 0;
+			long high = (shift != 0 && w + 1 < wordsInUse) ? words[w + 1] << (WORD_SIZE - shift) : 0;
+			window[i] = low | high;
+		}
+		//Clear the bits past the end of the window
+		if ((length & (WORD_SIZE - 1)) != 0){
+			window[window.length - 1] &= -1L >>> -length;
+		}
+		return window;
+	}
+	/**
+	 * Write a 1 at offset+t for every spike time t in [0, length). The other entries are not touched.
+	 * @param dest
+	 * @param offset
+	 * @param length
+	 */
+	public void copyTo(double [] dest, int offset, int length){
+		long t = nextSpike(0);
+		while (t >= 0 && t < length){
+			dest[offset + (int)t] = 1;
+			t = nextSpike(t + 1);
+		}
+	}
+	/**
+	 * @param length
+	 * @return 1 at each time in [0, length) with a spike, otherwise 0
+	 */
+	public double [] toArray(int length){
+		double [] spikes = new double [length];
+		copyTo(spikes, 0, length);
+		return spikes;
+	}
+	
+	/**
+	 * @return an independent train with the same spikes
+	 */
+	public SpikeTrain copy(){
+		SpikeTrain copy = new SpikeTrain();
+		copy.words = Arrays.copyOf(words, Math.max(1, wordsInUse));
+		copy.wordsInUse = wordsInUse;
+		copy.spikeCount = spikeCount;
+		return copy;
+	}
+	/**
+	 * Remove all spikes, keeping the storage
+	 */
+	public void clear(){
+		Arrays.fill(words, 0, wordsInUse, 0);
+		wordsInUse = 0;
+		spikeCount = 0;
+	}
+	
+	/**
+	 * Spike rasters of the neurons over [from, to), one row of packed words per neuron, see {@link #window(long, long)}
+	 * @param neurons
+	 * @param from first time, inclusive
+	 * @param to last time, exclusive
+	 * @return
+	 */
+	public static long [][] raster(Neuron [] neurons, long from, long to){
+		long [][] raster = new long [neurons.length][];
+		for (int i=0; i<neurons.length; i++){
+			raster[i] = neurons[i].getSpikeTrain().window(from, to);
+		}
+		return raster;
+	}
+	/**
+	 * @param neurons
+	 * @param from first time, inclusive
+	 * @param to last time, exclusive
+	 * @return the number of spikes of each neuron in [from, to)
+	 */
+	public static int [] counts(Neuron [] neurons, long from, long to){
+		int [] counts = new int [neurons.length];
+		for (int i=0; i<neurons.length; i++){
+			counts[i] = neurons[i].getSpikeTrain().count(from, to);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import java.util.Arrays;
+
+import edu.stevens.cpe.reservior.SimulationContext;
+
+/**
+ * Records the membrane potential of a neuron after its update at each discrete time, in primitive arrays. 
+ * What is kept depends on the mode:
+ * <ul>
+ * <li>OFF nothing, the history reads as no updates</li>
+ * <li>FULL every time since the last reset</li>
+ * <li>SAMPLED only times which are a multiple of the interval</li>
+ * <li>WINDOW the ticks up to the latest recorded time in a ring buffer of fixed size</li>
+ * </ul>
+ * A time which was not recorded reads as -1, the same as a time without an update. When a neuron is updated more 
+ * than once at the same time the last potential is kept.
+ * @author wil
+ *
+ */
+public class StateProbe {
+	
+	public enum Mode { OFF, FULL, SAMPLED, WINDOW }
+	
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private final Mode mode;
+	/**
+	 * Sampling interval or window size
+	 */
+	private final int parameter;
+	private double [] values;
+	/**
+	 * Time held in each slot of the window, -1 for none
+	 */
+	private long [] times;
+	/**
+	 * Slots which may hold a value, the ones after are all -1
+	 */
+	private int used = 0;
+	/**
+	 * Latest time recorded in the window
+	 */
+	private long lastTime = -1;
+	
+	/**
+	 * @param mode
+	 * @param parameter Ticks between samples for SAMPLED, ticks kept for WINDOW, ignored otherwise
+	 */
+	public StateProbe(Mode mode, int parameter){
+		if ((mode == Mode.SAMPLED || mode == Mode.WINDOW) && parameter < 1){
+			throw new IllegalArgumentException(mode + " needs a positive number of ticks, got " + parameter);
+		}
+		this.mode = mode;
+		this.parameter = parameter;
+		switch (mode){
+		case FULL:
+		case SAMPLED:
+			values = new double [INITIAL_CAPACITY];
+			Arrays.fill(values, -1);
+			break;
+		case WINDOW:
+			values = new double [parameter];
+			times = new long [parameter];
+			Arrays.fill(times, -1);
+			break;
+		default:
+			values = new double [0];
+		}
+	}
+	/**
+	 * A probe with the mode and parameter of the current {@link SimulationContext}
+	 */
+	public StateProbe(){
+		this(SimulationContext.current().getProbeMode(), SimulationContext.current().getProbeParameter());
+	}
+	
+	public static StateProbe off(){
+		return new StateProbe(Mode.OFF, 0);
+	}
+	public static StateProbe full(){
+		return new StateProbe(Mode.FULL, 0);
+	}
+	/**
+	 * @param interval Record times which are a multiple of the interval
+	 */
+	public static StateProbe sampled(int interval){
+		return new StateProbe(Mode.SAMPLED, interval);
+	}
+	/**
+	 * @param window Number of most recent ticks to keep
+	 */
+	public static StateProbe window(int window){
+		return new StateProbe(Mode.WINDOW, window);
+	}
+	
+	/**
+	 * @param time
+	 * @param potential The membrane potential after the update at the time
+	 */
+	public void record(long time, double potential){
+		switch (mode){
+		case FULL:
+			set(time, potential);
+			break;
+		case SAMPLED:
+			if (time % parameter == 0){
+				set(time / parameter, potential);
+			}
+			break;
+		case WINDOW:
+			int slot = (int)(time % parameter);
+			times[slot] = time;
+			values[slot] = potential;
+			lastTime = Math.max(lastTime, time);
+			break;
+		default:
+		}
+	}
+	private void set(long slot, double potential){
+		if (slot >= values.length){
+			int old = values.length;
+			values = Arrays.copyOf(values, (int)Math.max(slot + 1, (long)old << 1));
+			Arrays.fill(values, old, values.length, -1);
+		}
+		values[(int)slot] = potential;
+		if (slot >= used){
+			used = (int)slot + 1;
+		}
+	}
+	
+	/**
+	 * @param time
+	 * @return the potential recorded at the time, -1 if it was not recorded
+	 */
+	public double get(long time){
+		if (time < 0){
+			return -1;
+		}
+		switch (mode){
+		case FULL:
+			return (time < used) ? values[(int)time] : -1;
+		case SAMPLED:
+			return (time % parameter == 0 && time / parameter < used) ? values[(int)(time / parameter)] : -1;
+		case WINDOW:
+			int slot = (int)(time % parameter);
+			return (times[slot] == time && inWindow(time)) ? values[slot] : -1;
+		default:
+			return -1;
+		}
+	}
+	
+	/**
+	 * @param length
+	 * @return the potential at each time in [0, length), -1 where it was not recorded
+	 */
+	public double [] getHistory(int length){
+		double [] history = new double [length];
+		copyTo(history, 0, length);
+		return history;
+	}
+	/**
+	 * Write the potential at each time t in [0, length) to offset+t, -1 where it was not recorded
+	 * @param dest
+	 * @param offset
+	 * @param length
+	 */
+	public void copyTo(double [] dest, int offset, int length){
+		Arrays.fill(dest, offset, offset + length, -1);
+		switch (mode){
+		case FULL:
+			System.arraycopy(values, 0, dest, offset, Math.min(length, used));
+			break;
+		case SAMPLED:
+			for (int s=0; s<used && (long)s * parameter < length; s++){
+				dest[offset + s * parameter] = values[s];
+			}
+			break;
+		case WINDOW:
+			for (int s=0; s<parameter; s++){
+				if (times[s] >= 0 && times[s] < length && inWindow(times[s])){
+					dest[offset + (int)times[s]] = values[s];
+				}
+			}
+			break;
+		default:
+		}
+	}
+	
+	/**
+	 * Slots of ticks which were skipped still hold older times
+	 */
+	private boolean inWindow(long time){
+		return time > lastTime - parameter;
+	}
+	
+	/**
+	 * Forget everything recorded, keeping the storage
+	 */
+	public void clear(){
+		if (mode == Mode.WINDOW){
+			Arrays.fill(times, -1);
+			lastTime = -1;
+		} else {
+			Arrays.fill(values, 0, used, -1);
+		}
+		used = 0;
+	}
+	
+	/**
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+	/**
+	 * @return ticks between samples or in the window
+	 */
+	public int getParameter() {
+		return parameter;
+	}
+}
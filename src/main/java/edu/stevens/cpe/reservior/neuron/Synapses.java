@@ -0,0 +1,207 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.neuron;
+
+import java.util.Arrays;
+
+/**
+ * Primitive storage for the incoming synapses of a neuron, parallel arrays of source ID and weight 
+ * kept sorted by source ID so a weight is found with a binary search. About 12 bytes per synapse compared to
+ * a String key, boxed Double and map entry for each synapse in a HashMap.
+ * 
+ * The arrays are sorted whenever they can be read, so reading never changes them and a neuron can be read from several 
+ * threads. {@link #put(int, double)} inserts in place, which costs nothing when sources arrive in ascending order as 
+ * they do when a reservoir is wired from its connection matrix. Wiring from an unordered map appends with 
+ * {@link #append(int, double)} and sorts once with {@link #sort()} when done. When the same source is added 
+ * more than once the last weight wins.
+ * @author wil
+ *
+ */
+public class Synapses {
+
+	private int [] sources;
+	private double [] weights;
+	private int size;
+	/**
+	 * False between {@link #append(int, double)} of a source out of order and {@link #sort()}
+	 */
+	private boolean sorted = true;
+	
+	public Synapses(){
+		this(4);
+	}
+	/**
+	 * @param capacity initial number of synapses that can be held without growing
+	 */
+	public Synapses(int capacity){
+		sources = new int[Math.max(1, capacity)];
+		weights = new double[sources.length];
+	}
+	
+	/**
+	 * Add a synapse or update the weight of an existing one
+	 * @param source ID of the source, must not be negative
+	 * @param weight
+	 */
+	public void put(int source, double weight){
+		if (source < 0){
+			throw new IllegalArgumentException("Source ID must not be negative: " + source);
+		}
+		if (!sorted){
+			throw new IllegalStateException("Synapses appended out of order must be sorted first");
+		}
+		int index = size;
+		if (size > 0 && source <= sources[size-1]){
+			index = Arrays.binarySearch(sources, 0, size, source);
+			if (index >= 0){
+				weights[index] = weight;
+				return;
+			}
+			index = -index - 1;
+		}
+		grow();
+		System.arraycopy(sources, index, sources, index + 1, size - index);
+		System.arraycopy(weights, index, weights, index + 1, size - index);
+		sources[index] = source;
+		weights[index] = weight;
+		size++;
+	}
+	/**
+	 * Add a synapse without keeping the arrays sorted, {@link #sort()} must be called before anything is read
+	 * @param source ID of the source, must not be negative
+	 * @param weight
+	 */
+	void append(int source, double weight){
+		if (source < 0){
+			throw new IllegalArgumentException("Source ID must not be negative: " + source);
+		}
+		if (size > 0 && source <= sources[size-1]){
+			sorted = false;
+		}
+		grow();
+		sources[size] = source;
+		weights[size] = weight;
+		size++;
+	}
+	/**
+	 * Make room for one more synapse
+	 */
+	private void grow(){
+		if (size == sources.length){
+			int cap = sources.length << 1;
+			sources = Arrays.copyOf(sources, cap);
+			weights = Arrays.copyOf(weights, cap);
+		}
+	}
+	/**
+	 * @param source
+	 * @return The slot of the source, negative when there is no synapse from it
+	 */
+	public int indexOf(int source){
+		return Arrays.binarySearch(sources, 0, size, source);
+	}
+	/**
+	 * @param source
+	 * @return true if there is a synapse from source
+	 */
+	public boolean contains(int source){
+		return indexOf(source) >= 0;
+	}
+	/**
+	 * @param source
+	 * @param missing Returned when there is no synapse from source
+	 * @return
+	 */
+	public double getWeight(int source, double missing){
+		int index = indexOf(source);
+		return (index < 0) ? missing : weights[index];
+	}
+	/**
+	 * @param index slot between 0 and {@link #size()}
+	 * @return The source ID in the slot
+	 */
+	public int getSourceAt(int index){
+		return sources[index];
+	}
+	/**
+	 * @param index slot between 0 and {@link #size()}
+	 * @return The weight in the slot
+	 */
+	public double getWeightAt(int index){
+		return weights[index];
+	}
+	/**
+	 * @param index slot between 0 and {@link #size()}
+	 * @param weight
+	 */
+	public void setWeightAt(int index, double weight){
+		weights[index] = weight;
+	}
+	/**
+	 * @return Number of synapses
+	 */
+	public int size(){
+		return size;
+	}
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	public void clear(){
+		size = 0;
+		sorted = true;
+	}
+	/**
+	 * Release unused capacity once all synapses have been added
+	 */
+	public void trimToSize(){
+		if (size < sources.length){
+			sources = Arrays.copyOf(sources, Math.max(1, size));
+			weights = Arrays.copyOf(weights, sources.length);
+		}
+	}
+	
+	/**
+	 * Sort by source after {@link #append(int, double)}, keeping insertion order for equal sources so the last weight added wins
+	 */
+	void sort(){
+		if (sorted){
+			return;
+		}
+		long [] keys = new long[size];
+		for (int i=0; i<size; i++){
+			keys[i] = ((long)sources[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		int [] s = new int[sources.length];
+		double [] w = new double[weights.length];
+		int n = 0;
+		for (int i=0; i<size; i++){
+			int source = (int)(keys[i] >>> 32);
+			double weight = weights[(int)keys[i]];
+			if (n > 0 && s[n-1] == source){
+				w[n-1] = weight;
+			} else {
+				s[n] = source;
+				w[n] = weight;
+				n++;
+			}
+		}
+		sources = s;
+		weights = w;
+		size = n;
+		sorted = true;
+	}
+}
@@ -17,15 +17,21 @@ package edu.stevens.cpe.reservior.readout;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.optimization.GoalType;
-import org.apache.commons.math3.optimization.PointValuePair;
 import org.apache.commons.math3.optimization.direct.CMAESOptimizer;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.log4j.Logger;
@@ -34,9 +40,11 @@ import org.encog.ml.data.MLDataSet;
 
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.layers.LinearReadout;
 import edu.stevens.cpe.reservior.layers.ReadoutFunction;
 import edu.stevens.cpe.reservior.layers.SpikingOutput;
 import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.Neuron;
 
 public class CMAES {
 	public static Logger logger = Logger.getLogger(CMAES.class);
@@ -48,6 +56,23 @@ public class CMAES {
 	private double insigma = .1;
 	private int epoch = 0;
 	private ReadoutFunction readout;
+	/**
+	 * Number of copies of the reservoir evaluating the candidates of a generation at the same time. 
+	 * With 1 the candidates are evaluated one after the other on the reservoir itself.
+	 */
+	private int threads = 1;
+	/**
+	 * Seed of the random numbers the candidates are sampled from, the same seed and training set give the same search
+	 */
+	private long seed = System.nanoTime();
+	/**
+	 * Reservoir activity of each training record, reused by every candidate when the readout has no feedback
+	 */
+	private ReservoirStateCache stateCache;
+	/**
+	 * Set for a training run when the cache can stand in for the reservoir
+	 */
+	private boolean useCache = false;
 	
 	double minError = Double.POSITIVE_INFINITY; 
 	double [] bestWeights;
@@ -55,60 +80,82 @@ public class CMAES {
 		this.reservoir = reservoir;
 		this.trainingSet = trainingSet;
 		this.readout = readout;
+		this.stateCache = new ReservoirStateCache(reservoir, readout);
 	}
 	
-	private final MultivariateFunction fitnessFuntion = new MultivariateFunction(){
-
-		@Override
-		public double value(double[] weights) {
-			double error  = 0;
-			updateReadoutWeights(weights);
+	/**
+	 * Replay the training set through a reservoir with the readout weights set to the candidate
+	 * @param network
+	 * @param readout The readout connected to the network
+	 * @param weights
+	 * @return the error over the training set
+	 * @throws ReserviorException
+	 */
+	private double evaluate(ReservoirNetwork<?> network, ReadoutFunction readout, double[] weights) throws ReserviorException{
+		double error  = 0;
+		updateReadoutWeights(readout, weights);
+		if (useCache){
+			int record = 0;
 			for(MLDataPair pair: trainingSet ) {
-				try {
-					
-					reservoir.input(pair.getInput());
-					double [] output = readout.getOutput().getData();
-					double [] target = pair.getIdeal().getData();
-					//error += compareSpikeTrains(target, output);
-					error += ErrorUtility.computeLinearRegressionError(target, output);
-					//logger.info("error");
-				} catch (ReserviorException e) {
-					//Because we are in an implemented class kill this way for now.
-					logger.error(e);
-					System.exit(0);
-				}
-				//After each time the reservoir sees a training entry reset the reservoir
-				reservoir.getReservior().reset();
-				readout.reset();
-
-			}
-			//error *= error;
-			CMAES.this.epoch++;
-			//ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		//	PrintStream ps = new PrintStream(baos);
-		//	ps.printf("%2d \t %5.5f",epoch, error);
-		//	logger.info(baos.toString());
-			logger.info(epoch + "\t" + error + "\t*" + minError);
-			if (error < minError){
-				minError = error;
-				bestWeights = weights;
+				double [] output = readout.getOutput(stateCache.get(record++, pair.getInput())).getData();
+				error += ErrorUtility.computeLinearRegressionError(pair.getIdeal().getData(), output);
 			}
+			readout.reset();
 			return error;
 		}
-		
-	};
-
+		for(MLDataPair pair: trainingSet ) {
+			network.input(pair.getInput());
+			double [] output = readout.getOutput().getData();
+			double [] target = pair.getIdeal().getData();
+			//error += compareSpikeTrains(target, output);
+			error += ErrorUtility.computeLinearRegressionError(target, output);
+			
+			//After each time the reservoir sees a training entry reset the reservoir
+			network.getReservior().reset();
+			readout.reset();
+		}
+		return error;
+	}
+	/**
+	 * Count the evaluation and keep the best weights
+	 */
+	private void record(double [] weights, double error){
+		CMAES.this.epoch++;
+		logger.info(epoch + "\t" + error + "\t*" + minError);
+		if (error < minError){
+			minError = error;
+			bestWeights = weights;
+		}
+	}
+	
+	/**
+	 * A copy of the reservoir and its readout which evaluates one candidate at a time
+	 */
+	private static class Evaluator {
+		final ReservoirNetwork<?> network;
+		final ReadoutFunction readout;
+		Evaluator(ReservoirNetwork<?> network, ReadoutFunction readout){
+			this.network = network;
+			this.readout = readout;
+		}
+	}
 	
-		
 	public void updateReadoutWeights(double [] newWeights){
+		updateReadoutWeights(readout, newWeights);
+	}
+	private static void updateReadoutWeights(ReadoutFunction readout, double [] newWeights){
+		if (readout instanceof LinearReadout){
+			((LinearReadout)readout).setWeights(newWeights);
+			return;
+		}
 		//TODO remove neuron hardcoding type
 		int index = 0;
 		for (int i=0; i<((SpikingOutput)readout).getNeurons().length; i++){
-			HashMap<String, Double> weights = ((SpikingOutput)readout).getNeurons()[i].getWeights();
-			Iterator<String> it = weights.keySet().iterator();
+			Neuron node = ((SpikingOutput)readout).getNeurons()[i];
+			Iterator<String> it = node.getWeights().keySet().iterator();
 			while (it.hasNext()){
 				String id = it.next();
-				weights.put(id, newWeights[index]);
+				node.setWeight(id, newWeights[index]);
 				index++;
 			}
 		}
@@ -133,19 +180,165 @@ public class CMAES {
 		int maxEvals = CMAESOptimizer.DEFAULT_MAXITERATIONS;
 		double stopValue = .01;
 		boolean isActive = true; //Chooses the covariance matrix update method.
-		int diagonalOnly = 0;
-		int checkFeasable = 0;
-		final CMAESOptimizer optimizer = new CMAESOptimizer( lambda, sigma, CMAESOptimizer.DEFAULT_MAXITERATIONS,
-                stopValue, isActive, diagonalOnly,
-                checkFeasable,  new MersenneTwister(), false);
-		
 		
-		final PointValuePair result = optimizer.optimize(maxEvals, fitnessFuntion, GoalType.MINIMIZE, start, lower, upper);
-		logger.info(Arrays.toString(result.getPoint()));
-		logger.info("Best weights: " + Arrays.toString(bestWeights));
-
-		updateReadoutWeights(result.getPoint());
+		useCache = stateCache != null && !readout.hasFeedback();
+		if (useCache){
+			try {
+				stateCache.fill(trainingSet);
+			} catch (ReserviorException e) {
+				//Because we are in an implemented class kill this way for now.
+				logger.error(e);
+				System.exit(0);
+			}
+			logger.info("Readout has no feedback, candidates are evaluated on " + trainingSet.getRecordCount() + " cached reservoir states");
+		}
+		logger.info("Sampling candidates with seed " + seed);
+		CMAESStrategy strategy = new CMAESStrategy(lambda, start, sigma, lower, upper, CMAESOptimizer.DEFAULT_MAXITERATIONS, new MersenneTwister(seed));
+		strategy.setStopFitness(stopValue);
+		strategy.setActive(isActive);
+		double [] best = search(strategy, start, maxEvals);
+		logger.info("Best weights: " + Arrays.toString(best));
+		if (best != null){
+			updateReadoutWeights(best);
+		}
 		logger.info("done training.");
 		return bestWeights;
 	}
+	
+	/**
+	 * Run the strategy until it stops or maxEvals candidates were evaluated. With one thread the candidates are evaluated 
+	 * one after the other on the reservoir itself, otherwise on copies of the reservoir, one copy per thread. 
+	 * Errors are collected in the order the candidates were sampled, so the search only depends on the seed and not 
+	 * on the number of threads or their timing.
+	 * @return the best weights found
+	 */
+	private double [] search(CMAESStrategy strategy, double [] start, int maxEvals){
+		BlockingQueue<Evaluator> idle = new ArrayBlockingQueue<Evaluator>(threads);
+		List<Evaluator> evaluators = new ArrayList<Evaluator>();
+		ExecutorService executor = null;
+		try {
+			if (threads > 1){
+				executor = Executors.newFixedThreadPool(threads);
+				for (int i=0; i<threads; i++){
+					ReservoirNetwork<?> copy = reservoir.copy();
+					ReadoutFunction readoutCopy = (readout instanceof LinearReadout) ? ((LinearReadout)readout).copy(copy.getReservior()) 
+							: ((SpikingOutput<?>)readout).copy(copy.getReservior());
+					Evaluator evaluator = new Evaluator(copy, readoutCopy);
+					evaluators.add(evaluator);
+					idle.add(evaluator);
+				}
+			}
+			//Like CMAESOptimizer the start point is evaluated first
+			double startError = evaluate(reservoir, readout, start);
+			record(start, startError);
+			strategy.tellStart(startError);
+			int evaluations = 1;
+			
+			while (evaluations < maxEvals && !strategy.isStopped()){
+				double [][] candidates = strategy.ask();
+				double [] fitness = (executor == null) ? evaluate(candidates) : evaluate(candidates, executor, idle);
+				for (int k=0; k<candidates.length; k++){
+					record(candidates[k], fitness[k]);
+				}
+				strategy.tell(fitness);
+				evaluations += candidates.length;
+			}
+			if (strategy.isStopped()){
+				logger.info("Stopped after " + evaluations + " evaluations, " + strategy.getStopReason());
+			}
+			return strategy.getBestPoint();
+		} catch (ReserviorException e) {
+			//Because we are in an implemented class kill this way for now.
+			logger.error(e);
+			System.exit(0);
+		} catch (ExecutionException e) {
+			logger.error(e.getCause());
+			System.exit(0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (executor != null){
+				executor.shutdown();
+			}
+			for (int i=0; i<evaluators.size(); i++){
+				evaluators.get(i).network.shutdown();
+			}
+		}
+		return bestWeights;
+	}
+	/**
+	 * Evaluate a generation one candidate after the other on the reservoir
+	 * @return the error of each candidate
+	 */
+	private double [] evaluate(double [][] candidates) throws ReserviorException{
+		double [] fitness = new double [candidates.length];
+		for (int k=0; k<candidates.length; k++){
+			fitness[k] = evaluate(reservoir, readout, candidates[k]);
+		}
+		return fitness;
+	}
+	/**
+	 * Evaluate a generation on the idle copies of the reservoir
+	 * @return the error of each candidate in the order of the candidates
+	 */
+	private double [] evaluate(double [][] candidates, ExecutorService executor, final BlockingQueue<Evaluator> idle) throws InterruptedException, ExecutionException{
+		List<Future<Double>> errors = new ArrayList<Future<Double>>(candidates.length);
+		for (int k=0; k<candidates.length; k++){
+			final double [] weights = candidates[k];
+			errors.add(executor.submit(new Callable<Double>(){
+				@Override
+				public Double call() throws Exception {
+					Evaluator evaluator = idle.take();
+					try {
+						return evaluate(evaluator.network, evaluator.readout, weights);
+					} finally {
+						idle.put(evaluator);
+					}
+				}
+			}));
+		}
+		double [] fitness = new double [candidates.length];
+		for (int k=0; k<candidates.length; k++){
+			fitness[k] = errors.get(k).get();
+		}
+		return fitness;
+	}
+	
+	/**
+	 * @return the cache of reservoir states, null if disabled
+	 */
+	public ReservoirStateCache getStateCache() {
+		return stateCache;
+	}
+	/**
+	 * @param stateCache Cache of reservoir states shared with other training, null to always replay the reservoir
+	 */
+	public void setStateCache(ReservoirStateCache stateCache) {
+		this.stateCache = stateCache;
+	}
+	/**
+	 * @return the seed of the random numbers the candidates are sampled from
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	/**
+	 * @param seed Sample the candidates from this seed, a run with the same seed and training set gives the same weights
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	/**
+	 * @return the number of reservoir copies evaluating candidates at the same time
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	/**
+	 * @param threads Number of reservoir copies evaluating candidates at the same time, 1 evaluates serially 
+	 * on the reservoir passed to the constructor. Only the time taken depends on it, not the weights found.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
 }
@@ -0,0 +1,645 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.readout;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.math3.optimization.direct.CMAESOptimizer;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.Precision;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+
+/**
+ * Covariance matrix adaptation evolution strategy split into ask and tell steps, so the caller decides how a 
+ * generation is evaluated. {@link CMAESOptimizer} calls the fitness function one candidate at a time which rules 
+ * out evaluating the offspring of a generation in parallel.
+ * 
+ * Follows the algorithm of {@link CMAESOptimizer} with a full covariance matrix: bounded coordinates are scaled to 
+ * [0,1], candidates outside the bounds are repaired onto them and penalized by their distance times the fitness range 
+ * of the last generation, the distribution learns from the unrepaired samples, the covariance has the rank-one, 
+ * rank-mu and optionally the active (negative) update, and the search stops on the same criteria. The eigen
+ * decomposition is redone every generation.
+ * @author wil
+ *
+ */
+public class CMAESStrategy {
+	
+	private final int n;
+	private final int lambda;
+	private final int mu;
+	private final double [] recombinationWeights;
+	private final double mueff;
+	
+	private final double cc;
+	private final double cs;
+	private final double c1;
+	private final double cmu;
+	private final double damps;
+	/**
+	 * Expected length of a standard normal vector
+	 */
+	private final double chiN;
+	
+	/**
+	 * A coordinate x is searched as (x - offset) / range, which is [0,1] when both bounds are finite
+	 */
+	private final double [] offset;
+	private final double [] range;
+	/**
+	 * Bounds in search coordinates
+	 */
+	private final double [] lower;
+	private final double [] upper;
+	
+	/**
+	 * Mean in search coordinates
+	 */
+	private double [] mean;
+	private double sigma;
+	/**
+	 * Covariance, C = B*diag(D^2)*B'
+	 */
+	private final double [][] C;
+	private final double [][] B;
+	private final double [] D;
+	private final double [] pc;
+	private final double [] ps;
+	/**
+	 * Use the active covariance update, which also learns from the worst candidates
+	 */
+	private boolean active = true;
+	
+	private final RandomGenerator random;
+	/**
+	 * Standard normal samples of the last {@link #ask()}
+	 */
+	private double [][] arz;
+	/**
+	 * Unrepaired samples of the last {@link #ask()} in search coordinates
+	 */
+	private double [][] arx;
+	/**
+	 * Distance of each sample to its repaired point
+	 */
+	private double [] repairs;
+	/**
+	 * Candidates handed out by the last {@link #ask()}
+	 */
+	private double [][] candidates;
+	/**
+	 * Fitness difference between the worst and best candidate of the last generation, scales the repair penalty
+	 */
+	private double valueRange = 1;
+	
+	private int iterations = 0;
+	private double [] bestPoint;
+	private double bestValue = Double.POSITIVE_INFINITY;
+	
+	/**
+	 * Stop once a candidate is below this fitness, 0 to never stop on fitness
+	 */
+	private double stopFitness = 0;
+	private final double stopTolX;
+	private final double stopTolUpX;
+	private static final double STOP_TOL_FUN = 1e-12;
+	private static final double STOP_TOL_HIST_FUN = 1e-13;
+	/**
+	 * Relative and absolute change of the best fitness between generations below which the search has converged, 
+	 * the thresholds of the SimpleValueChecker {@link CMAESOptimizer} uses by default
+	 */
+	private static final double CONVERGED_RELATIVE = 100 * Precision.EPSILON;
+	private static final double CONVERGED_ABSOLUTE = 100 * Precision.SAFE_MIN;
+	/**
+	 * Best fitness of the previous generation, or the previous best point after an improvement. NaN before the first one
+	 */
+	private double lastBest = Double.NaN;
+	/**
+	 * Best fitness of the last generations, oldest first
+	 */
+	private final double [] fitnessHistory;
+	/**
+	 * Why the search stopped, null while it goes on
+	 */
+	private String stopReason;
+	
+	/**
+	 * 
+	 * @param lambda Number of candidates in a generation
+	 * @param start Initial mean
+	 * @param sigma Initial standard deviation of each coordinate
+	 * @param lower Lower bounds
+	 * @param upper Upper bounds
+	 * @param maxIterations Number of generations the search is expected to run for, slows the step size damping of short searches
+	 * @param random
+	 */
+	public CMAESStrategy(int lambda, double [] start, double [] sigma, double [] lower, double [] upper, int maxIterations, RandomGenerator random){
+		this.n = start.length;
+		this.lambda = lambda;
+		this.mu = lambda / 2;
+		this.random = random;
+		
+		this.offset = new double [n];
+		this.range = new double [n];
+		this.lower = new double [n];
+		this.upper = new double [n];
+		for (int i=0; i<n; i++){
+			boolean bounded = !Double.isInfinite(lower[i]) && !Double.isInfinite(upper[i]);
+			offset[i] = bounded ? lower[i] : 0;
+			range[i] = bounded ? upper[i] - lower[i] : 1;
+			this.lower[i] = encode(lower[i], i);
+			this.upper[i] = encode(upper[i], i);
+		}
+		
+		//Log weights for recombining the best mu candidates
+		this.recombinationWeights = new double [mu];
+		double sum = 0;
+		for (int i=0; i<mu; i++){
+			recombinationWeights[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+			sum += recombinationWeights[i];
+		}
+		double sumSq = 0;
+		for (int i=0; i<mu; i++){
+			recombinationWeights[i] /= sum;
+			sumSq += recombinationWeights[i] * recombinationWeights[i];
+		}
+		this.mueff = 1.0 / sumSq;
+		
+		this.cc = (4 + mueff/n) / (n + 4 + 2*mueff/n);
+		this.cs = (mueff + 2) / (n + mueff + 3);
+		this.c1 = 2 / ((n + 1.3)*(n + 1.3) + mueff);
+		this.cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1/mueff) / ((n + 2)*(n + 2) + mueff));
+		this.damps = (1 + 2*Math.max(0, Math.sqrt((mueff - 1)/(n + 1)) - 1)) * Math.max(0.3, 1 - n/(1e-6 + maxIterations)) + cs;
+		this.chiN = Math.sqrt(n) * (1 - 1.0/(4*n) + 1.0/(21*n*n));
+		
+		//The largest sigma becomes the step size, the ratios go into the covariance
+		this.mean = new double [n];
+		double [] scaled = new double [n];
+		this.sigma = 0;
+		for (int i=0; i<n; i++){
+			mean[i] = encode(start[i], i);
+			scaled[i] = sigma[i] / range[i];
+			this.sigma = Math.max(this.sigma, scaled[i]);
+		}
+		this.stopTolX = 1e-11 * this.sigma;
+		this.stopTolUpX = 1e3 * this.sigma;
+		this.B = new double [n][n];
+		this.D = new double [n];
+		this.C = new double [n][n];
+		for (int i=0; i<n; i++){
+			B[i][i] = 1;
+			D[i] = scaled[i] / this.sigma;
+			C[i][i] = D[i] * D[i];
+		}
+		this.pc = new double [n];
+		this.ps = new double [n];
+		this.fitnessHistory = new double [10 + (int)(30.0 * n / lambda)];
+		Arrays.fill(fitnessHistory, Double.MAX_VALUE);
+	}
+	/**
+	 * Expects as many generations as {@link CMAESOptimizer#DEFAULT_MAXITERATIONS}
+	 * @param lambda
+	 * @param start
+	 * @param sigma
+	 * @param lower
+	 * @param upper
+	 * @param random
+	 */
+	public CMAESStrategy(int lambda, double [] start, double [] sigma, double [] lower, double [] upper, RandomGenerator random){
+		this(lambda, start, sigma, lower, upper, CMAESOptimizer.DEFAULT_MAXITERATIONS, random);
+	}
+	/**
+	 * Bounds [0, Infinity) for every coordinate
+	 * @param lambda
+	 * @param start
+	 * @param sigma
+	 */
+	public CMAESStrategy(int lambda, double [] start, double [] sigma){
+		this(lambda, start, sigma, filled(start.length, 0), filled(start.length, Double.POSITIVE_INFINITY), new MersenneTwister());
+	}
+	
+	private static double [] filled(int length, double value){
+		double [] a = new double [length];
+		Arrays.fill(a, value);
+		return a;
+	}
+	private double encode(double x, int i){
+		return (x - offset[i]) / range[i];
+	}
+	private double decode(double x, int i){
+		return x * range[i] + offset[i];
+	}
+	
+	/**
+	 * Sample the next generation
+	 * @return lambda candidates, each within the bounds
+	 */
+	public double [][] ask(){
+		arz = new double [lambda][n];
+		arx = new double [lambda][n];
+		repairs = new double [lambda];
+		candidates = new double [lambda][n];
+		for (int k=0; k<lambda; k++){
+			for (int i=0; i<n; i++){
+				arz[k][i] = random.nextGaussian();
+			}
+			for (int i=0; i<n; i++){
+				double y = 0;
+				for (int j=0; j<n; j++){
+					y += B[i][j] * D[j] * arz[k][j];
+				}
+				double x = mean[i] + sigma * y;
+				double repaired = Math.min(upper[i], Math.max(lower[i], x));
+				arx[k][i] = x;
+				repairs[k] += Math.abs(x - repaired);
+				candidates[k][i] = decode(repaired, i);
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Fitness of the start point, optional. Like {@link CMAESOptimizer} it counts as the best point until a candidate is better.
+	 * @param fitness
+	 */
+	public void tellStart(double fitness){
+		if (fitness < bestValue){
+			bestValue = fitness;
+			bestPoint = new double [n];
+			for (int i=0; i<n; i++){
+				bestPoint[i] = decode(Math.min(upper[i], Math.max(lower[i], mean[i])), i);
+			}
+		}
+		push(fitness);
+	}
+	
+	/**
+	 * Update the distribution from the fitness of the candidates returned by the last {@link #ask()}
+	 * @param fitness fitness of each candidate in the order they were asked for, lower is better
+	 */
+	public void tell(double [] fitness){
+		if (candidates == null || fitness.length != lambda){
+			throw new IllegalStateException("Fitness must be given for the " + lambda + " candidates of the last ask()");
+		}
+		//Candidates moved onto the bounds are worse the further they were moved
+		final double [] penalized = new double [lambda];
+		for (int k=0; k<lambda; k++){
+			penalized[k] = fitness[k] + repairs[k] * valueRange;
+		}
+		Integer [] order = new Integer [lambda];
+		for (int k=0; k<lambda; k++){
+			order[k] = k;
+		}
+		//Stable, so ties keep the order the candidates were asked in
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(penalized[a], penalized[b]);
+			}
+		});
+		iterations++;
+		
+		double [] oldMean = mean;
+		mean = new double [n];
+		double [] zmean = new double [n];
+		for (int r=0; r<mu; r++){
+			double [] x = arx[order[r]];
+			double [] z = arz[order[r]];
+			for (int i=0; i<n; i++){
+				mean[i] += recombinationWeights[r] * x[i];
+				zmean[i] += recombinationWeights[r] * z[i];
+			}
+		}
+		
+		//Evolution paths
+		double csFactor = Math.sqrt(cs * (2 - cs) * mueff);
+		double psNorm = 0;
+		for (int i=0; i<n; i++){
+			double bz = 0;
+			for (int j=0; j<n; j++){
+				bz += B[i][j] * zmean[j];
+			}
+			ps[i] = (1 - cs) * ps[i] + csFactor * bz;
+			psNorm += ps[i] * ps[i];
+		}
+		psNorm = Math.sqrt(psNorm);
+		boolean hsig = psNorm / Math.sqrt(1 - Math.pow(1 - cs, 2 * iterations)) / chiN < 1.4 + 2.0/(n + 1);
+		double ccFactor = Math.sqrt(cc * (2 - cc) * mueff) / sigma;
+		for (int i=0; i<n; i++){
+			pc[i] = (1 - cc) * pc[i] + (hsig ? ccFactor * (mean[i] - oldMean[i]) : 0);
+		}
+		
+		updateCovariance(hsig, order, oldMean);
+		sigma *= Math.exp(Math.min(1, (psNorm / chiN - 1) * cs / damps));
+		
+		double bestFitness = penalized[order[0]];
+		double worstFitness = penalized[order[lambda - 1]];
+		if (bestFitness < bestValue){
+			if (bestPoint != null){
+				lastBest = bestValue;
+			}
+			bestValue = bestFitness;
+			bestPoint = candidates[order[0]].clone();
+		}
+		checkStop(bestFitness, worstFitness);
+		lastBest = bestFitness;
+		
+		//Flat fitness, widen the search
+		double historyBest = min(fitnessHistory);
+		double historyWorst = max(fitnessHistory);
+		if (bestValue == penalized[order[(int)(0.1 + lambda / 4.0)]]){
+			sigma *= Math.exp(0.2 + cs / damps);
+		}
+		if (iterations > 2 && Math.max(historyWorst, bestFitness) - Math.min(historyBest, bestFitness) == 0){
+			sigma *= Math.exp(0.2 + cs / damps);
+		}
+		push(bestFitness);
+		valueRange = worstFitness - bestFitness;
+		candidates = null;
+	}
+	
+	/**
+	 * Rank-one and rank-mu update, and with {@link #isActive()} the negative update from the worst mu candidates
+	 */
+	private void updateCovariance(boolean hsig, Integer [] order, double [] oldMean){
+		double oldFactor = 1 - c1 - cmu + (hsig ? 0 : c1 * cc * (2 - cc));
+		double [][] y = new double [mu][n];
+		for (int r=0; r<mu; r++){
+			double [] x = arx[order[r]];
+			for (int i=0; i<n; i++){
+				y[r][i] = (x[i] - oldMean[i]) / sigma;
+			}
+		}
+		double negccov = 0;
+		double [][] yneg = null;
+		if (active){
+			negccov = (1 - cmu) * 0.25 * mueff / (Math.pow(n + 2, 1.5) + 2 * mueff);
+			//Worst first, each rescaled to the length of its mirror in the order of lengths
+			double [][] zneg = new double [mu][];
+			double [] norms = new double [mu];
+			for (int r=0; r<mu; r++){
+				zneg[r] = arz[order[lambda - 1 - r]];
+				norms[r] = norm(zneg[r]);
+			}
+			Integer [] byNorm = new Integer [mu];
+			for (int r=0; r<mu; r++){
+				byNorm[r] = r;
+			}
+			final double [] sortNorms = norms;
+			Arrays.sort(byNorm, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(sortNorms[a], sortNorms[b]);
+				}
+			});
+			double [] scale = new double [mu];
+			double weighted = 0;
+			for (int p=0; p<mu; p++){
+				int r = byNorm[p];
+				scale[r] = norms[byNorm[mu - 1 - p]] / norms[r];
+			}
+			for (int r=0; r<mu; r++){
+				weighted += scale[r] * scale[r] * recombinationWeights[r];
+			}
+			//Keep at least 0.66 of the variance in every direction
+			negccov = Math.min(negccov, (1 - 0.66) / weighted);
+			yneg = new double [mu][n];
+			for (int r=0; r<mu; r++){
+				for (int i=0; i<n; i++){
+					double v = 0;
+					for (int j=0; j<n; j++){
+						v += B[i][j] * D[j] * zneg[r][j];
+					}
+					yneg[r][i] = v * scale[r];
+				}
+			}
+			oldFactor += 0.5 * negccov;
+		}
+		double rankMuFactor = cmu + 0.5 * negccov;
+		for (int i=0; i<n; i++){
+			for (int j=0; j<=i; j++){
+				double rankMu = 0;
+				double rankNeg = 0;
+				for (int r=0; r<mu; r++){
+					rankMu += recombinationWeights[r] * y[r][i] * y[r][j];
+					if (yneg != null){
+						rankNeg += recombinationWeights[r] * yneg[r][i] * yneg[r][j];
+					}
+				}
+				double c = oldFactor * C[i][j] + c1 * pc[i] * pc[j] + rankMuFactor * rankMu - negccov * rankNeg;
+				C[i][j] = c;
+				C[j][i] = c;
+			}
+		}
+		decompose();
+	}
+	
+	private void decompose(){
+		EigenvalueDecomposition eig = new EigenvalueDecomposition(new DenseDoubleMatrix2D(C));
+		DoubleMatrix2D V = eig.getV();
+		DoubleMatrix1D values = eig.getRealEigenvalues();
+		double [] eigen = new double [n];
+		for (int j=0; j<n; j++){
+			eigen[j] = values.get(j);
+			for (int i=0; i<n; i++){
+				B[i][j] = V.getQuick(i, j);
+			}
+		}
+		//Keep the covariance positive definite with a condition below 1e14
+		if (min(eigen) <= 0){
+			for (int j=0; j<n; j++){
+				eigen[j] = Math.max(eigen[j], 0);
+			}
+			addToDiagonal(eigen, max(eigen) / 1e14);
+		}
+		if (max(eigen) > 1e14 * min(eigen)){
+			addToDiagonal(eigen, max(eigen) / 1e14 - min(eigen));
+		}
+		for (int j=0; j<n; j++){
+			D[j] = Math.sqrt(eigen[j]);
+		}
+	}
+	private void addToDiagonal(double [] eigen, double value){
+		for (int i=0; i<n; i++){
+			C[i][i] += value;
+			eigen[i] += value;
+		}
+	}
+	
+	/**
+	 * The stopping criteria of {@link CMAESOptimizer}
+	 */
+	private void checkStop(double bestFitness, double worstFitness){
+		if (!Double.isNaN(lastBest) && converged(bestFitness, lastBest)){
+			stopReason = "best fitness changed less than " + CONVERGED_RELATIVE + " relative";
+			return;
+		}
+		if (stopFitness != 0 && bestFitness < stopFitness){
+			stopReason = "fitness below " + stopFitness;
+			return;
+		}
+		boolean small = true;
+		for (int i=0; i<n; i++){
+			double sd = sigma * Math.sqrt(C[i][i]);
+			if (sigma * Math.max(Math.abs(pc[i]), Math.sqrt(C[i][i])) > stopTolX){
+				small = false;
+			}
+			if (sd > stopTolUpX){
+				stopReason = "standard deviation grew above " + stopTolUpX;
+				return;
+			}
+		}
+		if (small){
+			stopReason = "standard deviation below " + stopTolX;
+			return;
+		}
+		double historyBest = min(fitnessHistory);
+		double historyWorst = max(fitnessHistory);
+		if (iterations > 2 && Math.max(historyWorst, worstFitness) - Math.min(historyBest, bestFitness) < STOP_TOL_FUN){
+			stopReason = "fitness range below " + STOP_TOL_FUN;
+			return;
+		}
+		if (iterations > fitnessHistory.length && historyWorst - historyBest < STOP_TOL_HIST_FUN){
+			stopReason = "fitness history range below " + STOP_TOL_HIST_FUN;
+			return;
+		}
+		if (max(D) / min(D) > 1e7){
+			stopReason = "covariance condition above 1e14";
+		}
+	}
+	
+	private static boolean converged(double current, double previous){
+		double difference = Math.abs(current - previous);
+		return difference <= Math.max(Math.abs(current), Math.abs(previous)) * CONVERGED_RELATIVE || difference <= CONVERGED_ABSOLUTE;
+	}
+	private void push(double value){
+		System.arraycopy(fitnessHistory, 0, fitnessHistory, 1, fitnessHistory.length - 1);
+		fitnessHistory[0] = value;
+	}
+	private static double norm(double [] v){
+		double sum = 0;
+		for (int i=0; i<v.length; i++){
+			sum += v[i] * v[i];
+		}
+		return Math.sqrt(sum);
+	}
+	private static double min(double [] v){
+		double min = Double.MAX_VALUE;
+		for (int i=0; i<v.length; i++){
+			min = Math.min(min, v[i]);
+		}
+		return min;
+	}
+	private static double max(double [] v){
+		double max = -Double.MAX_VALUE;
+		for (int i=0; i<v.length; i++){
+			max = Math.max(max, v[i]);
+		}
+		return max;
+	}
+	
+	/**
+	 * @return true once a stopping criterion of {@link CMAESOptimizer} is met, the caller should stop asking
+	 */
+	public boolean isStopped() {
+		return stopReason != null;
+	}
+	/**
+	 * @return why the search stopped, null while it goes on
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+	/**
+	 * @return the fitness a candidate must be below to stop, 0 when the search does not stop on fitness
+	 */
+	public double getStopFitness() {
+		return stopFitness;
+	}
+	/**
+	 * @param stopFitness Stop once a candidate is below this fitness, 0 to never stop on fitness
+	 */
+	public void setStopFitness(double stopFitness) {
+		this.stopFitness = stopFitness;
+	}
+	/**
+	 * @return true when the covariance also learns from the worst candidates
+	 */
+	public boolean isActive() {
+		return active;
+	}
+	/**
+	 * @param active Use the active covariance update, as {@link CMAESOptimizer} does when isActiveCMA is set
+	 */
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+	/**
+	 * @return the number of candidates in a generation
+	 */
+	public int getLambda() {
+		return lambda;
+	}
+	/**
+	 * @return the number of generations told so far
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+	/**
+	 * @return the current step size, relative to the range of the bounded coordinates
+	 */
+	public double getSigma() {
+		return sigma;
+	}
+	/**
+	 * @return the mean of the distribution
+	 */
+	public double [] getMean() {
+		double [] m = new double [n];
+		for (int i=0; i<n; i++){
+			m[i] = decode(mean[i], i);
+		}
+		return m;
+	}
+	/**
+	 * @return the best candidate told so far, null before the first {@link #tell(double[])}
+	 */
+	public double [] getBestPoint() {
+		return bestPoint;
+	}
+	/**
+	 * @return the fitness of the best candidate including its repair penalty
+	 */
+	public double getBestValue() {
+		return bestValue;
+	}
+	/**
+	 * @return the largest standard deviation of a coordinate
+	 */
+	public double getMaxStandardDeviation() {
+		double max = 0;
+		for (int i=0; i<n; i++){
+			max = Math.max(max, sigma * Math.sqrt(C[i][i]) * range[i]);
+		}
+		return max;
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.readout;
+
+import java.util.Arrays;
+
+import edu.stevens.cpe.reservior.ReservoirState;
+import edu.stevens.cpe.reservior.layers.LinearReadout;
+
+/**
+ * Online training of a {@link LinearReadout} by recursive least squares. Each sample updates the weights 
+ * in O(N^2) from the inverse correlation matrix P, so nothing but P and the weights is kept and the readout 
+ * can be trained one sample or tick at a time while the reservoir runs.
+ * 
+ * P starts as I/delta. With a forgetting factor of 1 the weights after n samples are the ridge regression 
+ * of those samples with alpha = delta, a forgetting factor below 1 weights recent samples more so the 
+ * readout follows a drifting signal.
+ * @author wil
+ *
+ */
+public class RecursiveLeastSquares {
+	
+	public static double DEFAULT_FORGETTING_FACTOR = 1.0;
+	public static double DEFAULT_DELTA = 1e-2;
+	
+	private final LinearReadout readout;
+	private final int features;
+	private final double forgettingFactor;
+	private final double delta;
+	/**
+	 * Inverse correlation matrix, N x N row major, symmetric
+	 */
+	private final double [] P;
+	private final double [] x;
+	private final double [] Px;
+	private final double [] error;
+	private long samples = 0;
+	
+	public RecursiveLeastSquares(LinearReadout readout){
+		this(readout, DEFAULT_FORGETTING_FACTOR, DEFAULT_DELTA);
+	}
+	/**
+	 * 
+	 * @param readout Readout whose weights are trained, they are updated in place
+	 * @param forgettingFactor Between 0 and 1, 1 never forgets
+	 * @param delta Initial regularization, P starts as I/delta
+	 */
+	public RecursiveLeastSquares(LinearReadout readout, double forgettingFactor, double delta){
+		if (forgettingFactor <= 0 || forgettingFactor > 1){
+			throw new IllegalArgumentException("Forgetting factor must be in (0, 1]: " + forgettingFactor);
+		}
+		if (delta <= 0){
+			throw new IllegalArgumentException("Delta must be positive: " + delta);
+		}
+		this.readout = readout;
+		this.features = readout.getNumberFeatures();
+		this.forgettingFactor = forgettingFactor;
+		this.delta = delta;
+		this.P = new double [features * features];
+		this.x = new double [features];
+		this.Px = new double [features];
+		this.error = new double [readout.getNumberOutputs()];
+		reset();
+	}
+	
+	/**
+	 * Train on the reservoir as it is now, call once per tick or per input
+	 * @param target Desired output, length L
+	 * @return the error of the output before the update
+	 */
+	public double [] train(double [] target){
+		return update(readout.getFeatures(x), target);
+	}
+	/**
+	 * Train on recorded reservoir activity
+	 * @param state
+	 * @param target Desired output, length L
+	 * @return the error of the output before the update
+	 */
+	public double [] train(ReservoirState state, double [] target){
+		return update(readout.getFeatures(state, x), target);
+	}
+	
+	/**
+	 * One RLS step
+	 * @param features length N
+	 * @param target length L
+	 * @return the error of the output before the update, length L. Reused by the next update
+	 */
+	public double [] update(double [] features, double [] target){
+		final int n = this.features;
+		final int L = error.length;
+		if (features.length != n || target.length != L){
+			throw new IllegalArgumentException("Expected a sample of " + n + " features and " + L + " outputs");
+		}
+		double [] W = readout.getWeights();
+		
+		//Px, P is symmetric so add rows of P for the non zero features
+		Arrays.fill(Px, 0);
+		for (int j=0; j<n; j++){
+			double xj = features[j];
+			if (xj == 0){
+				continue;
+			}
+			int row = j * n;
+			for (int i=0; i<n; i++){
+				Px[i] += P[row + i] * xj;
+			}
+		}
+		double denominator = forgettingFactor;
+		for (int i=0; i<n; i++){
+			denominator += features[i] * Px[i];
+		}
+		
+		//A priori error and weight update along the gain k = Px / denominator
+		for (int l=0; l<L; l++){
+			int row = l * n;
+			double y = 0;
+			for (int i=0; i<n; i++){
+				y += W[row + i] * features[i];
+			}
+			error[l] = target[l] - y;
+			double step = error[l] / denominator;
+			for (int i=0; i<n; i++){
+				W[row + i] += Px[i] * step;
+			}
+		}
+		
+		//P = (P - Px Px' / denominator) / forgettingFactor
+		double scale = 1 / forgettingFactor;
+		for (int i=0; i<n; i++){
+			double ki = Px[i] / denominator;
+			int row = i * n;
+			for (int j=0; j<n; j++){
+				P[row + j] = (P[row + j] - ki * Px[j]) * scale;
+			}
+		}
+		samples++;
+		return error;
+	}
+	
+	/**
+	 * Forget all samples, P goes back to I/delta. The weights are left as they are
+	 */
+	public void reset(){
+		Arrays.fill(P, 0);
+		for (int i=0; i<features; i++){
+			P[i * features + i] = 1 / delta;
+		}
+		samples = 0;
+	}
+	
+	/**
+	 * @return number of samples trained on since the last reset
+	 */
+	public long getSampleCount() {
+		return samples;
+	}
+	public double getForgettingFactor() {
+		return forgettingFactor;
+	}
+	public double getDelta() {
+		return delta;
+	}
+	public LinearReadout getReadout() {
+		return readout;
+	}
+}
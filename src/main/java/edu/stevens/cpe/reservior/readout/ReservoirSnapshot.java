@@ -18,6 +18,7 @@ package edu.stevens.cpe.reservior.readout;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.optimization.GoalType;
@@ -31,19 +32,19 @@ import org.encog.util.arrayutil.NormalizationAction;
 import org.encog.util.arrayutil.NormalizedField;
 
 import cern.colt.function.IntIntDoubleFunction;
-import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import cern.colt.matrix.linalg.Algebra;
-import cern.jet.math.Functions;
 
-import edu.stevens.cpe.math.MLMatrixUtils;
+import edu.stevens.cpe.math.CholeskyRidge;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.ReservoirState;
 import edu.stevens.cpe.reservior.SpikeEvent;
+import edu.stevens.cpe.reservior.StateCollector;
 import edu.stevens.cpe.reservior.layers.SpikingOutput;
 import edu.stevens.cpe.reservior.neuron.IFSpikingNeuron;
+import edu.stevens.cpe.reservior.neuron.Neuron;
 
 public class ReservoirSnapshot {
 	public static Logger logger = Logger.getLogger(ReservoirSnapshot.class);
@@ -51,6 +52,10 @@ public class ReservoirSnapshot {
 	private ReservoirNetwork net;
 	private MLDataSet dataset;
 	private double alpha;
+	/**
+	 * Recorded reservoir states, null to simulate every record on each update
+	 */
+	private ReservoirStateCache stateCache;
 	
 	public DoubleMatrix2D N_STATES;
 	public DoubleMatrix2D Y;
@@ -60,9 +65,20 @@ public class ReservoirSnapshot {
 
 	
 	public ReservoirSnapshot(ReservoirNetwork reservoir, MLDataSet trainingSet,double alpha){
+		this(reservoir, trainingSet, alpha, null);
+	}
+	/**
+	 * 
+	 * @param reservoir
+	 * @param trainingSet
+	 * @param alpha
+	 * @param stateCache States of the reservoir to reuse, for example the one of {@link CMAES#getStateCache()}. May be null
+	 */
+	public ReservoirSnapshot(ReservoirNetwork<?> reservoir, MLDataSet trainingSet,double alpha, ReservoirStateCache stateCache){
 		this.net = reservoir;
 		this.dataset = trainingSet;
 		this.alpha = alpha;
+		this.stateCache = stateCache;
 				
 		this.N_STATES = accumVoltages();
 		logger.info("STATES: " + N_STATES);
@@ -78,23 +94,14 @@ public class ReservoirSnapshot {
 	}
 	
 	
+	/**
+	 * @return (L x N) readout weights, one row per output
+	 */
 	public DoubleMatrix2D ridge(){
 	//	DoubleMatrix2D H = accumVoltages();
 	//	DoubleMatrix2D Y = target();
 		
-		DoubleFactory2D factory = DoubleFactory2D.dense;
-		DoubleMatrix2D scaledIdentity = factory.identity((int)dataset.getRecordCount()).assign(Functions.mult(alpha));
-		
-		
-		Algebra alg = new Algebra();
-		
-		DoubleMatrix2D inverse = alg.inverse(N_STATES.zMult(N_STATES.viewDice(), null).assign(scaledIdentity, Functions.plus));
-		
-		DoubleMatrix2D X = N_STATES.viewDice().zMult(inverse, null);
-		
-		DoubleMatrix2D weights = Y.viewDice().zMult(X.viewDice(), null);
-				
-		return weights;		
+		return CholeskyRidge.solve(N_STATES, Y, alpha).viewDice().copy();
 	}
 	
 	
@@ -135,88 +142,63 @@ public class ReservoirSnapshot {
 	 * @return
 	 */
 	private DoubleMatrix2D target(){
-		DoubleFactory2D factory = DoubleFactory2D.dense;
-		DoubleMatrix2D allTargets  = null;
+		StateCollector allTargets = new StateCollector(dataset.getIdealSize(), (int)dataset.getRecordCount());
 		for(MLDataPair pair: dataset ) {
-			DoubleMatrix2D record = new DenseDoubleMatrix2D(new double [][] {pair.getIdealArray()});
-			if (allTargets == null){
-				allTargets = new DenseDoubleMatrix2D(record.toArray());
-			} else {
-				allTargets = factory.appendRows(allTargets, record);
-			}
+			allTargets.addRow(pair.getIdealArray());
 		}
 		
 		//denormalize all records 
 		//allTargets.forEachNonZero(forEachNonZeroDenormalize);
 		
-		return allTargets;
+		return allTargets.getMatrix();
 	}
 	/**
 	 * Create matrix taking internal snapshots at each training period
 	 * @return
 	 */
 	private DoubleMatrix2D accumVoltages(){
-		DoubleFactory2D factory = DoubleFactory2D.dense;
-		DoubleMatrix2D allSpikes = null;
-		//DoubleMatrix2D allSpikes 
-		for(MLDataPair pair: dataset ) {
+		int N = net.getReservior().getNeuronCount();
+		//One row per training record, the voltage each neuron supplied
+		StateCollector trainingStates = new StateCollector(N, (int)dataset.getRecordCount());
+		if (stateCache != null){
 			try {
-					
-				net.input(pair.getInput());
-				
-				DoubleMatrix2D A= getSpikeTimesForAllNeurons();
-				if (allSpikes == null){
-					allSpikes = new DenseDoubleMatrix2D(A.toArray());
-				} else {
-					allSpikes = factory.appendRows(allSpikes, A);
+				List<ReservoirState> states = stateCache.fill(dataset);
+				for (int r=0; r<states.size(); r++){
+					double [] counts = states.get(r).getSpikeCounts();
+					for (int i=0; i<N; i++){
+						counts[i] *= V_SPIKE;
+					}
+					trainingStates.addRow(counts);
 				}
 			} catch (ReserviorException e) {
 				//Because we are in an implemented class kill this way for now.
 				System.exit(0);
 			}
-			//After each time the reservoir sees a training entry reset the reservoir
-			net.getReservior().reset();
+		} else {
+			for(MLDataPair pair: dataset ) {
+				try {
+					
+					net.input(pair.getInput());
+				
+					Neuron [] neurons = net.getReservior().getNeurons();
+					long clock = net.getContext().getClock();
+					int row = trainingStates.addRow();
+					for (int i=0; i<N; i++){
+						trainingStates.set(row, i, neurons[i].getSpikeTrain().count(0, clock) * V_SPIKE);
+					}
+				} catch (ReserviorException e) {
+					//Because we are in an implemented class kill this way for now.
+					System.exit(0);
+				}
+				//After each time the reservoir sees a training entry reset the reservoir
+				net.getReservior().reset();
 
-		}
-		DoubleMatrix2D sums = allSpikes.zMult(factory.make(allSpikes.columns(), 1).assign(1), null);
-		
-		
-		sums.assign(Functions.mult(V_SPIKE));
-		
-		int N = net.getReservior().getNeuronCount();
-		DoubleMatrix2D trainingStates = null;
-		int [] rows = new int [N];
-		
-		for (int i=0; i<sums.rows(); i+=N){
-			int rowIndex = 0;
-			for (int j=i; j<i+N; j++, rowIndex++){
-				rows[rowIndex] = j;
-			}
-			DoubleMatrix2D neurons = sums.viewSelection(rows, null).viewDice();
-			if (trainingStates==null){
-				trainingStates = new DenseDoubleMatrix2D(neurons.toArray());
-			} else {
-				trainingStates =	factory.appendRows(trainingStates, neurons);
 			}
 		}
 		
-		trainingStates.forEachNonZero(forEachNonZeroNormalize);
-		return trainingStates;
-	}
-	/**
-	 * At the current reservoir state get all of the spike times
-	 * @return
-	 */
-	private DoubleMatrix2D getSpikeTimesForAllNeurons(){
-		DoubleFactory2D factory = DoubleFactory2D.dense;
-		IFSpikingNeuron n1 = (IFSpikingNeuron)net.getReservior().getNeurons()[0];
-		DoubleMatrix2D allSpikes = MLMatrixUtils.convertArrayTo2DMatrix( n1.getFiringTimes());
-		
-		for (int i=1; i<net.getReservior().getNeurons().length; i++){
-			IFSpikingNeuron n = (IFSpikingNeuron)net.getReservior().getNeurons()[i];
-			allSpikes = factory.appendRows(allSpikes, MLMatrixUtils.convertArrayTo2DMatrix(n.getFiringTimes()));
-		}
-		return allSpikes;
+		DoubleMatrix2D states = trainingStates.getMatrix();
+		states.forEachNonZero(forEachNonZeroNormalize);
+		return states;
 	}
 	
 
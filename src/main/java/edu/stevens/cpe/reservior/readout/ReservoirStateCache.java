@@ -0,0 +1,265 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package edu.stevens.cpe.reservior.readout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.MLDataPair;
+import org.encog.ml.data.MLDataSet;
+
+import edu.stevens.cpe.reservior.ClockDrivenEngine;
+import edu.stevens.cpe.reservior.ReserviorException;
+import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.ReservoirState;
+import edu.stevens.cpe.reservior.SimulationContext;
+import edu.stevens.cpe.reservior.SpikeListener;
+import edu.stevens.cpe.reservior.layers.ReadoutFunction;
+import edu.stevens.cpe.reservior.neuron.Neuron;
+import edu.stevens.cpe.reservior.neuron.Synapses;
+
+/**
+ * The reservoir activity of each training record, so readout training simulates the reservoir once 
+ * per record instead of once per record for every candidate weight. 
+ * 
+ * States are keyed by the position of the record in the dataset and checked against the record's input. 
+ * The whole cache is dropped by {@link #validate()} when the configuration of the reservoir changed: 
+ * its neuron parameters or any recurrent, input or feedback weight. 
+ * While the readout feeds back into the reservoir nothing is cached and every record is simulated, 
+ * see {@link ReadoutFunction#hasFeedback()}.
+ * @author wil
+ *
+ */
+public class ReservoirStateCache {
+	public static Logger logger = Logger.getLogger(ReservoirStateCache.class);
+
+	private final ReservoirNetwork<?> network;
+	/**
+	 * Readout connected to the network, may be null
+	 */
+	private final ReadoutFunction readout;
+	private final List<ReservoirState> states = new ArrayList<ReservoirState>();
+	private final List<double []> inputs = new ArrayList<double []>();
+	/**
+	 * Fingerprint of the reservoir the states were recorded with
+	 */
+	private long configuration;
+	private int hits = 0;
+	private int misses = 0;
+	
+	/**
+	 * @param network The reservoir states are recorded from, without a readout
+	 */
+	public ReservoirStateCache(ReservoirNetwork<?> network){
+		this(network, null);
+	}
+	/**
+	 * @param network The reservoir states are recorded from
+	 * @param readout The readout connected to the network, states are only kept while it has no feedback
+	 */
+	public ReservoirStateCache(ReservoirNetwork<?> network, ReadoutFunction readout){
+		this.network = network;
+		this.readout = readout;
+		this.configuration = fingerprint(network);
+	}
+	
+	/**
+	 * @return true if the reservoir activity does not depend on the readout
+	 */
+	public boolean isCacheable(){
+		return readout == null || !readout.hasFeedback();
+	}
+	
+	/**
+	 * Drop all states if the reservoir changed since they were recorded
+	 * @return true if the cached states are still valid
+	 */
+	public synchronized boolean validate(){
+		long current = fingerprint(network);
+		if (current == configuration){
+			return true;
+		}
+		logger.info("Reservoir changed, dropping " + states.size() + " cached states");
+		clear();
+		configuration = current;
+		return false;
+	}
+	
+	/**
+	 * The state of the reservoir after the record, simulating it when not cached. 
+	 * The reservoir is reset after a simulation.
+	 * @param record Position of the record in the dataset
+	 * @param input Input of the record
+	 * @return
+	 * @throws ReserviorException
+	 */
+	public synchronized ReservoirState get(int record, MLData input) throws ReserviorException{
+		double [] data = input.getData();
+		if (record < states.size() && states.get(record) != null && Arrays.equals(inputs.get(record), data)){
+			hits++;
+			return states.get(record);
+		}
+		misses++;
+		Neuron [] neurons = network.getReservior().getNeurons();
+		SimulationContext context = network.getContext();
+		Recorder recorder = new Recorder(neurons);
+		SpikeListener previous = context.getSpikeListener();
+		context.setSpikeListener(recorder);
+		try {
+			network.input(input);
+		} finally {
+			context.setSpikeListener(previous);
+		}
+		ReservoirState state = new ReservoirState(neurons, context.getClock(), recorder.arrivalTimes, recorder.sources, recorder.count);
+		network.getReservior().reset();
+		if (readout != null){
+			readout.reset();
+		}
+		if (!isCacheable()){
+			return state;
+		}
+		
+		while (states.size() <= record){
+			states.add(null);
+			inputs.add(null);
+		}
+		states.set(record, state);
+		inputs.set(record, data.clone());
+		return state;
+	}
+	
+	/**
+	 * Record the state of every record of the dataset which is not cached yet
+	 * @param dataset
+	 * @return the states in the order of the dataset
+	 * @throws ReserviorException
+	 */
+	public List<ReservoirState> fill(MLDataSet dataset) throws ReserviorException{
+		if (!validate() || !isCacheable()){
+			clear();
+		}
+		List<ReservoirState> filled = new ArrayList<ReservoirState>((int)dataset.getRecordCount());
+		int record = 0;
+		for (MLDataPair pair : dataset){
+			filled.add(get(record++, pair.getInput()));
+		}
+		return filled;
+	}
+	
+	public synchronized void clear(){
+		states.clear();
+		inputs.clear();
+	}
+	/**
+	 * @return number of records looked up without simulating
+	 */
+	public int getHits() {
+		return hits;
+	}
+	/**
+	 * @return number of records simulated
+	 */
+	public int getMisses() {
+		return misses;
+	}
+	/**
+	 * @return the network states are recorded from
+	 */
+	public ReservoirNetwork<?> getNetwork() {
+		return network;
+	}
+	
+	/**
+	 * Keeps the spikes of the reservoir neurons in the order they are fired, 
+	 * which is the order the readout receives them in
+	 */
+	private static class Recorder implements SpikeListener {
+		/**
+		 * Reservoir index of each neuron ID, -1 for other sources
+		 */
+		private final int [] indexes;
+		long [] arrivalTimes = new long[64];
+		int [] sources = new int[64];
+		int count = 0;
+		
+		Recorder(Neuron [] neurons){
+			int maxID = 0;
+			for (int i=0; i<neurons.length; i++){
+				maxID = Math.max(maxID, neurons[i].getID());
+			}
+			indexes = new int[maxID + 1];
+			Arrays.fill(indexes, -1);
+			for (int i=0; i<neurons.length; i++){
+				indexes[neurons[i].getID()] = i;
+			}
+		}
+		@Override
+		public void spikeFired(int sourceID, long time) {
+			if (sourceID < 0 || sourceID >= indexes.length || indexes[sourceID] < 0){
+				return;
+			}
+			if (count == sources.length){
+				arrivalTimes = Arrays.copyOf(arrivalTimes, count << 1);
+				sources = Arrays.copyOf(sources, count << 1);
+			}
+			arrivalTimes[count] = time;
+			sources[count] = indexes[sourceID];
+			count++;
+		}
+	}
+	
+	/**
+	 * Hash of everything a reservoir's response depends on other than its input: 
+	 * the neuron parameters of its context, the settings of the clock driven engine that change the spikes or 
+	 * the recorded states, and the weights of every reservoir neuron, which hold the recurrent, input and 
+	 * feedback connections. The number of engine threads is left out since it does not change the response.
+	 * @param network
+	 * @return
+	 */
+	public static long fingerprint(ReservoirNetwork<?> network){
+		SimulationContext context = network.getContext();
+		long hash = 17;
+		hash = mix(hash, Double.doubleToLongBits(context.getThreshold()));
+		hash = mix(hash, Double.doubleToLongBits(context.getMemoryCapacity()));
+		hash = mix(hash, context.getRefractoryPeriod());
+		hash = mix(hash, Double.doubleToLongBits(context.getTimeConstant()));
+		hash = mix(hash, network.isClockDriven() ? 1 : 0);
+		if (network.isClockDriven()){
+			ClockDrivenEngine engine = network.getClockDrivenEngine();
+			hash = mix(hash, engine.isCoalescing() ? 1 : 0);
+			hash = mix(hash, engine.isSkipSilentInputs() ? 1 : 0);
+		}
+		Neuron [] neurons = network.getReservior().getNeurons();
+		hash = mix(hash, neurons.length);
+		for (int i=0; i<neurons.length; i++){
+			Synapses synapses = neurons[i].getSynapses();
+			hash = mix(hash, synapses.size());
+			for (int k=0; k<synapses.size(); k++){
+				hash = mix(hash, synapses.getSourceAt(k));
+				hash = mix(hash, Double.doubleToLongBits(synapses.getWeightAt(k)));
+			}
+		}
+		return hash;
+	}
+	private static long mix(long hash, long value){
+		hash ^= value;
+		hash *= 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+}
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
+import edu.stevens.cpe.math.CSRMatrix;
 import edu.stevens.cpe.reservior.neuron.Neuron;
 
 public class CycleNetworkTopology implements NetworkTopology{
@@ -65,4 +66,10 @@ public class CycleNetworkTopology implements NetworkTopology{
 		return null;
 	}
 	
+	/**
+	 * Not supported, connections come from {@link #getConnections(int)}
+	 */
+	@Override public CSRMatrix getConnectionMatrix() {
+		return null;
+	}
 }
@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 
+import edu.stevens.cpe.math.CSRMatrix;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.neuron.Neuron;
 
@@ -76,4 +77,10 @@ public class FullyConnectedNetworkTopology implements NetworkTopology{
 		return index;
 	}
 	
+	/**
+	 * Not supported, connections come from {@link #getConnections(int)}
+	 */
+	@Override public CSRMatrix getConnectionMatrix() {
+		return null;
+	}
 }
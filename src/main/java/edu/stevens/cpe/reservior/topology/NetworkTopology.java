@@ -17,6 +17,7 @@ package edu.stevens.cpe.reservior.topology;
 
 import java.util.HashMap;
 
+import edu.stevens.cpe.math.CSRMatrix;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.neuron.Neuron;
 
@@ -31,4 +32,12 @@ public interface NetworkTopology {
 	 */
 	public HashMap<Integer,Double> getConnections(int neuronIndex) throws ReserviorException ;
 	
+	/**
+	 * All connections at once so a reservoir can be wired without a map per neuron. 
+	 * Row i holds the indexes of the neurons neuron i attaches to and the weight used for each.
+	 * @return the connections of every neuron, null if the topology only supports {@link #getConnections(int)}
+	 * @throws ReserviorException
+	 */
+	public CSRMatrix getConnectionMatrix() throws ReserviorException ;
+	
 }
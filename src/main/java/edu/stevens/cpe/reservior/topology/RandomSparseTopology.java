@@ -22,26 +22,43 @@ import java.util.Random;
 
 import org.apache.log4j.Logger;
 
-import cern.colt.function.IntIntDoubleFunction;
 import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.linalg.QRDecomposition;
-import cern.jet.math.Functions;
 
+import edu.stevens.cpe.math.CSRMatrix;
 import edu.stevens.cpe.math.MLMatrixUtils;
+import edu.stevens.cpe.math.SpectralRadius;
 import edu.stevens.cpe.reservior.ReserviorException;
 import edu.stevens.cpe.reservior.neuron.Neuron;
 
 public class RandomSparseTopology  implements NetworkTopology {
 	public static Logger logger = Logger.getLogger(RandomSparseTopology.class);
+	/**
+	 * Reservoirs up to this size get the exact spectral radius from a dense eigendecomposition,
+	 * larger ones an Arnoldi estimate over the sparse matrix
+	 */
+	public static int DENSE_SPECTRAL_RADIUS_LIMIT = 500;
+	/**
+	 * Relative tolerance of the Arnoldi estimate
+	 */
+	public static double SPECTRAL_RADIUS_TOLERANCE = SpectralRadius.DEFAULT_TOLERANCE;
 	private double density = 0;
 	private int N;
+	/**
+	 * Colt copy of the weights, made when first asked for
+	 */
 	private DoubleMatrix2D weightMatrix;
+	/**
+	 * Row i holds the weights neuron i subscribes with
+	 */
+	private CSRMatrix connections;
 	private double spectralRadius = 1;
+	/**
+	 * Picks the connections and their weights
+	 */
+	private final Random random;
 	
 	public RandomSparseTopology(int N, double denisty) throws ReserviorException{
-		this.density = denisty;
-		this.N = N;
-		createWeightMatrix();
+		this(N, denisty, 1);
 	}
 	
 	/**
@@ -51,52 +68,60 @@ public class RandomSparseTopology  implements NetworkTopology {
 	 * @throws ReserviorException 
 	 */
 	public RandomSparseTopology(int N, double denisty, double spectralRadius) throws ReserviorException{
+		this(N, denisty, spectralRadius, new Random(System.nanoTime()));
+	}
+	/**
+	 * 
+	 * @param N Number of neurons in reservoir
+	 * @param denisty Density of the reservoir
+	 * @param spectralRadius
+	 * @param random The same seed builds the same reservoir
+	 * @throws ReserviorException 
+	 */
+	public RandomSparseTopology(int N, double denisty, double spectralRadius, Random random) throws ReserviorException{
 		this.density = denisty;
 		this.N = N;
 		this.spectralRadius= spectralRadius;
+		this.random = random;
 		createWeightMatrix();
 	}
-	private static final IntIntDoubleFunction forEachNonZeroSubtract = new IntIntDoubleFunction(){
-		@Override
-		public double apply(int x, int y, double value) {
-			return value - 0.5;
-		}
-	};
 	/**
-	 * Attempt to make a weight matrix with spectral radius
+	 * Attempt to make a weight matrix with spectral radius. 
+	 * The matrix stays in CSR form so the cost follows the number of connections rather than N^2.
 	 * @return
 	 * @throws ReserviorException 
 	 */
 	private void createWeightMatrix() throws ReserviorException{
-		double spectralR = Double.POSITIVE_INFINITY;
-		DoubleMatrix2D sparse = null;
-		int maxTries = 100;
-		int iteration = 0;
-		//while ((spectralR >= 1) && (iteration < maxTries)){
-			sparse = MLMatrixUtils.sprand(N, N, density);
+		CSRMatrix sparse = MLMatrixUtils.sprandCSR(N, N, density, random);
 		
-			//For all non-zero values subtract .5
-			sparse = sparse.forEachNonZero(forEachNonZeroSubtract);
-				
-			sparse =sparse.assign(Functions.div(2));
-			
-			spectralR = MLMatrixUtils.getSpectralRadius(sparse);
-			iteration++;
-		//}
+		//For all non-zero values subtract .5 and halve
+		double [] values = new double[sparse.nonZeros()];
+		for (int k=0; k<values.length; k++){
+			values[k] = (sparse.getValues()[k] - 0.5) / 2;
+		}
+		CSRMatrix centered = new CSRMatrix(N, N, sparse.getRowPointers(), sparse.getColumnIndexes(), values);
 		
-		//if (spectralR < 1){
-			//Divide the matrix by the spectral radius
-
-			this.weightMatrix=sparse.assign(Functions.div(spectralR));
-		//} else {
-		//	throw new ReserviorException("Could not form matrix with spectral radius less than 1");
-		//}
+		double spectralR;
+		if (N <= DENSE_SPECTRAL_RADIUS_LIMIT){
+			spectralR = MLMatrixUtils.getSpectralRadius(centered.toSparseMatrix());
+		} else {
+			SpectralRadius.Estimate estimate = SpectralRadius.estimate(centered, SPECTRAL_RADIUS_TOLERANCE);
+			logger.debug("Spectral radius estimate " + estimate + ", Gershgorin bound = " + SpectralRadius.gershgorinBound(centered));
+			spectralR = estimate.getRadius();
+			if (!estimate.isConverged()){
+				//Scale against the largest value the radius is likely to have so the reservoir is not scaled above the one asked for
+				spectralR = estimate.getUpperEstimate();
+				logger.warn("Spectral radius estimate did not converge, scaling against " + spectralR + " from " + estimate);
+			}
+		}
 		
-		//weightMatrix.assign(Functions.abs);
-		//This is where we scale the matrix by passed in spectral radius
-		weightMatrix.assign(Functions.mult(spectralRadius));
-		QRDecomposition qrd = new QRDecomposition(weightMatrix);
-		logger.info("Full rank? " + qrd.hasFullRank());
+		//Divide the matrix by the spectral radius then scale it by the one passed in
+		double [] scaled = new double[values.length];
+		for (int k=0; k<values.length; k++){
+			scaled[k] = values[k] / spectralR * spectralRadius;
+		}
+		this.connections = new CSRMatrix(N, N, sparse.getRowPointers(), sparse.getColumnIndexes(), scaled);
+		this.weightMatrix = null;
 		logger.info("Matrix created with spectral radius = " + spectralR);
 		 
 	}
@@ -106,20 +131,30 @@ public class RandomSparseTopology  implements NetworkTopology {
 	 */
 	@Override public HashMap<Integer,Double> getConnections(int sourceNeuronIndex)
 			throws ReserviorException {
-		HashMap<Integer,Double> connections = new HashMap<Integer,Double>();
-		for (int i=0; i<N; i++){
-			double weight = weightMatrix.get(sourceNeuronIndex, i);
-			if (weight != 0){
-				connections.put(i, weight);
+		HashMap<Integer,Double> map = new HashMap<Integer,Double>();
+		double [] values = connections.getValues();
+		int [] columnIndexes = connections.getColumnIndexes();
+		for (int k=connections.rowStart(sourceNeuronIndex); k<connections.rowEnd(sourceNeuronIndex); k++){
+			if (values[k] != 0){
+				map.put(columnIndexes[k], values[k]);
 			}
 		}
 		
+		return map;
+	}
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public CSRMatrix getConnectionMatrix() {
 		return connections;
 	}
 	/**
 	 * @return the weightMatrix
 	 */
 	public DoubleMatrix2D getWeightMatrix() {
+		if (weightMatrix == null){
+			weightMatrix = connections.toSparseMatrix();
+		}
 		return weightMatrix;
 	}
 
@@ -140,5 +175,6 @@ public class RandomSparseTopology  implements NetworkTopology {
 	 */
 	public void setWeightMatrix(DoubleMatrix2D weightMatrix) {
 		this.weightMatrix = weightMatrix;
+		this.connections = CSRMatrix.valueOf(weightMatrix);
 	}
 }
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package org.bushe.swing.event;
+
+/**
+ * First in first out queue of topic/event pairs backed by growable arrays so it can be reused
+ * without allocating once it has reached its working size. Every entry carries the sequence number
+ * it was published with so queues filled from different sources can be merged in publish order.
+ * @author wil
+ *
+ */
+public class BufferedEventQueue {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private String [] topics;
+	private Object [] events;
+	private long [] sequences;
+	/**
+	 * Index of the first entry, the queue wraps around the end of the arrays
+	 */
+	private int head = 0;
+	private int size = 0;
+
+	public BufferedEventQueue(){
+		this(DEFAULT_CAPACITY);
+	}
+	public BufferedEventQueue(int capacity){
+		int cap = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.topics = new String[cap];
+		this.events = new Object[cap];
+		this.sequences = new long[cap];
+	}
+
+	public void add(String topic, Object eventObj){
+		add(topic, eventObj, 0);
+	}
+	public void add(String topic, Object eventObj, long sequence){
+		if (size == topics.length){
+			grow();
+		}
+		int index = (head + size) & (topics.length - 1);
+		topics[index] = topic;
+		events[index] = eventObj;
+		sequences[index] = sequence;
+		size++;
+	}
+	/**
+	 * Append all the entries of other to this queue. The other queue is left untouched.
+	 * @param other
+	 */
+	public void addAll(BufferedEventQueue other){
+		for (int i=0; i<other.size(); i++){
+			add(other.getTopic(i), other.getEvent(i), other.getSequence(i));
+		}
+	}
+	/**
+	 * @param i Position from the head of the queue
+	 * @return
+	 */
+	public String getTopic(int i){
+		return topics[(head + i) & (topics.length - 1)];
+	}
+	public Object getEvent(int i){
+		return events[(head + i) & (topics.length - 1)];
+	}
+	public long getSequence(int i){
+		return sequences[(head + i) & (topics.length - 1)];
+	}
+	/**
+	 * Drop the entry at the head of the queue
+	 */
+	public void removeFirst(){
+		if (size == 0){
+			throw new IllegalStateException("Queue is empty");
+		}
+		topics[head] = null;
+		events[head] = null;
+		head = (head + 1) & (topics.length - 1);
+		size--;
+	}
+	public int size(){
+		return size;
+	}
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	/**
+	 * Remove all entries, references are released so events can be garbage collected
+	 */
+	public void clear(){
+		for (int i=0; i<size; i++){
+			int index = (head + i) & (topics.length - 1);
+			topics[index] = null;
+			events[index] = null;
+		}
+		head = 0;
+		size = 0;
+	}
+	private void grow(){
+		int cap = topics.length << 1;
+		String [] newTopics = new String[cap];
+		Object [] newEvents = new Object[cap];
+		long [] newSequences = new long[cap];
+		for (int i=0; i<size; i++){
+			int index = (head + i) & (topics.length - 1);
+			newTopics[i] = topics[index];
+			newEvents[i] = events[index];
+			newSequences[i] = sequences[index];
+		}
+		this.topics = newTopics;
+		this.events = newEvents;
+		this.sequences = newSequences;
+		this.head = 0;
+	}
+}
@@ -15,114 +15,154 @@
  ******************************************************************************/
 package org.bushe.swing.event;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import org.bushe.swing.event.Logger.Level;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimap;
-
-import edu.stevens.cpe.reservior.ReservoirNetwork;
+import edu.stevens.cpe.reservior.SimulationContext;
 import edu.stevens.cpe.reservior.SpikeEvent;
+import edu.stevens.cpe.reservior.TickMetrics;
 
 public class DiscreteTimeThreadSafeEventService extends ThreadSafeEventService{
 	
 	/**
-	 * Allow for multiple values for single key. Values are stored in an ArrayList, when getting an item a list is returned.
-	 * The key is the discrete time. The value is an ArrayList of BufferedEventObjects
+	 * When greater than 0 services created with the default constructor buffer events in a 
+	 * {@link TimingWheelEventTimeBuffer} with this horizon, otherwise in a {@link SortedEventTimeBuffer}.
+	 */
+	public static int TIMING_WHEEL_HORIZON = 0;
+	
+	/**
+	 * Events waiting for their discrete time. Events for the same time are kept in the order they were published.
+	 */
+	private final EventTimeBuffer eventBuffer;
+	/**
+	 * Owner of the clock events are timed against
+	 */
+	private final SimulationContext context;
+	/**
+	 * Events for the current time waiting to be delivered, in the order they are delivered
+	 */
+	private final BufferedEventQueue pending = new BufferedEventQueue();
+	/**
+	 * Set while the delivery loop is running further up the stack
+	 */
+	private boolean delivering = false;
+	/**
+	 * Work done by the delivery loop per tick
+	 */
+	private final TickMetrics metrics = new TickMetrics();
+	
+	/**
+	 * Service for the default context, this is how the EventBus creates it
 	 */
-	 ListMultimap<Long,BufferedEventObject> eventBuffer = ArrayListMultimap.create();
 	public DiscreteTimeThreadSafeEventService(){
+		this(SimulationContext.getDefault());
+	}
+	/**
+	 * @param context Owner of the clock
+	 */
+	public DiscreteTimeThreadSafeEventService(SimulationContext context){
+		this((TIMING_WHEEL_HORIZON > 0) ? new TimingWheelEventTimeBuffer(TIMING_WHEEL_HORIZON) : new SortedEventTimeBuffer(), context);
+	}
+	/**
+	 * Service for the default context
+	 * @param eventBuffer Where events for future times are held until the clock reaches them
+	 */
+	public DiscreteTimeThreadSafeEventService(EventTimeBuffer eventBuffer){
+		this(eventBuffer, SimulationContext.getDefault());
+	}
+	/**
+	 * @param eventBuffer Where events for future times are held until the clock reaches them
+	 * @param context Owner of the clock
+	 */
+	public DiscreteTimeThreadSafeEventService(EventTimeBuffer eventBuffer, SimulationContext context){
 		super();
+		this.eventBuffer = eventBuffer;
+		this.context = context;
+	}
+	/**
+	 * Events for a time other than the clock are buffered. Events for the current time are appended to a worklist 
+	 * after anything buffered for it, and the outermost publish delivers the worklist in a loop. Events published 
+	 * while delivering, such as spikes of the neurons being stimulated, are queued instead of delivered from inside 
+	 * the subscriber, so the stack does not grow with the length of a cascade.
+	 */
+	@Override protected void publish(final Object event, final String topic, final Object eventObj,
+			final List subscribers, final List vetoSubscribers, StackTraceElement[] callingStack) {
+		//Continue with normal operation
+		SpikeEvent spikeEvent = (SpikeEvent)eventObj;
+		long eventTime;
+		if (spikeEvent != null){
+			eventTime = spikeEvent.getTime();
+		} else {
+			return;
+		}
+		if (eventTime != context.getClock()){
+			eventBuffer.add(eventTime, topic, eventObj);
+			return;
+		}
+		if (event == null && topic == null) {
+			throw new IllegalArgumentException("Can't publish to null topic/event.");
+		}
+		//First this is first, anything buffered for the current time goes out before this event
+		if (!eventBuffer.isEmpty()){
+			eventBuffer.drainTo(eventTime, pending);
+		}
+		pending.add(topic, eventObj);
+		if (!delivering){
+			deliverPending(callingStack);
+		}
 	}
-	 @Override protected void publish(final Object event, final String topic, final Object eventObj,
-	           final List subscribers, final List vetoSubscribers, StackTraceElement[] callingStack) {
-
-		
-	
-		 
-		 //Continue with normal operation
-		 SpikeEvent spikeEvent = (SpikeEvent)eventObj;
-		 long eventTime;
-		 if (spikeEvent != null){
-			 eventTime = spikeEvent.getTime();
-		 } else {
-			 return;
-		 }
-		 if (eventTime != ReservoirNetwork.getClock()){
-			 BufferedEventObject obj = new BufferedEventObject();
-			 obj.setEventObj(eventObj);
-			 obj.setTopic(topic);
-			 eventBuffer.put(eventTime, obj);
-			 
-		 } else {
-			 //First this is first, try and see if there are any buffered events for the current time
-			 List<BufferedEventObject> buff = eventBuffer.get(ReservoirNetwork.getClock());
-			 if (buff.size() != 0){
-				 //remove from the list since you just re-published it, need to make a copy because the current
-				 //buff is a reference to the list 
-				 List<BufferedEventObject> eventsToRepublish = new ArrayList<BufferedEventObject>(buff);
-				 eventBuffer.removeAll(ReservoirNetwork.getClock());
-				 for (BufferedEventObject obj : eventsToRepublish){
-					// eventBuffer.remove(CLOCK, obj);
-					 publish(obj.getTopic(), obj.getEventObj());
-				 }
-
-			 }
-			 
-			 if (event == null && topic == null) {
-		         throw new IllegalArgumentException("Can't publish to null topic/event.");
-		      }
-	
-		      setStatus(PublicationStatus.Initiated, event, topic, eventObj);
-		      //topic or event
-	
-		      //Check all veto subscribers, if any veto, then don't publish or cache
-		 
-		      setStatus(PublicationStatus.Queued, event, topic, eventObj);
-		    
 	
-		      addEventToCache(event, topic, eventObj);
+	/**
+	 * Deliver the worklist until it is empty, one event at a time
+	 * @param callingStack
+	 */
+	private void deliverPending(StackTraceElement[] callingStack){
+		delivering = true;
+		try {
+			while (!pending.isEmpty()){
+				String topic = pending.getTopic(0);
+				Object eventObj = pending.getEvent(0);
+				pending.removeFirst();
+				List<?> subscribers = getSubscribers(topic);
+				metrics.record(context.getClock(), (subscribers == null) ? 0 : subscribers.size(), pending.size());
+				deliver(topic, eventObj, subscribers, callingStack);
+			}
+		} finally {
+			delivering = false;
+		}
+	}
 	
-		      if (subscribers == null || subscribers.isEmpty()) {
-		         if (LOG.isLoggable(Level.DEBUG)) {
-		            LOG.debug("No subscribers for event or topic. Event:" + event + ", Topic:" + topic);
-		         }
-		      } else {
-		         if (LOG.isLoggable(Level.DEBUG)) {
-		            LOG.debug("Publishing to subscribers:" + subscribers);
-		         }
-		         setStatus(PublicationStatus.Publishing, event, topic, eventObj);
-		         for (int i = 0; i < subscribers.size(); i++) {
-		            Object eh = subscribers.get(i);
-		            if (event != null) {
-		               EventSubscriber eventSubscriber = (EventSubscriber) eh;
-		               long start = System.currentTimeMillis();
-		               try {
-		                  eventSubscriber.onEvent(event);
-		                 // checkTimeLimit(start, event, eventSubscriber, null);
-		               } catch (Throwable e) {
-		                 // checkTimeLimit(start, event, eventSubscriber, null);
-		                  handleException(event, e, callingStack, eventSubscriber);
-		               }
-		            } else {
-		               EventTopicSubscriber eventTopicSubscriber = (EventTopicSubscriber) eh;
-		               try {
-		                  eventTopicSubscriber.onEvent(topic, eventObj);
-		               } catch (Throwable e) {
-		                  onEventException(topic, eventObj, e, callingStack, eventTopicSubscriber);
-		               }
-		            }
-		         }
-		      }
-		      setStatus(PublicationStatus.Completed, event, topic, eventObj);   
-		      
-		 }
-	   }
+	private void deliver(String topic, Object eventObj, List<?> subscribers, StackTraceElement[] callingStack){
+		setStatus(PublicationStatus.Initiated, null, topic, eventObj);
+		//topic or event
+
+		//Check all veto subscribers, if any veto, then don't publish or cache
+
+		setStatus(PublicationStatus.Queued, null, topic, eventObj);
+
+		addEventToCache(null, topic, eventObj);
+
+		if (subscribers == null || subscribers.isEmpty()) {
+			if (LOG.isLoggable(Level.DEBUG)) {
+				LOG.debug("No subscribers for topic:" + topic);
+			}
+		} else {
+			if (LOG.isLoggable(Level.DEBUG)) {
+				LOG.debug("Publishing to subscribers:" + subscribers);
+			}
+			setStatus(PublicationStatus.Publishing, null, topic, eventObj);
+			for (int i = 0; i < subscribers.size(); i++) {
+				EventTopicSubscriber eventTopicSubscriber = (EventTopicSubscriber) subscribers.get(i);
+				try {
+					eventTopicSubscriber.onEvent(topic, eventObj);
+				} catch (Throwable e) {
+					onEventException(topic, eventObj, e, callingStack, eventTopicSubscriber);
+				}
+			}
+		}
+		setStatus(PublicationStatus.Completed, null, topic, eventObj);
+	}
 
 		/**
 		 * Any values left in the buffer execute them
@@ -131,67 +171,43 @@ public class DiscreteTimeThreadSafeEventService extends ThreadSafeEventService{
 			long next = 0;
 			while (( next = getNextTime()) != 0){
 				//Move clock to next time 
-				ReservoirNetwork.setClock(next);
-				List<BufferedEventObject> buff = eventBuffer.get(next);
-				 if (buff != null){
-					 //remove from the list since you just re-published it and the
-					 // first things its going to do is see if there is anything buffered
-					 eventBuffer.removeAll(next);
-					 for (BufferedEventObject obj : buff){
-						 publish(obj.getTopic(), obj.getEventObj());
-					 }
-
-				 }
+				context.setClock(next);
+				//One pass of the worklist per tick
+				eventBuffer.drainTo(next, pending);
+				if (!delivering){
+					deliverPending(null);
+				}
 			}
 		}
+		/**
+		 * The earliest time with buffered events, 0 when the buffer is empty.
+		 * @return
+		 */
 		private long getNextTime(){
-			long nextTime = 0;
-			//Start at the current time 
-			Set<Long> times = eventBuffer.keySet();
-			ArrayList<Long> timeList = new ArrayList<Long>(times);
-			Collections.sort(timeList);
-			if (timeList.size() != 0){
-				nextTime = timeList.get(0);
-			}
-			return nextTime;
+			return eventBuffer.isEmpty() ? 0 : eventBuffer.nextTime();
 		}
 		/**
-		 * Buffer this event to be used later
-		 * @author wil
-		 *
+		 * @return the number of events still buffered
 		 */
-		private class BufferedEventObject {
-			private String topic;
-			private Object eventObj;
-			/**
-			 * @return the eventObj
-			 */
-			public Object getEventObj() {
-				return eventObj;
-			}
-			/**
-			 * @param eventObj the eventObj to set
-			 */
-			public void setEventObj(Object eventObj) {
-				this.eventObj = eventObj;
-			}
-			/**
-			 * @return the topic
-			 */
-			public String getTopic() {
-				return topic;
-			}
-			/**
-			 * @param topic the topic to set
-			 */
-			public void setTopic(String topic) {
-				this.topic = topic;
-			}
-			
-			@Override public String toString(){
-				 SpikeEvent spikeEvent = (SpikeEvent)eventObj;
-				 long eventTime = spikeEvent.getTime();
-				return "Topic=" + topic + " Time="+ eventTime;
-			}
+		public int getPendingEventCount(){
+			return eventBuffer.size();
+		}
+		/**
+		 * @return the work done by the delivery loop per tick
+		 */
+		public TickMetrics getTickMetrics() {
+			return metrics;
+		}
+		/**
+		 * @return the context whose clock events are timed against
+		 */
+		public SimulationContext getContext() {
+			return context;
+		}
+		/**
+		 * @return the eventBuffer
+		 */
+		public EventTimeBuffer getEventBuffer() {
+			return eventBuffer;
 		}
 }
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package org.bushe.swing.event;
+
+/**
+ * Holds events published for a future discrete time until the clock reaches that time.
+ * Events buffered for the same time are handed back in the order they were added.
+ * @author wil
+ *
+ */
+public interface EventTimeBuffer {
+
+	/**
+	 * Buffer an event until the clock reaches time
+	 * @param time The discrete time the event is scheduled for
+	 * @param topic
+	 * @param eventObj
+	 */
+	public void add(long time, String topic, Object eventObj);
+
+	/**
+	 * @return true if there are no buffered events
+	 */
+	public boolean isEmpty();
+
+	/**
+	 * @return The number of buffered events
+	 */
+	public int size();
+
+	/**
+	 * The earliest time which has buffered events. Only valid when the buffer is not empty.
+	 * @return
+	 */
+	public long nextTime();
+
+	/**
+	 * Remove every event buffered for time and append them to out in the order they were added.
+	 * @param time
+	 * @param out
+	 * @return The number of events moved
+	 */
+	public int drainTo(long time, BufferedEventQueue out);
+
+	/**
+	 * Drop all buffered events
+	 */
+	public void clear();
+}
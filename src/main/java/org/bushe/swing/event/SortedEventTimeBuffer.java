@@ -0,0 +1,110 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Buffer keyed by time in a navigable map, finding and draining the next time bucket is O(log T).
+ * Handles any spread of times equally well, see {@link TimingWheelEventTimeBuffer} for the common
+ * case where almost every event is scheduled one step ahead of the clock.
+ * @author wil
+ *
+ */
+public class SortedEventTimeBuffer implements EventTimeBuffer {
+
+	/**
+	 * The key is the discrete time. The value holds the events in the order they were published.
+	 */
+	private final TreeMap<Long,BufferedEventQueue> eventBuffer = new TreeMap<Long,BufferedEventQueue>();
+	/**
+	 * Drained buckets are kept to be reused by later times
+	 */
+	private final ArrayList<BufferedEventQueue> freeBuckets = new ArrayList<BufferedEventQueue>();
+	private int size = 0;
+
+	@Override public void add(long time, String topic, Object eventObj) {
+		add(time, topic, eventObj, 0);
+	}
+	/**
+	 * @param sequence Publish order kept with the event so buckets can be merged with other buffers
+	 */
+	void add(long time, String topic, Object eventObj, long sequence) {
+		BufferedEventQueue bucket = eventBuffer.get(time);
+		if (bucket == null){
+			bucket = freeBuckets.isEmpty() ? new BufferedEventQueue() : freeBuckets.remove(freeBuckets.size()-1);
+			eventBuffer.put(time, bucket);
+		}
+		bucket.add(topic, eventObj, sequence);
+		size++;
+	}
+
+	@Override public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override public int size() {
+		return size;
+	}
+
+	@Override public long nextTime() {
+		Map.Entry<Long,BufferedEventQueue> first = eventBuffer.firstEntry();
+		if (first == null){
+			throw new IllegalStateException("Buffer is empty");
+		}
+		return first.getKey();
+	}
+
+	@Override public int drainTo(long time, BufferedEventQueue out) {
+		BufferedEventQueue bucket = eventBuffer.get(time);
+		if (bucket == null){
+			return 0;
+		}
+		out.addAll(bucket);
+		return remove(time);
+	}
+	/**
+	 * Drop the events buffered for time
+	 * @param time
+	 * @return The number of events removed
+	 */
+	int remove(long time) {
+		BufferedEventQueue bucket = eventBuffer.remove(time);
+		if (bucket == null){
+			return 0;
+		}
+		int count = bucket.size();
+		bucket.clear();
+		freeBuckets.add(bucket);
+		size -= count;
+		return count;
+	}
+
+	/**
+	 * @param time
+	 * @return The events buffered for time without removing them, null if there are none
+	 */
+	BufferedEventQueue peek(long time) {
+		return eventBuffer.get(time);
+	}
+
+	@Override public void clear() {
+		eventBuffer.clear();
+		size = 0;
+	}
+}
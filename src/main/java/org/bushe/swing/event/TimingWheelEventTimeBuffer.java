@@ -0,0 +1,209 @@
+/*******************************************************************************
+ *  Copyright 2013 William Koch
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package org.bushe.swing.event;
+
+/**
+ * Ring buffer of time slots indexed by time mod horizon. Nearly every spike is scheduled for the
+ * step after the one being delivered, so scheduling and draining are O(1) and no Long keys are boxed.
+ * Events outside of the window [base, base + horizon), or scheduled behind a slot still holding an
+ * earlier time, fall back to an overflow {@link SortedEventTimeBuffer}. The overflow is a sorted map rather
+ * than a heap because a bucket behind the earliest pending time must be removable on its own.
+ * 
+ * Once the slots have grown to their working size no memory is allocated for events inside the window.
+ * @author wil
+ *
+ */
+public class TimingWheelEventTimeBuffer implements EventTimeBuffer {
+
+	public static final int DEFAULT_HORIZON = 64;
+
+	private final int horizon;
+	private final BufferedEventQueue [] slots;
+	/**
+	 * The time held by each non empty slot
+	 */
+	private final long [] slotTimes;
+	/**
+	 * Earliest time which can be held by the wheel, all slot times are in [base, base + horizon)
+	 */
+	private long base = 0;
+	/**
+	 * Number of events held in the slots
+	 */
+	private int wheelCount = 0;
+	/**
+	 * Publish order across slots and overflow so events for the same time can be merged in order
+	 */
+	private long sequence = 0;
+
+	/**
+	 * Far future and late events, each entry keeps its publish sequence
+	 */
+	private final SortedEventTimeBuffer overflow = new SortedEventTimeBuffer();
+
+	public TimingWheelEventTimeBuffer(){
+		this(DEFAULT_HORIZON);
+	}
+	/**
+	 * @param horizon Number of time steps ahead of the earliest pending time handled by the wheel
+	 */
+	public TimingWheelEventTimeBuffer(int horizon){
+		if (horizon < 1){
+			throw new IllegalArgumentException("Horizon must be positive");
+		}
+		this.horizon = horizon;
+		this.slots = new BufferedEventQueue[horizon];
+		this.slotTimes = new long[horizon];
+		for (int i=0; i<horizon; i++){
+			slots[i] = new BufferedEventQueue();
+		}
+	}
+
+	private int slotIndex(long time){
+		int index = (int)(time % horizon);
+		return (index < 0) ? index + horizon : index;
+	}
+
+	@Override public void add(long time, String topic, Object eventObj) {
+		if (wheelCount == 0){
+			//Nothing in the wheel, move the window to start at this time
+			base = time;
+		}
+		long seq = sequence++;
+		if (time >= base && time - base < horizon){
+			int index = slotIndex(time);
+			BufferedEventQueue slot = slots[index];
+			if (slot.isEmpty() || slotTimes[index] == time){
+				slotTimes[index] = time;
+				slot.add(topic, eventObj, seq);
+				wheelCount++;
+				return;
+			}
+		}
+		overflow.add(time, topic, eventObj, seq);
+	}
+
+	@Override public boolean isEmpty() {
+		return wheelCount == 0 && overflow.isEmpty();
+	}
+
+	@Override public int size() {
+		return wheelCount + overflow.size();
+	}
+
+	@Override public long nextTime() {
+		if (isEmpty()){
+			throw new IllegalStateException("Buffer is empty");
+		}
+		long next = Long.MAX_VALUE;
+		if (wheelCount != 0){
+			for (int k=0; k<horizon; k++){
+				int index = slotIndex(base + k);
+				if (!slots[index].isEmpty()){
+					//Nothing earlier is left in the wheel so the window can start here
+					base = slotTimes[index];
+					next = base;
+					break;
+				}
+			}
+		}
+		if (!overflow.isEmpty() && overflow.nextTime() < next){
+			next = overflow.nextTime();
+		}
+		return next;
+	}
+
+	@Override public int drainTo(long time, BufferedEventQueue out) {
+		if (time > base){
+			advance(time);
+		}
+		BufferedEventQueue slot = null;
+		if (time >= base && time - base < horizon){
+			int index = slotIndex(time);
+			if (!slots[index].isEmpty() && slotTimes[index] == time){
+				slot = slots[index];
+			}
+		}
+		BufferedEventQueue late = overflow.isEmpty() ? null : overflow.peek(time);
+		int slotSize = (slot == null) ? 0 : slot.size();
+		int lateSize = (late == null) ? 0 : late.size();
+		//Merge the slot and the overflow entries for this time in publish order
+		int s = 0;
+		int o = 0;
+		while (s < slotSize || o < lateSize){
+			if (s == slotSize || (o < lateSize && late.getSequence(o) < slot.getSequence(s))){
+				out.add(late.getTopic(o), late.getEvent(o), late.getSequence(o));
+				o++;
+			} else {
+				out.add(slot.getTopic(s), slot.getEvent(s), slot.getSequence(s));
+				s++;
+			}
+		}
+		if (slot != null){
+			wheelCount -= slotSize;
+			slot.clear();
+		}
+		if (late != null){
+			overflow.remove(time);
+		}
+		return slotSize + lateSize;
+	}
+
+	/**
+	 * Move the start of the window forward to time. Events left in the wheel before time are moved
+	 * to the overflow so every slot keeps holding a single time.
+	 * @param time
+	 */
+	private void advance(long time){
+		if (wheelCount != 0){
+			long end = Math.min(time, base + horizon);
+			for (long t=base; t<end; t++){
+				int index = slotIndex(t);
+				BufferedEventQueue slot = slots[index];
+				if (!slot.isEmpty() && slotTimes[index] == t){
+					for (int i=0; i<slot.size(); i++){
+						overflow.add(t, slot.getTopic(i), slot.getEvent(i), slot.getSequence(i));
+					}
+					wheelCount -= slot.size();
+					slot.clear();
+				}
+			}
+		}
+		base = time;
+	}
+
+	@Override public void clear() {
+		for (int i=0; i<horizon; i++){
+			slots[i].clear();
+		}
+		overflow.clear();
+		wheelCount = 0;
+	}
+
+	/**
+	 * @return the horizon
+	 */
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/**
+	 * @return Number of events which did not fit in the wheel
+	 */
+	public int getOverflowSize() {
+		return overflow.size();
+	}
+}